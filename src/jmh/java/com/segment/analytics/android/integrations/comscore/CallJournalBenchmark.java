@@ -0,0 +1,100 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what {@link CallJournal} adds to each queued comScore call: appending it and
+ * acknowledging it once processed. {@code copyLabels} is a lower bound for the SDK call the journal
+ * protects, which at least copies the labels into its own map before doing any work of its own, so
+ * journaling should stay in the same range.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallJournalBenchmark {
+
+  @Param({"10", "40"})
+  public int size;
+
+  private File directory;
+  private CallJournal journal;
+  private Map<String, String> labels;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal").toFile();
+    journal = new CallJournal(256 * 1024, 16);
+    journal.open(directory);
+    labels = new LinkedHashMap<>();
+    labels.put("name", "Order Completed");
+    for (int i = 1; i < size; i++) {
+      labels.put("property" + i, "value " + i);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /** A call journaled and acknowledged right away, as with a dispatch queue that keeps up. */
+  @Benchmark
+  public long appendAndAcknowledge() {
+    long sequence = journal.append(Method.NOTIFY_HIDDEN_EVENT, labels);
+    journal.acknowledge(sequence);
+    return sequence;
+  }
+
+  /** Sixteen calls journaled before the oldest is acknowledged, as with a busy dispatch queue. */
+  @Benchmark
+  @org.openjdk.jmh.annotations.OperationsPerInvocation(16)
+  public long appendBacklog() {
+    long first = -1;
+    for (int i = 0; i < 16; i++) {
+      long sequence = journal.append(Method.NOTIFY_HIDDEN_EVENT, labels);
+      if (first < 0) {
+        first = sequence;
+      }
+    }
+    for (long sequence = first; sequence < first + 16; sequence++) {
+      journal.acknowledge(sequence);
+    }
+    return first;
+  }
+
+  @Benchmark
+  public Map<String, String> copyLabels() {
+    return new HashMap<>(labels);
+  }
+}
@@ -0,0 +1,242 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.content.Context;
+
+import com.comscore.PublisherConfiguration;
+import com.comscore.streaming.StreamingAnalytics;
+import com.comscore.streaming.StreamingConfiguration;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.Traits;
+import com.segment.analytics.ValueMap;
+import com.segment.analytics.integrations.IdentifyPayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives {@link ComScoreIntegration} end to end with prebuilt payloads and a comScore SDK that does
+ * nothing but read the maps it is given, the way the real SDK copies them. Run with {@code -prof
+ * gc} to see bytes allocated per operation.
+ *
+ * <p>Video benchmarks use a stub-only Mockito {@link StreamingAnalytics}, whose per-call cost is
+ * included in their numbers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ComScoreIntegrationBenchmark {
+
+  private static final int HEARTBEATS = 64;
+  private static final long HEARTBEAT_INTERVAL = 10;
+
+  private final NoOpComScoreAnalytics comScoreAnalytics = new NoOpComScoreAnalytics();
+  private long now;
+  private ComScoreIntegration integration;
+
+  private TrackPayload[] heartbeats;
+  private int heartbeat;
+  private TrackPayload[] adPod;
+  private TrackPayload consentEvent;
+  private ScreenPayload screen;
+  private IdentifyPayload identify;
+
+  @Setup
+  public void setUp() {
+    Analytics analytics = Mockito.mock(Analytics.class);
+    when(analytics.logger("comScore")).thenReturn(Logger.with(Analytics.LogLevel.NONE));
+    ValueMap settings = new ValueMap().putValue("c2", "1234").putValue("consentFlag", "consent");
+    Clock clock =
+        new Clock() {
+          @Override
+          public long millis() {
+            return now;
+          }
+        };
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+
+    integration.track(track("Video Playback Started", video().putValue("position", 0)));
+    integration.track(track("Video Content Started", video().putValue("position", 0)));
+    heartbeats = new TrackPayload[HEARTBEATS];
+    for (int i = 0; i < HEARTBEATS; i++) {
+      heartbeats[i] =
+          track("Video Content Playing", video().putValue("position", i * HEARTBEAT_INTERVAL));
+    }
+
+    adPod = new TrackPayload[10];
+    for (int ad = 0; ad < 3; ad++) {
+      Properties properties =
+          new Properties()
+              .putValue("asset_id", "ad" + ad)
+              .putValue("pod_id", "pod")
+              .putValue("type", "mid-roll")
+              .putValue("title", "Ad " + ad)
+              .putValue("total_length", 15);
+      adPod[ad * 3] = track("Video Ad Started", properties);
+      adPod[ad * 3 + 1] = track("Video Ad Playing", properties);
+      adPod[ad * 3 + 2] = track("Video Ad Completed", properties);
+    }
+    adPod[9] = track("Video Content Playing", video().putValue("position", 0));
+
+    consentEvent =
+        track("Consent Event", new Properties().putValue("consent", "1YNN").putValue("page", 1));
+    screen =
+        new ScreenPayload.Builder()
+            .anonymousId("foo")
+            .name("Home")
+            .category("Feed")
+            .properties(new Properties().putValue("consent", true))
+            .build();
+    identify =
+        new IdentifyPayload.Builder()
+            .anonymousId("foo")
+            .userId("bar")
+            .traits(new Traits().putValue("name", "Kylo Ren").putValue("consent", "1"))
+            .build();
+  }
+
+  /** A "Video Content Playing" heartbeat, HEARTBEAT_INTERVAL seconds after the previous one. */
+  @Benchmark
+  public void videoHeartbeat() {
+    now += HEARTBEAT_INTERVAL * 1000;
+    integration.track(heartbeats[heartbeat]);
+    heartbeat = (heartbeat + 1) % HEARTBEATS;
+  }
+
+  /** A pod of three mid-roll ads followed by the return to content. */
+  @Benchmark
+  public void adPod() {
+    for (TrackPayload payload : adPod) {
+      integration.track(payload);
+    }
+  }
+
+  @Benchmark
+  public void customEvent(CustomEvent event) {
+    integration.track(event.payload);
+  }
+
+  /** A custom event carrying the same consent flag as the previous one. */
+  @Benchmark
+  public void consentEvent() {
+    integration.track(consentEvent);
+  }
+
+  @Benchmark
+  public void screen() {
+    integration.screen(screen);
+  }
+
+  @Benchmark
+  public void identify() {
+    integration.identify(identify);
+  }
+
+  private static Properties video() {
+    return new Properties()
+        .putValue("asset_id", "1234")
+        .putValue("title", "Pilot")
+        .putValue("program", "Show")
+        .putValue("total_length", 1800)
+        .putValue("video_player", "exoplayer");
+  }
+
+  private static TrackPayload track(String event, Properties properties) {
+    return new TrackPayload.Builder()
+        .anonymousId("foo")
+        .event(event)
+        .properties(properties)
+        .build();
+  }
+
+  /** A custom event with {@code size} properties, half strings and half integers. */
+  @State(Scope.Thread)
+  public static class CustomEvent {
+
+    @Param({"10", "100"})
+    public int size;
+
+    TrackPayload payload;
+
+    @Setup
+    public void setUp() {
+      Properties properties = new Properties();
+      for (int i = 0; i < size; i++) {
+        properties.putValue("property" + i, i % 2 == 0 ? "value" + i : i);
+      }
+      payload = track("Custom Event", properties);
+    }
+  }
+
+  /** Reads every label it is given, like the comScore SDK copying them, and does nothing else. */
+  static final class NoOpComScoreAnalytics implements ComScoreAnalytics {
+
+    private final StreamingAnalytics streamingAnalytics;
+    /** Keeps the reads observable so that they are not optimized away. */
+    int consumed;
+
+    NoOpComScoreAnalytics() {
+      streamingAnalytics =
+          Mockito.mock(StreamingAnalytics.class, Mockito.withSettings().stubOnly());
+      StreamingConfiguration configuration =
+          Mockito.mock(StreamingConfiguration.class, Mockito.withSettings().stubOnly());
+      when(streamingAnalytics.getConfiguration()).thenReturn(configuration);
+    }
+
+    @Override
+    public StreamingAnalytics createStreamingAnalytics() {
+      return streamingAnalytics;
+    }
+
+    @Override
+    public void start(Context context, String partnerId, PublisherConfiguration publisher) {}
+
+    @Override
+    public void setPersistentLabels(Map<String, String> labels) {
+      consume(labels);
+    }
+
+    @Override
+    public void removePersistentLabel(String label) {
+      consumed += label.length();
+    }
+
+    @Override
+    public void notifyViewEvent(Map<String, String> properties) {
+      consume(properties);
+    }
+
+    @Override
+    public void notifyHiddenEvent(Map<String, String> properties) {
+      consume(properties);
+    }
+
+    private void consume(Map<String, String> labels) {
+      for (Map.Entry<String, String> entry : labels.entrySet()) {
+        String value = entry.getValue();
+        consumed += entry.getKey().length() + (value == null ? 0 : value.length());
+      }
+    }
+  }
+}
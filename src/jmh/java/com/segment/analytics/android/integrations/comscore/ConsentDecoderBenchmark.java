@@ -0,0 +1,75 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Compares {@link ConsentDecoder} with the Pattern-based decoding it replaced. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsentDecoderBenchmark {
+
+  private static final Pattern PRIVACY_STRING_PATTERN = Pattern.compile("^1(-|Y|N){3}");
+
+  @Param({"1YNN", "1Y-N", "true", "somevalue"})
+  public String value;
+
+  private ConsentDecoder decoder;
+
+  @Setup
+  public void setUp() {
+    decoder = new ConsentDecoder();
+  }
+
+  @Benchmark
+  public String decoder() {
+    return decoder.decode(value);
+  }
+
+  @Benchmark
+  public String decoderUncached() {
+    return ConsentDecoder.decodeUncached(value);
+  }
+
+  @Benchmark
+  public String pattern() {
+    return legacyDecode(value);
+  }
+
+  /** The decoding as it was in ComScoreIntegration.setConsentLabelValue. */
+  private static String legacyDecode(String consentFlagValue) {
+    Matcher privacyStringMatcher = PRIVACY_STRING_PATTERN.matcher(consentFlagValue);
+    if (!(privacyStringMatcher.matches()
+        && String.valueOf(consentFlagValue.toCharArray()[2]).equals("-"))) {
+      if (consentFlagValue.equals("1")
+          || consentFlagValue.equals("true")
+          || (privacyStringMatcher.matches()
+              && String.valueOf(consentFlagValue.toCharArray()[2]).equals("N"))) {
+        return "1";
+      } else if (consentFlagValue.equals("0")
+          || consentFlagValue.equals("false")
+          || (privacyStringMatcher.matches()
+              && String.valueOf(consentFlagValue.toCharArray()[2]).equals("Y"))) {
+        return "0";
+      }
+      return "";
+    }
+    return null;
+  }
+}
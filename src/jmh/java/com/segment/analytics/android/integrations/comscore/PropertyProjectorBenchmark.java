@@ -0,0 +1,137 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.Properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PropertyProjector} with the helper methods it replaced in {@link
+ * ComScoreIntegration}, for a "Video Ad Started" event (the family with the most aliases).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PropertyProjectorBenchmark {
+
+  private Properties properties;
+  private Map<String, Object> options;
+
+  @Setup
+  public void setUp() {
+    properties =
+        new Properties()
+            .putValue("asset_id", 4311)
+            .putValue("pod_id", "adSegmentA")
+            .putValue("type", "pre-roll")
+            .putValue("total_length", 120)
+            .putValue("position", 10)
+            .putValue("title", "Helmet Ad")
+            .putValue("publisher", "Turner Broadcasting System")
+            .putValue("c3", "some value");
+    options = Collections.emptyMap();
+  }
+
+  @Benchmark
+  public Map<String, String> projector() {
+    VideoProperties video = PropertyProjector.project(properties, options, LabelPlan.AD);
+    Map<String, String> asset = video.labels;
+    if (video.hasLength) {
+      asset.put("ns_st_cl", String.valueOf(video.length));
+    }
+    LabelPlan.AD.applyOptions(asset, options);
+    asset.put("ns_st_ad", String.valueOf(video.type));
+    asset.put("c3", video.c3);
+    asset.put("c4", video.c4);
+    asset.put("c6", video.c6);
+    asset.put("position", String.valueOf(video.position));
+    asset.put("adType", video.adType);
+    return asset;
+  }
+
+  @Benchmark
+  public Map<String, String> legacyHelpers() {
+    return Legacy.mapAd(properties, options);
+  }
+
+  /** The mapping helpers as they were before {@link PropertyProjector}, kept as the baseline. */
+  static final class Legacy {
+
+    static Map<String, String> mapAd(Properties properties, Map<String, ?> options) {
+      long playbackPosition = properties.getLong("playbackPosition", 0);
+      if (playbackPosition == 0) {
+        playbackPosition = properties.getLong("position", 0);
+      }
+      String adType = properties.getString("adType");
+      if (adType == null || adType.trim().isEmpty()) {
+        adType = properties.getString("ad_type");
+        if (adType == null || adType.trim().isEmpty()) {
+          adType = properties.getString("type");
+        }
+      }
+
+      Map<String, String> adMapper = new LinkedHashMap<>();
+      adMapper.put("assetId", "ns_st_ami");
+      adMapper.put("asset_id", "ns_st_ami");
+      adMapper.put("title", "ns_st_amt");
+      adMapper.put("publisher", "ns_st_pu");
+
+      Map<String, String> asset = new LinkedHashMap<>(adMapper.size());
+      for (Map.Entry<String, ?> entry : properties.entrySet()) {
+        String mappedKey = adMapper.get(entry.getKey());
+        if (mappedKey != null && !mappedKey.isEmpty()) {
+          asset.put(mappedKey, String.valueOf(entry.getValue()));
+        }
+      }
+
+      if (properties.containsKey("totalLength") || properties.containsKey("total_length")) {
+        int length = properties.getInt("totalLength", 0) * 1000;
+        if (length == 0) {
+          length = properties.getInt("total_length", 0) * 1000;
+        }
+        asset.put("ns_st_cl", String.valueOf(length));
+      }
+
+      if (options.containsKey("adClassificationType")) {
+        asset.put("ns_st_ct", String.valueOf(options.get("adClassificationType")));
+      } else {
+        asset.put("ns_st_ct", "va00");
+      }
+      asset.put("ns_st_ad", String.valueOf(properties.get("type")));
+
+      setNullIfNotProvided(asset, options, properties, "c3");
+      setNullIfNotProvided(asset, options, properties, "c4");
+      setNullIfNotProvided(asset, options, properties, "c6");
+      asset.put("position", String.valueOf(playbackPosition));
+      asset.put("adType", adType);
+      return asset;
+    }
+
+    private static void setNullIfNotProvided(
+        Map<String, String> asset, Map<String, ?> options, Map<String, ?> properties, String key) {
+      Object option = options.get(key);
+      if (option != null) {
+        asset.put(key, String.valueOf(option));
+        return;
+      }
+      Object property = properties.get(key);
+      asset.put(key, property != null ? String.valueOf(property) : "*null");
+    }
+  }
+}
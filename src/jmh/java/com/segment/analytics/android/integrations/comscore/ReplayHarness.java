@@ -0,0 +1,376 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.StreamingAnalytics;
+import com.comscore.streaming.StreamingConfiguration;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.ValueMap;
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.IdentifyPayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+import com.segment.analytics.internal.Utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Replays a JSON-lines file of Segment payloads through {@link ComScoreIntegration} on the JVM, and
+ * reports throughput, comScore SDK calls per event and latency percentiles. No device, network or
+ * comScore SDK is involved: calls are counted by a {@link RecordingComScoreAnalytics} wrapping mocks
+ * that count the calls made to their {@link StreamingAnalytics}.
+ *
+ * <p>Each line is a payload as Segment serializes it, with a {@code type} of {@code track}, {@code
+ * screen} or {@code identify}; other types and malformed lines are skipped. The integration's clock
+ * follows the payloads' {@code timestamp}, so idle sessions and playback positions behave as they
+ * did in production even when replaying at full speed.
+ *
+ * <pre>
+ * ./gradlew replay -Preplay.args="events.jsonl [--timed] [--speed 10] [--settings '{...}']"
+ * </pre>
+ *
+ * {@code --timed} waits between payloads as long as their timestamps say, divided by {@code
+ * --speed}. {@code --settings} are the destination settings, as JSON.
+ */
+public final class ReplayHarness {
+
+  private final ComScoreIntegration integration;
+  private final RecordingComScoreAnalytics comScoreAnalytics;
+  private final Map<String, Long> streamingCalls = new TreeMap<>();
+  private final boolean timed;
+  private final double speed;
+  private long now;
+
+  ReplayHarness(ValueMap settings, boolean timed, double speed) {
+    this.timed = timed;
+    this.speed = speed;
+    Analytics analytics = Mockito.mock(Analytics.class);
+    when(analytics.logger("comScore")).thenReturn(Logger.with(Analytics.LogLevel.NONE));
+    Clock clock =
+        new Clock() {
+          @Override
+          public long millis() {
+            return now;
+          }
+        };
+    StreamingConfiguration configuration =
+        Mockito.mock(
+            StreamingConfiguration.class,
+            Mockito.withSettings().stubOnly().defaultAnswer(counting("configuration.", null)));
+    StreamingAnalytics streamingAnalytics =
+        Mockito.mock(
+            StreamingAnalytics.class,
+            Mockito.withSettings()
+                .stubOnly()
+                .defaultAnswer(counting("streamingAnalytics.", configuration)));
+    ComScoreAnalytics sdk =
+        Mockito.mock(ComScoreAnalytics.class, Mockito.withSettings().stubOnly());
+    when(sdk.createStreamingAnalytics()).thenReturn(streamingAnalytics);
+    // Only the counts are read, so a single slot is enough.
+    comScoreAnalytics = new RecordingComScoreAnalytics(sdk, 1);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+  }
+
+  /** Counts the calls made to a streaming mock, except getting its configuration. */
+  private Answer<Object> counting(final String prefix, final Object configuration) {
+    return new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        if (method.equals("getConfiguration")) {
+          return configuration;
+        }
+        Long count = streamingCalls.get(prefix + method);
+        streamingCalls.put(prefix + method, count == null ? 1 : count + 1);
+        return Mockito.RETURNS_DEFAULTS.answer(invocation);
+      }
+    };
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length == 0) {
+      System.err.println(
+          "Usage: ReplayHarness <events.jsonl> [--timed] [--speed <factor>] [--settings <json>]");
+      System.exit(2);
+    }
+    boolean timed = false;
+    double speed = 1;
+    ValueMap settings = new ValueMap();
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--timed":
+          timed = true;
+          break;
+        case "--speed":
+          speed = Double.parseDouble(args[++i]);
+          break;
+        case "--settings":
+          settings.putAll(new JSONObject(args[++i]).toMap());
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+      System.out.print(new ReplayHarness(settings, timed, speed).replay(reader).format());
+    }
+  }
+
+  /**
+   * Replays every payload read from {@code reader}.
+   *
+   * @param reader JSON lines.
+   * @return The replay report.
+   */
+  Report replay(BufferedReader reader) throws IOException, InterruptedException {
+    Report report = new Report();
+    long firstTimestamp = -1;
+    long start = System.nanoTime();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      BasePayload payload = parse(line);
+      if (payload == null) {
+        report.skipped++;
+        continue;
+      }
+
+      Date timestamp = payload.timestamp();
+      if (timestamp != null) {
+        now = timestamp.getTime();
+        if (firstTimestamp < 0) {
+          firstTimestamp = now;
+        }
+        if (timed) {
+          long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(now - firstTimestamp) / speed);
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          }
+        }
+      }
+
+      long begin = System.nanoTime();
+      dispatch(payload);
+      report.record(System.nanoTime() - begin);
+    }
+    report.wallNanos = System.nanoTime() - start;
+    report.sdkCalls = sdkCalls();
+    return report;
+  }
+
+  /** Counts the calls made so far by method, named as in {@link ComScoreAnalytics}. */
+  private Map<String, Long> sdkCalls() {
+    Map<String, Long> calls = new TreeMap<>(streamingCalls);
+    for (Method method : Method.values()) {
+      long count = comScoreAnalytics.getCallCount(method);
+      if (count > 0) {
+        calls.put(methodName(method), count);
+      }
+    }
+    return calls;
+  }
+
+  /** Converts {@code NOTIFY_HIDDEN_EVENT} to {@code notifyHiddenEvent}. */
+  private static String methodName(Method method) {
+    StringBuilder name = new StringBuilder();
+    for (String word : method.name().toLowerCase(Locale.US).split("_")) {
+      name.append(
+          name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+    }
+    return name.toString();
+  }
+
+  private void dispatch(BasePayload payload) {
+    switch (payload.type()) {
+      case track:
+        integration.track((TrackPayload) payload);
+        break;
+      case screen:
+        integration.screen((ScreenPayload) payload);
+        break;
+      case identify:
+        integration.identify((IdentifyPayload) payload);
+        break;
+      default:
+        throw new AssertionError("Unexpected payload " + payload.type());
+    }
+  }
+
+  /**
+   * Parses one JSON line into a payload.
+   *
+   * @param line Payload JSON.
+   * @return The payload, or {@code null} if the line is not a track, screen or identify payload.
+   */
+  static BasePayload parse(String line) {
+    Map<String, Object> json;
+    try {
+      json = new JSONObject(line).toMap();
+    } catch (JSONException e) {
+      return null;
+    }
+    ValueMap map = new ValueMap(json);
+    String type = map.getString("type");
+    if (type == null) {
+      return null;
+    }
+
+    BasePayload.Builder<?, ?> builder;
+    switch (type) {
+      case "track":
+        if (map.getString("event") == null) {
+          return null;
+        }
+        builder =
+            new TrackPayload.Builder()
+                .event(map.getString("event"))
+                .properties(orEmpty(map.getValueMap("properties")));
+        break;
+      case "screen":
+        builder =
+            new ScreenPayload.Builder()
+                .name(map.getString("name"))
+                .category(map.getString("category"))
+                .properties(orEmpty(map.getValueMap("properties")));
+        break;
+      case "identify":
+        builder = new IdentifyPayload.Builder().traits(orEmpty(map.getValueMap("traits")));
+        break;
+      default:
+        return null;
+    }
+
+    String anonymousId = map.getString("anonymousId");
+    String userId = map.getString("userId");
+    if (anonymousId == null && userId == null) {
+      anonymousId = "replay";
+    }
+    if (anonymousId != null) {
+      builder.anonymousId(anonymousId);
+    }
+    if (userId != null) {
+      builder.userId(userId);
+    }
+    if (map.getString("messageId") != null) {
+      builder.messageId(map.getString("messageId"));
+    }
+    String timestamp = map.getString("timestamp");
+    if (timestamp != null) {
+      try {
+        builder.timestamp(Utils.toISO8601Date(timestamp));
+      } catch (Exception ignored) {
+        // Replayed without a timestamp.
+      }
+    }
+    builder.context(orEmpty(map.getValueMap("context")));
+    builder.integrations(orEmpty(map.getValueMap("integrations")));
+    try {
+      return builder.build();
+    } catch (IllegalArgumentException | NullPointerException e) {
+      return null; // Rejected by the builder, e.g. a screen without name or category.
+    }
+  }
+
+  private static ValueMap orEmpty(ValueMap map) {
+    return map != null ? map : new ValueMap();
+  }
+
+  /** Replay results. */
+  static final class Report {
+
+    int events;
+    int skipped;
+    long wallNanos;
+    Map<String, Long> sdkCalls;
+    private long busyNanos;
+    private long[] latencies = new long[1024];
+
+    void record(long latencyNanos) {
+      if (events == latencies.length) {
+        latencies = Arrays.copyOf(latencies, events * 2);
+      }
+      latencies[events++] = latencyNanos;
+      busyNanos += latencyNanos;
+    }
+
+    long totalSdkCalls() {
+      long total = 0;
+      for (long calls : sdkCalls.values()) {
+        total += calls;
+      }
+      return total;
+    }
+
+    /**
+     * Retrieves a latency percentile.
+     *
+     * @param percentile Between 0 and 100.
+     * @return Latency in nanoseconds, or 0 without events.
+     */
+    long latency(double percentile) {
+      if (events == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(latencies, events);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * events) - 1;
+      return sorted[Math.max(0, Math.min(events - 1, index))];
+    }
+
+    String format() {
+      StringBuilder out = new StringBuilder();
+      out.append(String.format(Locale.US, "events            %d (%d skipped)%n", events, skipped));
+      out.append(
+          String.format(
+              Locale.US,
+              "wall time         %.1f ms%n",
+              wallNanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+      out.append(
+          String.format(
+              Locale.US,
+              "throughput        %.0f events/s (integration time only)%n",
+              busyNanos == 0 ? 0 : events / (busyNanos / (double) TimeUnit.SECONDS.toNanos(1))));
+      out.append(
+          String.format(
+              Locale.US,
+              "sdk calls/event   %.2f%n",
+              events == 0 ? 0 : totalSdkCalls() / (double) events));
+      for (Map.Entry<String, Long> entry : sdkCalls.entrySet()) {
+        out.append(String.format(Locale.US, "  %-40s %d%n", entry.getKey(), entry.getValue()));
+      }
+      double[] percentiles = {50, 90, 99, 99.9, 100};
+      for (double percentile : percentiles) {
+        String label =
+            percentile == 100 ? "max" : "p" + String.valueOf(percentile).replace(".0", "");
+        out.append(
+            String.format(
+                Locale.US, "latency %-9s %.1f us%n", label, latency(percentile) / 1000.0));
+      }
+      return out.toString();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.Properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation of {@link StringMapView} with {@code toStringMap()} for a custom event
+ * that is forwarded to comScore. Run with {@code -prof gc} to see bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringMapViewBenchmark {
+
+  @Param({"5", "40"})
+  public int size;
+
+  private Properties properties;
+
+  @Setup
+  public void setUp() {
+    properties = new Properties();
+    for (int i = 0; i < size; i++) {
+      switch (i % 4) {
+        case 0:
+          properties.putValue("string" + i, "value" + i);
+          break;
+        case 1:
+          properties.putValue("int" + i, i);
+          break;
+        case 2:
+          properties.putValue("double" + i, i + 0.5);
+          break;
+        default:
+          properties.putValue("boolean" + i, i % 2 == 0);
+      }
+    }
+  }
+
+  @Benchmark
+  public void toStringMap(Blackhole blackhole) {
+    Map<String, String> props = properties.toStringMap();
+    props.put("name", "Custom Event");
+    consume(props, blackhole);
+  }
+
+  @Benchmark
+  public void view(Blackhole blackhole) {
+    Map<String, String> props = new StringMapView(properties);
+    props.put("name", "Custom Event");
+    consume(props, blackhole);
+  }
+
+  /** Reads every entry, like the comScore SDK does when it builds the beacon. */
+  private static void consume(Map<String, String> props, Blackhole blackhole) {
+    for (Map.Entry<String, String> entry : props.entrySet()) {
+      blackhole.consume(entry.getKey());
+      blackhole.consume(entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.content.Context;
+
+import com.comscore.PublisherConfiguration;
+import com.comscore.streaming.StreamingAnalytics;
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+import com.segment.analytics.integrations.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ComScoreAnalytics} that runs event calls on a dedicated worker thread, so slow SDK calls
+ * never stall the thread Segment delivers payloads on. Calls reach the wrapped instance in the order
+ * they were made. The queue is bounded: once it is full, further calls are dropped and logged.
+ *
+ * <p>{@link #start} and {@link #createStreamingAnalytics} still run on the calling thread, since the
+ * integration depends on their side effects and return values right away. Maps passed to this class
+ * must not be modified afterwards.
+ *
+ * <p>With a {@link CallJournal}, queued calls are also journaled to disk until the wrapped instance
+ * has processed them. Calls a previous process did not get to are replayed after {@link #start}.
+ * Calls made before {@link #start} are not journaled.
+ */
+class AsyncComScoreAnalytics implements ComScoreAnalytics {
+
+  private static final String THREAD_NAME = "SegmentComScoreDispatcher";
+  private static final String JOURNAL_DIRECTORY = "segment-comscore-journal";
+
+  private final ComScoreAnalytics delegate;
+  private final ThreadPoolExecutor executor;
+  private final Logger logger;
+  private final CallJournal journal;
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile RejectionListener rejectionListener;
+
+  /** Told about calls dropped because the queue was full. */
+  interface RejectionListener {
+
+    /**
+     * Called on the thread that made the dropped call.
+     *
+     * @param method Method of the dropped call.
+     * @param labels Labels of the dropped call; the removed label for {@link
+     *     Method#REMOVE_PERSISTENT_LABEL}.
+     */
+    void onRejected(Method method, Map<String, String> labels);
+  }
+
+  AsyncComScoreAnalytics(ComScoreAnalytics delegate, int capacity, Logger logger) {
+    this(delegate, capacity, logger, null);
+  }
+
+  /**
+   * Creates an instance that journals queued calls.
+   *
+   * @param journal Journal opened in {@link #start}, or {@code null} to not journal calls.
+   */
+  AsyncComScoreAnalytics(
+      ComScoreAnalytics delegate, int capacity, Logger logger, CallJournal journal) {
+    this.delegate = delegate;
+    this.logger = logger;
+    this.journal = journal;
+    // A single worker over a FIFO queue keeps the calls ordered.
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(capacity),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+              }
+            }) {
+          @Override
+          protected void terminated() {
+            if (AsyncComScoreAnalytics.this.journal != null) {
+              AsyncComScoreAnalytics.this.journal.close();
+            }
+          }
+        };
+  }
+
+  @Override
+  public StreamingAnalytics createStreamingAnalytics() {
+    return delegate.createStreamingAnalytics();
+  }
+
+  @Override
+  public void start(Context context, String partnerId, PublisherConfiguration publisher) {
+    delegate.start(context, partnerId, publisher);
+    if (journal != null) {
+      replayJournal(context);
+    }
+  }
+
+  @Override
+  public void setPersistentLabels(Map<String, String> labels) {
+    dispatch(Method.SET_PERSISTENT_LABELS, labels, append(Method.SET_PERSISTENT_LABELS, labels));
+  }
+
+  @Override
+  public void removePersistentLabel(String label) {
+    // Journaled as a label without value.
+    Map<String, String> labels = Collections.singletonMap(label, null);
+    dispatch(
+        Method.REMOVE_PERSISTENT_LABEL, labels, append(Method.REMOVE_PERSISTENT_LABEL, labels));
+  }
+
+  @Override
+  public void notifyViewEvent(Map<String, String> properties) {
+    dispatch(Method.NOTIFY_VIEW_EVENT, properties, append(Method.NOTIFY_VIEW_EVENT, properties));
+  }
+
+  @Override
+  public void notifyHiddenEvent(Map<String, String> properties) {
+    dispatch(
+        Method.NOTIFY_HIDDEN_EVENT, properties, append(Method.NOTIFY_HIDDEN_EVENT, properties));
+  }
+
+  /**
+   * Sets the listener told about dropped calls.
+   *
+   * @param rejectionListener Listener, or {@code null} for none.
+   */
+  void setRejectionListener(RejectionListener rejectionListener) {
+    this.rejectionListener = rejectionListener;
+  }
+
+  /**
+   * Retrieves the journal.
+   *
+   * @return Journal, or {@code null} if calls are not journaled.
+   */
+  CallJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Retrieves the number of calls dropped because the queue was full.
+   *
+   * @return Dropped calls.
+   */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /** Stops the worker once the calls already queued have run, then closes the journal. */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Waits for the worker to finish after {@link #shutdown()}, or until the timeout expires.
+   *
+   * @return <code>true</code> if the worker finished. <code>false</code> on timeout.
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  /** Opens the journal under the app's files directory and queues the calls it held. */
+  private void replayJournal(Context context) {
+    File filesDir = context != null ? context.getFilesDir() : null;
+    if (filesDir == null) {
+      logger.error(null, "comScore calls are not journaled, there is no files directory.");
+      return;
+    }
+    try {
+      for (CallJournal.Record record : journal.open(new File(filesDir, JOURNAL_DIRECTORY))) {
+        dispatch(record.method, record.labels, record.sequence);
+      }
+      if (journal.getUndeletedCount() > 0) {
+        logger.error(
+            null,
+            "Could not delete %s replayed journal segments; their calls will be sent again.",
+            journal.getUndeletedCount());
+      }
+    } catch (IOException e) {
+      logger.error(e, "comScore calls are not journaled.");
+    }
+  }
+
+  private long append(Method method, Map<String, String> labels) {
+    return journal != null ? journal.append(method, labels) : -1;
+  }
+
+  private void acknowledge(long sequence) {
+    if (sequence >= 0) {
+      journal.acknowledge(sequence);
+    }
+  }
+
+  private void dispatch(
+      final Method method, final Map<String, String> labels, final long sequence) {
+    try {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                call(method, labels);
+              } catch (RuntimeException e) {
+                logger.error(e, "comScore %s failed.", method);
+              } finally {
+                acknowledge(sequence);
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      dropped.incrementAndGet();
+      acknowledge(sequence);
+      logger.error(e, "Dropped %s, the comScore dispatch queue is full.", method);
+      RejectionListener listener = rejectionListener;
+      if (listener != null) {
+        listener.onRejected(method, labels);
+      }
+    }
+  }
+
+  private void call(Method method, Map<String, String> labels) {
+    switch (method) {
+      case SET_PERSISTENT_LABELS:
+        delegate.setPersistentLabels(labels);
+        break;
+      case NOTIFY_VIEW_EVENT:
+        delegate.notifyViewEvent(labels);
+        break;
+      case NOTIFY_HIDDEN_EVENT:
+        delegate.notifyHiddenEvent(labels);
+        break;
+      case REMOVE_PERSISTENT_LABEL:
+        delegate.removePersistentLabel(labels.keySet().iterator().next());
+        break;
+      default:
+        throw new IllegalArgumentException("Not dispatched: " + method);
+    }
+  }
+}
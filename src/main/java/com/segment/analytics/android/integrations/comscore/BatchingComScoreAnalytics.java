@@ -0,0 +1,196 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.content.Context;
+
+import com.comscore.PublisherConfiguration;
+import com.comscore.streaming.StreamingAnalytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ComScoreAnalytics} that holds hidden events back and hands them to the wrapped instance
+ * in bursts: once {@code batchSize} are held, once the oldest has been held for {@code delayMillis},
+ * or on {@link #flush()}. Grouping the calls lets the SDK do its work, and the radio its transfers,
+ * together rather than once per event.
+ *
+ * <p>Every other call sends the held hidden events first, so calls reach the wrapped instance in
+ * the order they were made. Maps passed to this class must not be modified afterwards.
+ *
+ * <p>Thread safe, since bursts that are due are sent from a timer thread.
+ */
+class BatchingComScoreAnalytics implements ComScoreAnalytics {
+
+  private static final String THREAD_NAME = "SegmentComScoreBatch";
+
+  private final ComScoreAnalytics delegate;
+  private final int batchSize;
+  private final long delayMillis;
+  private final Clock clock;
+  private final ScheduledExecutorService timer;
+  private final List<Map<String, String>> batch;
+  private final Runnable flushIfDue =
+      new Runnable() {
+        @Override
+        public void run() {
+          flushIfDue();
+        }
+      };
+  private long heldSince;
+  private long burstCount;
+
+  /**
+   * Creates an instance that sends due bursts from its own daemon thread.
+   *
+   * @param delegate Instance to hand calls to.
+   * @param batchSize Number of hidden events sent as one burst. Must be at least 1.
+   * @param delayMillis Maximum time a hidden event is held.
+   * @param clock Source of time.
+   */
+  BatchingComScoreAnalytics(
+      ComScoreAnalytics delegate, int batchSize, long delayMillis, Clock clock) {
+    this(delegate, batchSize, delayMillis, clock, newTimer(THREAD_NAME));
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param timer Runs {@link #flushIfDue()} once a burst may be due, or {@code null} to only send
+   *     bursts when a call or {@link #flush()} is made.
+   */
+  BatchingComScoreAnalytics(
+      ComScoreAnalytics delegate,
+      int batchSize,
+      long delayMillis,
+      Clock clock,
+      ScheduledExecutorService timer) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize < 1: " + batchSize);
+    }
+    this.delegate = delegate;
+    this.batchSize = batchSize;
+    this.delayMillis = delayMillis;
+    this.clock = clock;
+    this.timer = timer;
+    this.batch = new ArrayList<>(batchSize);
+  }
+
+  /**
+   * Creates a timer running on one daemon thread.
+   *
+   * @param threadName Name of the thread.
+   * @return The timer.
+   */
+  static ScheduledExecutorService newTimer(final String threadName) {
+    return new ScheduledThreadPoolExecutor(
+        1,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  @Override
+  public synchronized StreamingAnalytics createStreamingAnalytics() {
+    flush();
+    return delegate.createStreamingAnalytics();
+  }
+
+  @Override
+  public synchronized void start(
+      Context context, String partnerId, PublisherConfiguration publisher) {
+    flush();
+    delegate.start(context, partnerId, publisher);
+  }
+
+  @Override
+  public synchronized void setPersistentLabels(Map<String, String> labels) {
+    flush();
+    delegate.setPersistentLabels(labels);
+  }
+
+  @Override
+  public synchronized void removePersistentLabel(String label) {
+    flush();
+    delegate.removePersistentLabel(label);
+  }
+
+  @Override
+  public synchronized void notifyViewEvent(Map<String, String> properties) {
+    flush();
+    delegate.notifyViewEvent(properties);
+  }
+
+  @Override
+  public synchronized void notifyHiddenEvent(Map<String, String> properties) {
+    if (batch.isEmpty()) {
+      heldSince = clock.millis();
+      if (timer != null) {
+        timer.schedule(flushIfDue, delayMillis, TimeUnit.MILLISECONDS);
+      }
+    } else if (clock.millis() - heldSince >= delayMillis) {
+      flush(); // The timer is late; do not hold the oldest event any longer.
+      notifyHiddenEvent(properties);
+      return;
+    }
+    batch.add(properties);
+    if (batch.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  /** Sends the held hidden events to the wrapped instance, oldest first. */
+  synchronized void flush() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    burstCount++;
+    for (int i = 0, size = batch.size(); i < size; i++) {
+      delegate.notifyHiddenEvent(batch.get(i));
+    }
+    batch.clear();
+  }
+
+  /**
+   * Sends the held hidden events if the oldest has been held for the delay. Otherwise, checks again
+   * once it will have been.
+   */
+  synchronized void flushIfDue() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    long remaining = heldSince + delayMillis - clock.millis();
+    if (remaining <= 0) {
+      flush();
+    } else if (timer != null) {
+      timer.schedule(flushIfDue, remaining, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Retrieves the number of held hidden events.
+   *
+   * @return Held events.
+   */
+  synchronized int size() {
+    return batch.size();
+  }
+
+  /**
+   * Retrieves the number of bursts sent.
+   *
+   * @return Bursts.
+   */
+  synchronized long getBurstCount() {
+    return burstCount;
+  }
+}
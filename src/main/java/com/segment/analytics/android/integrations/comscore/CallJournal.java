@@ -0,0 +1,603 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the comScore calls that were made but have not reached the SDK yet, so
+ * that they can be replayed on the next launch if the process dies first.
+ *
+ * <p>Calls are written to memory-mapped segment files. A write lands in the page cache right away,
+ * which survives the death of the process, though not of the device. Each segment file starts with
+ * a header holding a magic number and the offset of the first record that is not acknowledged. The
+ * records follow, each one laid out as:
+ *
+ * <pre>
+ * int length | int crc32 | byte opcode | varint count | count * (key, value)
+ * </pre>
+ *
+ * The record ends with an {@code int 0} that marks the end of the segment. A key is written in full
+ * the first time a segment uses it and by its index afterwards, so the label names that repeat in
+ * every call cost a byte or two. A value is a UTF-8 string, prefixed by its length plus one;
+ * {@code 0} stands for {@code null}. The opcode is one of the {@code OP_*} constants, which are
+ * part of the format and must not be renumbered.
+ *
+ * <p>Calls are acknowledged once the SDK has processed them, mostly in order. A segment whose
+ * calls are all acknowledged is deleted once a newer one is written to. The segment being written
+ * is rewound when it is full and all its calls are acknowledged, so the journal stays at one file
+ * while the SDK keeps up, and keeps its keys between calls. It never grows beyond {@code
+ * maxSegments} segments; calls that do not fit are not journaled.
+ *
+ * <p>Only the calls handed to the dispatch thread are journaled. Payloads held back until the SDK
+ * has started are not, and are lost if the process dies before it starts.
+ *
+ * <p>Thread safe. Calls are appended on the thread Segment delivers payloads on and acknowledged
+ * on the dispatch thread.
+ */
+final class CallJournal {
+
+  private static final int MAGIC = 0x43534a32; // "CSJ2"
+  private static final int ACK_OFFSET = 4;
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int END_MARKER_SIZE = 4;
+  private static final String SUFFIX = ".seg";
+
+  private static final byte OP_SET_PERSISTENT_LABELS = 1;
+  private static final byte OP_REMOVE_PERSISTENT_LABEL = 2;
+  private static final byte OP_NOTIFY_VIEW_EVENT = 3;
+  private static final byte OP_NOTIFY_HIDDEN_EVENT = 4;
+
+  /** A call read back from the journal. */
+  static final class Record {
+
+    final Method method;
+    final Map<String, String> labels;
+    /** Sequence number to acknowledge the call with. */
+    final long sequence;
+
+    Record(Method method, Map<String, String> labels, long sequence) {
+      this.method = method;
+      this.labels = labels;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final class Segment {
+
+    final File file;
+    final MappedByteBuffer buffer;
+    final Map<String, Integer> keyIds = new HashMap<>();
+    int writePosition = HEADER_SIZE;
+    int ackPosition = HEADER_SIZE;
+
+    Segment(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private final int segmentSize;
+  private final int maxSegments;
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private final CRC32 crc = new CRC32();
+  private final Set<Long> earlyAcks = new HashSet<>();
+  private final List<String> newKeys = new ArrayList<>();
+  private final Payload scratch = new Payload();
+  private File directory;
+  private long nextSegmentNumber;
+  private long headSequence;
+  private long nextSequence;
+  private long unjournaledCount;
+  private long corruptCount;
+  private long undeletedCount;
+
+  /**
+   * Creates a journal. Nothing is read or written until {@link #open}.
+   *
+   * @param segmentSize Size of a segment file in bytes.
+   * @param maxSegments Maximum number of segment files. Must be at least 1.
+   */
+  CallJournal(int segmentSize, int maxSegments) {
+    if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + END_MARKER_SIZE + 2) {
+      throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+    }
+    if (maxSegments < 1) {
+      throw new IllegalArgumentException("maxSegments < 1: " + maxSegments);
+    }
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Opens the journal in {@code directory} and reads back the calls that a previous process did
+   * not get acknowledged. They are journaled again under new sequence numbers before the old
+   * segments are deleted, so a crash while opening replays them twice rather than losing them.
+   * Calls that do not fit in the journal any more are still replayed, with sequence number {@code
+   * -1}, but are lost if the process dies again before they reach the SDK.
+   *
+   * @param directory Directory of the segment files. Created if missing.
+   * @return The calls to replay, oldest first.
+   */
+  synchronized List<Record> open(File directory) throws IOException {
+    if (this.directory != null) {
+      throw new IllegalStateException("Already open.");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Cannot list " + directory);
+    }
+    List<File> old = new ArrayList<>();
+    for (File file : files) {
+      if (file.getName().endsWith(SUFFIX)) {
+        old.add(file);
+        nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+      }
+    }
+    // Zero padded names sort in the order the segments were created.
+    File[] sorted = old.toArray(new File[0]);
+    Arrays.sort(sorted);
+
+    List<Record> pending = new ArrayList<>();
+    for (File file : sorted) {
+      read(file, pending);
+    }
+
+    this.directory = directory;
+    try {
+      segments.add(createSegment());
+    } catch (IOException e) {
+      this.directory = null;
+      throw e;
+    }
+    List<Record> records = new ArrayList<>(pending.size());
+    for (Record record : pending) {
+      long sequence = append(record.method, record.labels);
+      records.add(new Record(record.method, record.labels, sequence));
+    }
+    force();
+    for (File file : sorted) {
+      if (!file.delete() && !empty(file)) {
+        // Its calls are replayed again by the next open, which beats not replaying them now.
+        undeletedCount++;
+      }
+    }
+    return records;
+  }
+
+  /** Truncates a segment that cannot be deleted, so that the next open finds nothing in it. */
+  private static boolean empty(File file) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(0);
+      } finally {
+        raf.close();
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Journals a call.
+   *
+   * @param method Method called.
+   * @param labels Labels passed to the call.
+   * @return Sequence number to {@link #acknowledge} the call with, or <code>-1</code> if it was not
+   *     journaled because the journal is not open, is full or the call is larger than a segment.
+   */
+  synchronized long append(Method method, Map<String, String> labels) {
+    if (directory == null) {
+      unjournaledCount++;
+      return -1;
+    }
+    Segment segment = segments.peekLast();
+    int length = encode(segment, method, labels);
+    if (segment.writePosition + RECORD_HEADER_SIZE + length + END_MARKER_SIZE > segmentSize) {
+      undefineNewKeys(segment);
+      if (segment.writePosition == HEADER_SIZE) {
+        unjournaledCount++;
+        return -1;
+      }
+      if (segment.ackPosition == segment.writePosition) {
+        // Every call is acknowledged, so the segment can be reused from the start.
+        rewind(segment);
+      } else if (segments.size() == maxSegments) {
+        unjournaledCount++;
+        return -1;
+      } else {
+        try {
+          segment = createSegment();
+        } catch (IOException e) {
+          unjournaledCount++;
+          return -1;
+        }
+        segments.add(segment);
+      }
+      length = encode(segment, method, labels);
+      if (HEADER_SIZE + RECORD_HEADER_SIZE + length + END_MARKER_SIZE > segmentSize) {
+        undefineNewKeys(segment);
+        unjournaledCount++;
+        return -1;
+      }
+    }
+
+    crc.reset();
+    crc.update(scratch.bytes(), 0, length);
+    int position = segment.writePosition;
+    ByteBuffer buffer = segment.buffer;
+    // The end marker goes first and the length last, so a reader never sees a partial record
+    // followed by whatever a rewound segment held before.
+    buffer.putInt(position + RECORD_HEADER_SIZE + length, 0);
+    buffer.position(position + RECORD_HEADER_SIZE);
+    buffer.put(scratch.bytes(), 0, length);
+    buffer.putInt(position + 4, (int) crc.getValue());
+    buffer.putInt(position, length);
+    segment.writePosition = position + RECORD_HEADER_SIZE + length;
+    return nextSequence++;
+  }
+
+  /**
+   * Marks a call as processed. Acknowledging a call that is not the oldest one defers its removal
+   * until every older call is acknowledged.
+   *
+   * @param sequence Sequence number returned by {@link #append}.
+   */
+  synchronized void acknowledge(long sequence) {
+    if (sequence < headSequence || sequence >= nextSequence) {
+      return;
+    }
+    if (sequence != headSequence) {
+      earlyAcks.add(sequence);
+      return;
+    }
+    advance();
+    while (!earlyAcks.isEmpty() && earlyAcks.remove(headSequence)) {
+      advance();
+    }
+  }
+
+  /** Writes the journal to storage, so that it also survives the device losing power. */
+  synchronized void force() {
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  /**
+   * Writes the journal to storage and lets go of its segment mappings, which are unmapped once
+   * collected. Calls appended afterwards are not journaled. The segment files are kept, so that
+   * their pending calls are replayed by the next {@link #open}.
+   */
+  synchronized void close() {
+    if (directory == null) {
+      return;
+    }
+    force();
+    segments.clear();
+    earlyAcks.clear();
+    headSequence = nextSequence;
+    directory = null;
+  }
+
+  /**
+   * Retrieves the number of calls journaled and not acknowledged.
+   *
+   * @return Number of pending calls.
+   */
+  synchronized long size() {
+    return nextSequence - headSequence - earlyAcks.size();
+  }
+
+  /**
+   * Retrieves the number of segment files in use.
+   *
+   * @return Number of segments.
+   */
+  synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Retrieves the number of calls that could not be journaled.
+   *
+   * @return Number of calls not journaled.
+   */
+  synchronized long getUnjournaledCount() {
+    return unjournaledCount;
+  }
+
+  /**
+   * Retrieves the number of segments found damaged when opened, e.g. by a checksum mismatch. Their
+   * records up to the damage are still replayed.
+   *
+   * @return Number of corrupt segments.
+   */
+  synchronized long getCorruptCount() {
+    return corruptCount;
+  }
+
+  /**
+   * Retrieves the number of replayed segments that could be neither deleted nor emptied when
+   * opened. Their calls will be replayed once more by the next {@link #open}.
+   *
+   * @return Number of segments left behind.
+   */
+  synchronized long getUndeletedCount() {
+    return undeletedCount;
+  }
+
+  /** Moves the acknowledged position past the oldest record and deletes drained segments. */
+  private void advance() {
+    Segment head = segments.peekFirst();
+    int length = head.buffer.getInt(head.ackPosition);
+    head.ackPosition += RECORD_HEADER_SIZE + length;
+    headSequence++;
+    if (head.ackPosition == head.writePosition && segments.size() > 1) {
+      segments.removeFirst();
+      head.file.delete();
+    } else {
+      head.buffer.putInt(ACK_OFFSET, head.ackPosition);
+    }
+  }
+
+  private void rewind(Segment segment) {
+    // The end marker goes first, so that a crash in between does not replay acknowledged calls.
+    segment.buffer.putInt(HEADER_SIZE, 0);
+    segment.buffer.putInt(ACK_OFFSET, HEADER_SIZE);
+    segment.writePosition = HEADER_SIZE;
+    segment.ackPosition = HEADER_SIZE;
+    segment.keyIds.clear();
+  }
+
+  private Segment createSegment() throws IOException {
+    File file = new File(directory, String.format("%016d%s", nextSegmentNumber++, SUFFIX));
+    Segment segment = new Segment(file, map(file));
+    segment.buffer.putInt(0, MAGIC);
+    rewind(segment);
+    return segment;
+  }
+
+  private MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(segmentSize);
+      // The mapping stays valid after the file is closed.
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Adds the records of {@code file} that were not acknowledged to {@code records}. */
+  private void read(File file, List<Record> records) throws IOException {
+    if (!file.isFile() || file.length() < HEADER_SIZE + END_MARKER_SIZE) {
+      return;
+    }
+    byte[] bytes = new byte[(int) file.length()];
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.readFully(bytes);
+    } finally {
+      raf.close();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    if (buffer.getInt(0) != MAGIC) {
+      corruptCount++;
+      return;
+    }
+    int ackPosition = buffer.getInt(ACK_OFFSET);
+    List<String> keys = new ArrayList<>();
+    int position = HEADER_SIZE;
+    while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+      int length = buffer.getInt(position);
+      if (length == 0) {
+        return;
+      }
+      int start = position + RECORD_HEADER_SIZE;
+      if (length < 0 || start + length > buffer.limit()) {
+        corruptCount++;
+        return;
+      }
+      crc.reset();
+      crc.update(bytes, start, length);
+      if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+        corruptCount++;
+        return;
+      }
+      Record record = decode(ByteBuffer.wrap(bytes, start, length), keys);
+      if (record == null) {
+        corruptCount++;
+        return;
+      }
+      if (position >= ackPosition) {
+        records.add(record);
+      }
+      position = start + length;
+    }
+  }
+
+  private static long segmentNumber(File file) {
+    String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** Encodes a record payload into {@link #scratch}, defining new keys in the segment. */
+  private int encode(Segment segment, Method method, Map<String, String> labels) {
+    newKeys.clear();
+    scratch.reset();
+    scratch.write(opcode(method));
+    scratch.writeVarint(labels.size());
+    for (Map.Entry<String, String> entry : labels.entrySet()) {
+      String key = entry.getKey();
+      Integer id = segment.keyIds.get(key);
+      if (id != null) {
+        scratch.writeVarint(id << 1);
+      } else {
+        int newId = segment.keyIds.size();
+        segment.keyIds.put(key, newId);
+        newKeys.add(key);
+        scratch.writeVarint((newId << 1) | 1);
+        scratch.writeString(key);
+      }
+      scratch.writeString(entry.getValue());
+    }
+    return scratch.size();
+  }
+
+  /** Forgets the keys defined by the last {@link #encode}, whose record was not written. */
+  private void undefineNewKeys(Segment segment) {
+    for (String key : newKeys) {
+      segment.keyIds.remove(key);
+    }
+    newKeys.clear();
+  }
+
+  private static byte opcode(Method method) {
+    switch (method) {
+      case SET_PERSISTENT_LABELS:
+        return OP_SET_PERSISTENT_LABELS;
+      case REMOVE_PERSISTENT_LABEL:
+        return OP_REMOVE_PERSISTENT_LABEL;
+      case NOTIFY_VIEW_EVENT:
+        return OP_NOTIFY_VIEW_EVENT;
+      case NOTIFY_HIDDEN_EVENT:
+        return OP_NOTIFY_HIDDEN_EVENT;
+      default:
+        throw new IllegalArgumentException("Not journaled: " + method);
+    }
+  }
+
+  private static Method method(byte opcode) {
+    switch (opcode) {
+      case OP_SET_PERSISTENT_LABELS:
+        return Method.SET_PERSISTENT_LABELS;
+      case OP_REMOVE_PERSISTENT_LABEL:
+        return Method.REMOVE_PERSISTENT_LABEL;
+      case OP_NOTIFY_VIEW_EVENT:
+        return Method.NOTIFY_VIEW_EVENT;
+      case OP_NOTIFY_HIDDEN_EVENT:
+        return Method.NOTIFY_HIDDEN_EVENT;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Decodes a record payload, adding the keys it defines to {@code keys}.
+   *
+   * @return The record, or {@code null} if the payload is malformed.
+   */
+  private static Record decode(ByteBuffer payload, List<String> keys) {
+    try {
+      Method method = method(payload.get());
+      if (method == null) {
+        return null;
+      }
+      int count = readVarint(payload);
+      Map<String, String> labels = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        int ref = readVarint(payload);
+        String key;
+        if ((ref & 1) == 1) {
+          key = readString(payload);
+          keys.add(key);
+        } else if ((ref >>> 1) < keys.size()) {
+          key = keys.get(ref >>> 1);
+        } else {
+          return null;
+        }
+        labels.put(key, readString(payload));
+      }
+      return new Record(method, labels, -1);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static int readVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /** A record payload being encoded. */
+  private static final class Payload extends ByteArrayOutputStream {
+
+    Payload() {
+      super(256);
+    }
+
+    byte[] bytes() {
+      return buf;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    /** Writes the UTF-8 length plus one, then the bytes. {@code 0} stands for {@code null}. */
+    void writeString(String value) {
+      if (value == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length + 1);
+      write(bytes, 0, bytes.length);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = readVarint(buffer) - 1;
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String value =
+        new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+            StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+}
@@ -0,0 +1,23 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.os.SystemClock;
+
+/** A source of monotonic time, so that time-based behaviour can be tested without waiting. */
+interface Clock {
+
+  /** Reads {@link SystemClock#elapsedRealtime()}, which keeps counting while the device sleeps. */
+  Clock SYSTEM =
+      new Clock() {
+        @Override
+        public long millis() {
+          return SystemClock.elapsedRealtime();
+        }
+      };
+
+  /**
+   * Retrieves the current time. Only differences between two readings are meaningful.
+   *
+   * @return Time in milliseconds.
+   */
+  long millis();
+}
@@ -3,6 +3,7 @@ package com.segment.analytics.android.integrations.comscore;
 import android.content.Context;
 
 import com.comscore.Analytics;
+import com.comscore.ClientConfiguration;
 import com.comscore.PartnerConfiguration;
 import com.comscore.PublisherConfiguration;
 import com.comscore.streaming.StreamingAnalytics;
@@ -39,6 +40,13 @@ public interface ComScoreAnalytics {
    */
   public void setPersistentLabels(Map<String, String> labels);
 
+  /**
+   * Removes a global label.
+   *
+   * @param label Label name.
+   */
+  public void removePersistentLabel(String label);
+
   /**
    * Sends an view event with the provided properties.
    *
@@ -60,13 +68,19 @@ public interface ComScoreAnalytics {
   public class DefaultcomScoreAnalytics implements ComScoreAnalytics {
 
     private Logger logger;
+    private final SdkBootstrap bootstrap;
 
     public DefaultcomScoreAnalytics() {
-      logger = Logger.with(com.segment.analytics.Analytics.LogLevel.NONE);
+      this(Logger.with(com.segment.analytics.Analytics.LogLevel.NONE));
     }
 
     public DefaultcomScoreAnalytics(Logger logger) {
+      this(logger, SdkBootstrap.SHARED);
+    }
+
+    DefaultcomScoreAnalytics(Logger logger, SdkBootstrap bootstrap) {
       this.logger = logger;
+      this.bootstrap = bootstrap;
     }
 
     @Override
@@ -76,20 +90,37 @@ public interface ComScoreAnalytics {
     }
 
     @Override
-    public void start(Context context, String partnerId, PublisherConfiguration publisher) {
+    public void start(final Context context, String partnerId, PublisherConfiguration publisher) {
 
       PartnerConfiguration partner =
           new PartnerConfiguration.Builder().partnerId(partnerId).build();
 
-      logger.verbose("Adding partner (%s)", partner);
-      Analytics.getConfiguration().addClient(partner);
-
-      logger.verbose("Adding publisher (%s)", publisher);
-      Analytics.getConfiguration().addClient(publisher);
-
-      logger.verbose("Starting ComScore Analytics");
-
-      Analytics.start(context);
+      // Other Segment instances in the process may already have added the clients and started
+      // the SDK.
+      boolean added =
+          bootstrap.register(
+              new SdkBootstrap.Sdk() {
+                @Override
+                public void addClient(ClientConfiguration client) {
+                  logger.verbose("Adding client (%s)", client);
+                  Analytics.getConfiguration().addClient(client);
+                }
+
+                @Override
+                public void start() {
+                  logger.verbose("Starting ComScore Analytics");
+                  Analytics.start(context);
+                }
+              },
+              partner,
+              partnerId,
+              publisher,
+              publisher.getPublisherId());
+      if (!added) {
+        logger.info(
+            "Publisher %s is already registered; the first configuration is kept.",
+            publisher.getPublisherId());
+      }
     }
 
     @Override
@@ -98,6 +129,12 @@ public interface ComScoreAnalytics {
       Analytics.getConfiguration().addPersistentLabels(labels);
     }
 
+    @Override
+    public void removePersistentLabel(String label) {
+      logger.verbose("Analytics.getConfiguration().removePersistentLabel(%s)", label);
+      Analytics.getConfiguration().removePersistentLabel(label);
+    }
+
     @Override
     public void notifyViewEvent(Map<String, String> properties) {
       logger.verbose("Analytics.notifyViewEvent(%s)", properties);
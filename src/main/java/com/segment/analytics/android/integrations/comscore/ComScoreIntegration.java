@@ -1,5 +1,9 @@
 package com.segment.analytics.android.integrations.comscore;
 
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
 import com.comscore.streaming.AdvertisementMetadata;
 import com.comscore.streaming.ContentMetadata;
 import com.comscore.streaming.StreamingAnalytics;
@@ -7,18 +11,23 @@ import com.segment.analytics.AnalyticsContext;
 import com.segment.analytics.Properties;
 import com.segment.analytics.Traits;
 import com.segment.analytics.ValueMap;
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+import com.segment.analytics.integrations.BasePayload;
 import com.segment.analytics.integrations.IdentifyPayload;
 import com.segment.analytics.integrations.Integration;
 import com.segment.analytics.integrations.Logger;
 import com.segment.analytics.integrations.ScreenPayload;
 import com.segment.analytics.integrations.TrackPayload;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.segment.analytics.internal.Utils.isNullOrEmpty;
 
@@ -39,15 +48,64 @@ public class ComScoreIntegration extends Integration<Void> {
 
   private static final String COMSCORE_KEY = "comScore";
   private static final String PARTNER_ID = "24186693";
+  private static final int MAX_JOURNAL_SEGMENTS = 16;
+  private static final String TIMER_THREAD_NAME = "SegmentComScoreTimer";
+  // Drive video sessions, so the event filter never drops them.
+  private static final Set<String> VIDEO_EVENTS =
+      new HashSet<>(
+          Arrays.asList(
+              "Video Playback Started",
+              "Video Playback Paused",
+              "Video Playback Interrupted",
+              "Video Playback Buffer Started",
+              "Video Playback Buffer Completed",
+              "Video Playback Seek Started",
+              "Video Playback Seek Completed",
+              "Video Playback Resumed",
+              "Video Content Started",
+              "Video Content Playing",
+              "Video Content Completed",
+              "Video Ad Started",
+              "Video Ad Playing",
+              "Video Ad Completed"));
+  static final String RATE_LIMIT_SUMMARY_EVENT = "Events Rate Limited";
 
-  //initalizing empty hashmap to store video labels. This replaces the methods
-  //getConfiguration().getLabel and getConfiguration().containsLabel. Both methods were deprecated
-  // as of Comscores's 6.1.+ SDK. Both asset id and ad type are added during trackVideoPlayback()
-  // and ad_type only is added during trackVideoAd() methods
-  public HashMap<String, String> configurationLabels = new HashMap<String, String>();
+  /**
+   * @deprecated Video labels are kept per session, including the session of events without a
+   *     {@code session_id}, so that ending a session never clears a map callers can reach. This map
+   *     is no longer written to.
+   */
+  @Deprecated public HashMap<String, String> configurationLabels = new HashMap<String, String>();
   private Settings settings;
   private ComScoreAnalytics comScoreAnalytics;
-  private StreamingAnalytics streamingAnalytics;
+  private VideoSessionRegistry videoSessions;
+  private MetadataCache metadataCache;
+  private PersistentLabelStore persistentLabels;
+  // Null unless nested values are flattened or values are truncated.
+  private LabelFlattener flattener;
+  // Null unless any label budget limit is set.
+  private LabelBudget labelBudget;
+  // Null unless events are allowed or denied by name.
+  private EventFilter filter;
+  // Null unless hidden events are sampled.
+  private EventSampler sampler;
+  // Null unless hidden events are rate limited.
+  private EventRateLimiter rateLimiter;
+  // Both null unless some events are aggregated.
+  private EventFilter aggregatedEvents;
+  private EventAggregator aggregator;
+  private int startedActivities;
+  private RecordingComScoreAnalytics callRecorder;
+  private BatchingComScoreAnalytics batcher;
+  // Whether maps handed to comScoreAnalytics are read on another thread.
+  private boolean labelsLeaveThread;
+  // Non-null until a deferred start has completed and its payloads are sent.
+  private DeferredStart deferredStart;
+  private Executor integrationThread;
+  // Null unless a periodic task is scheduled.
+  private ScheduledExecutorService timer;
+  private final ConsentDecoder consentDecoder = new ConsentDecoder();
+  private final ConsentState consentState = new ConsentState();
   private Logger logger;
 
   ComScoreIntegration(com.segment.analytics.Analytics analytics, ValueMap destinationSettings) {
@@ -61,143 +119,300 @@ public class ComScoreIntegration extends Integration<Void> {
       com.segment.analytics.Analytics analytics,
       ValueMap destinationSettings,
       ComScoreAnalytics comScoreAnalytics) {
+    this(analytics, destinationSettings, comScoreAnalytics, Clock.SYSTEM);
+  }
+
+  ComScoreIntegration(
+      com.segment.analytics.Analytics analytics,
+      ValueMap destinationSettings,
+      ComScoreAnalytics comScoreAnalytics,
+      Clock clock) {
+    this(analytics, destinationSettings, comScoreAnalytics, clock, null);
+  }
+
+  /**
+   * Creates an integration.
+   *
+   * @param integrationThread Runs tasks on the thread Segment delivers payloads on, or {@code null}
+   *     for the main thread.
+   */
+  ComScoreIntegration(
+      com.segment.analytics.Analytics analytics,
+      ValueMap destinationSettings,
+      ComScoreAnalytics comScoreAnalytics,
+      Clock clock,
+      Executor integrationThread) {
 
-    this.comScoreAnalytics = comScoreAnalytics;
     this.settings = new Settings(destinationSettings);
     this.logger = analytics.logger(COMSCORE_KEY);
+    this.integrationThread =
+        integrationThread != null ? integrationThread : new MainThreadExecutor();
+    if (settings.getCallRecorderSize() > 0) {
+      // Records calls as the SDK receives them, on the dispatch thread when dispatch is async.
+      callRecorder =
+          new RecordingComScoreAnalytics(comScoreAnalytics, settings.getCallRecorderSize());
+      comScoreAnalytics = callRecorder;
+    }
+    AsyncComScoreAnalytics async = null;
+    if (settings.isAsyncDispatch()) {
+      CallJournal journal =
+          settings.isDurableQueue()
+              ? new CallJournal(settings.getDurableQueueSegmentSize(), MAX_JOURNAL_SEGMENTS)
+              : null;
+      async =
+          new AsyncComScoreAnalytics(
+              comScoreAnalytics, settings.getAsyncQueueSize(), logger, journal);
+      comScoreAnalytics = async;
+    }
+    if (settings.getHiddenEventBatchSize() > 0) {
+      batcher =
+          new BatchingComScoreAnalytics(
+              comScoreAnalytics,
+              settings.getHiddenEventBatchSize(),
+              settings.getHiddenEventBatchDelay(),
+              clock);
+      comScoreAnalytics = batcher;
+    }
+    this.comScoreAnalytics = comScoreAnalytics;
+    this.labelsLeaveThread = settings.isAsyncDispatch() || batcher != null;
+    this.videoSessions =
+        new VideoSessionRegistry(
+            settings.getMaxVideoSessions(),
+            settings.getVideoSessionTimeout() * 1000L,
+            settings.getSeekTolerance(),
+            clock);
+    if (settings.getVideoSessionTimeout() > 0) {
+      schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              videoSessions.reapIdle();
+            }
+          },
+          settings.getVideoSessionTimeout() * 1000L);
+    }
+    this.metadataCache = new MetadataCache(settings.getMetadataCacheSize());
+    this.persistentLabels = new PersistentLabelStore(comScoreAnalytics, ConsentState.LABEL);
+    if (async != null) {
+      async.setRejectionListener(
+          new AsyncComScoreAnalytics.RejectionListener() {
+            @Override
+            public void onRejected(Method method, Map<String, String> labels) {
+              if (method == Method.SET_PERSISTENT_LABELS
+                  || method == Method.REMOVE_PERSISTENT_LABEL) {
+                persistentLabels.invalidate(labels.keySet());
+              }
+              if (method == Method.SET_PERSISTENT_LABELS) {
+                consentState.invalidate(labels.get(ConsentState.LABEL));
+              }
+            }
+          });
+    }
+    if (settings.getFlattenDepth() > 0 || settings.getFlattenMaxValueLength() > 0) {
+      this.flattener =
+          new LabelFlattener(
+              settings.getFlattenDepth(),
+              settings.getFlattenMaxLabels(),
+              settings.getFlattenMaxValueLength());
+    }
+    if (settings.getMaxLabels() > 0
+        || settings.getMaxLabelKeyLength() > 0
+        || settings.getMaxLabelValueLength() > 0
+        || settings.getMaxLabelBytes() > 0) {
+      this.labelBudget =
+          new LabelBudget(
+              settings.getMaxLabels(),
+              settings.getMaxLabelKeyLength(),
+              settings.getMaxLabelValueLength(),
+              settings.getMaxLabelBytes());
+    }
 
+    if (!settings.getAllowedEvents().isEmpty() || !settings.getDeniedEvents().isEmpty()) {
+      this.filter = new EventFilter(settings.getAllowedEvents(), settings.getDeniedEvents());
+    }
+    if (!settings.getHiddenEventSampleRates().isEmpty()) {
+      this.sampler = new EventSampler(settings.getHiddenEventSampleRates());
+    }
+    if (!settings.getAggregatedEvents().isEmpty()) {
+      this.aggregatedEvents =
+          new EventFilter(settings.getAggregatedEvents(), Collections.<String>emptyList());
+      this.aggregator =
+          new EventAggregator(
+              settings.getMaxAggregatedEvents(),
+              settings.getMaxAggregatedFields(),
+              settings.getAggregationInterval() * 1000L,
+              clock);
+      schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (aggregator.isDue()) {
+                sendAggregates();
+              }
+            }
+          },
+          settings.getAggregationInterval() * 1000L);
+    }
+    if (settings.getHiddenEventRateLimit() > 0) {
+      this.rateLimiter =
+          new EventRateLimiter(
+              settings.getHiddenEventRateLimit(),
+              settings.getHiddenEventBurst(),
+              settings.getRateLimitedEventNames(),
+              settings.getRateLimitSummaryInterval() * 1000L,
+              clock);
+      schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (rateLimiter.isSummaryDue()) {
+                summarizeRateLimitedEvents();
+              }
+            }
+          },
+          settings.getRateLimitSummaryInterval() * 1000L);
+    }
+
+    if (settings.isDeferredStart()) {
+      final com.segment.analytics.Analytics segment = analytics;
+      final ComScoreAnalytics sdk = comScoreAnalytics;
+      deferredStart =
+          new DeferredStart(settings.getDeferredStartBufferSize(), logger, this.integrationThread);
+      final DeferredStart pending = deferredStart;
+      deferredStart.start(
+          new Runnable() {
+            @Override
+            public void run() {
+              start(segment, sdk);
+            }
+          },
+          new Runnable() {
+            @Override
+            public void run() {
+              // A payload may have drained the buffer already.
+              if (deferredStart == pending) {
+                drainDeferredStart();
+              }
+            }
+          });
+    } else {
+      start(analytics, comScoreAnalytics);
+    }
+  }
+
+  private void start(
+      com.segment.analytics.Analytics analytics, ComScoreAnalytics comScoreAnalytics) {
     comScoreAnalytics.start(
         analytics.getApplication(), PARTNER_ID, settings.toPublisherConfiguration());
     settings.analyticsConfig();
   }
 
   /**
-   * Store a value for {@param k} in {@param asset} by checking {@param comScoreOptions} first and
-   * falling back to {@param properties}. Uses {@code "*null"} it not found in either.
+   * Holds {@code payload} if a deferred start has not completed yet. Once it has, sends the held
+   * payloads in order before the caller goes on with {@code payload}.
+   *
+   * @return <code>true</code> if the payload was held or dropped, and must not be sent now.
    */
-  private void setNullIfNotProvided(
-      Map<String, String> asset,
-      Map<String, ?> comScoreOptions,
-      Map<String, ?> stringProperties,
-      String key) {
-    String option = getStringOrDefaultValue(comScoreOptions, key, null);
-    if (option != null) {
-      asset.put(key, option);
-      return;
+  private boolean deferUntilStarted(BasePayload payload) {
+    if (deferredStart == null) {
+      return false;
     }
-
-    String property = getStringOrDefaultValue(stringProperties, key, null);
-    if (property != null) {
-      asset.put(key, property);
-      return;
+    if (!deferredStart.isStarted()) {
+      deferredStart.offer(payload);
+      return true;
     }
-    asset.put(key, "*null");
+    drainDeferredStart();
+    return false;
   }
 
-  private Map<String, String> mapSpecialKeys(Properties properties, Map<String, String> mapper) {
-    Map<String, String> asset = new LinkedHashMap<>(mapper.size());
-
-    // Map special keys and preserve only the special keys.
-    for (Map.Entry<String, ?> entry : properties.entrySet()) {
-      String key = entry.getKey();
-      String mappedKey = mapper.get(key);
-      Object value = entry.getValue();
-      if (!isNullOrEmpty(mappedKey)) {
-        asset.put(mappedKey, String.valueOf(value));
+  private void drainDeferredStart() {
+    DeferredStart started = deferredStart;
+    // Cleared first, so the payloads sent below are not held again.
+    deferredStart = null;
+    if (started.isFailed()) {
+      logger.error(null, "Dropped %s payloads, comScore failed to start.", started.dropAll());
+      return;
+    }
+    BasePayload payload;
+    while ((payload = started.poll()) != null) {
+      switch (payload.type()) {
+        case track:
+          track((TrackPayload) payload);
+          break;
+        case screen:
+          screen((ScreenPayload) payload);
+          break;
+        case identify:
+          identify((IdentifyPayload) payload);
+          break;
+        default:
+          break;
       }
     }
-
-    return asset;
   }
 
-  private Map<String, String> mapPlaybackProperties(
-      Properties properties, Map<String, ?> options, Map<String, String> mapper) {
-
-    Map<String, String> asset = mapSpecialKeys(properties, mapper);
-
-    boolean fullScreen = properties.getBoolean("fullScreen", false);
-    if (fullScreen == false) {
-      fullScreen = properties.getBoolean("full_screen", false);
+  /** Runs {@code task} on the integration thread every {@code periodMillis}. */
+  private void schedule(final Runnable task, long periodMillis) {
+    if (timer == null) {
+      timer = BatchingComScoreAnalytics.newTimer(TIMER_THREAD_NAME);
     }
-    asset.put("ns_st_ws", fullScreen ? "full" : "norm");
-
-    int bitrate = properties.getInt("bitrate", 0) * 1000; // comScore expects bps.
-    asset.put("ns_st_br", String.valueOf(bitrate));
-
-    setNullIfNotProvided(asset, options, properties, "c3");
-    setNullIfNotProvided(asset, options, properties, "c4");
-    setNullIfNotProvided(asset, options, properties, "c6");
-
-    return asset;
+    timer.scheduleAtFixedRate(
+        new Runnable() {
+          @Override
+          public void run() {
+            integrationThread.execute(task);
+          }
+        },
+        periodMillis,
+        periodMillis,
+        TimeUnit.MILLISECONDS);
   }
 
-  private Map<String, String> mapContentProperties(
-      Properties properties, Map<String, ?> options, Map<String, String> mapper) {
-
-    Map<String, String> asset = mapSpecialKeys(properties, mapper);
-
-    String contentAssetId = properties.getString("assetId");
-    if (contentAssetId == null || contentAssetId.trim().isEmpty()) {
-      contentAssetId = properties.getString("asset_id");
-      if (contentAssetId == null || contentAssetId.trim().isEmpty()) {
-        contentAssetId = "0";
-      }
-    }
-    asset.put("ns_st_ci", String.valueOf(contentAssetId));
+  /** Runs tasks on the main thread, where Segment delivers payloads to integrations. */
+  private static final class MainThreadExecutor implements Executor {
 
-    if (properties.containsKey("totalLength") || properties.containsKey("total_length")) {
-      int length = properties.getInt("totalLength", 0) * 1000; // comScore expects milliseconds.
-      if (length == 0) {
-        length = properties.getInt("total_length", 0) * 1000;
-      }
-      asset.put("ns_st_cl", String.valueOf(length));
-    }
-
-    if (options.containsKey("contentClassificationType")) {
-      String contentClassificationType = String.valueOf(options.get("contentClassificationType"));
-      asset.put("ns_st_ct", contentClassificationType);
-    } else {
-      asset.put("ns_st_ct", "vc00");
-    }
-
-    if (options.containsKey("digitalAirdate")) {
-      String digitalAirdate = String.valueOf(options.get("digitalAirdate"));
-      asset.put("ns_st_ddt", digitalAirdate);
-    }
+    private final Handler handler = new Handler(Looper.getMainLooper());
 
-    if (options.containsKey("tvAirdate")) {
-      String tvAirdate = String.valueOf(options.get("tvAirdate"));
-      asset.put("ns_st_tdt", tvAirdate);
+    @Override
+    public void execute(Runnable task) {
+      handler.post(task);
     }
+  }
 
-    setNullIfNotProvided(asset, options, properties, "c3");
-    setNullIfNotProvided(asset, options, properties, "c4");
-    setNullIfNotProvided(asset, options, properties, "c6");
+  /** Adds the c3, c4 and c6 labels resolved by the projector. */
+  private void putClassificationLabels(Map<String, String> asset, VideoProperties video) {
+    asset.put("c3", video.c3);
+    asset.put("c4", video.c4);
+    asset.put("c6", video.c6);
+  }
 
+  private Map<String, String> mapPlaybackProperties(VideoProperties video) {
+    Map<String, String> asset = video.labels;
+    asset.put("ns_st_ws", video.fullScreen ? "full" : "norm");
+    asset.put("ns_st_br", String.valueOf(video.bitrate));
+    putClassificationLabels(asset, video);
     return asset;
   }
 
-  private Map<String, String> mapAdProperties(
-      Properties properties, Map<String, ?> options, Map<String, String> mapper) {
-
-    Map<String, String> asset = mapSpecialKeys(properties, mapper);
-
-    if (properties.containsKey("totalLength") || properties.containsKey("total_length")) {
-      int length = properties.getInt("totalLength", 0) * 1000; // comScore expects milliseconds.
-      if (length == 0) {
-        length = properties.getInt("total_length", 0) * 1000;
-      }
-      asset.put("ns_st_cl", String.valueOf(length));
+  private Map<String, String> mapContentProperties(VideoProperties video, Map<String, ?> options) {
+    Map<String, String> asset = video.labels;
+    asset.put("ns_st_ci", video.assetId);
+    if (video.hasLength) {
+      asset.put("ns_st_cl", String.valueOf(video.length));
     }
+    LabelPlan.CONTENT.applyOptions(asset, options);
+    putClassificationLabels(asset, video);
+    return asset;
+  }
 
-    if (options.containsKey("adClassificationType")) {
-      String adClassificationType = String.valueOf(options.get("adClassificationType"));
-      asset.put("ns_st_ct", adClassificationType);
-    } else {
-      asset.put("ns_st_ct", "va00");
+  private Map<String, String> mapAdProperties(VideoProperties video, Map<String, ?> options) {
+    Map<String, String> asset = video.labels;
+    if (video.hasLength) {
+      asset.put("ns_st_cl", String.valueOf(video.length));
     }
+    LabelPlan.AD.applyOptions(asset, options);
 
-    String adType = String.valueOf(properties.get("type"));
+    String adType = String.valueOf(video.type);
     switch (adType) {
       case "pre-roll":
       case "mid-roll":
@@ -208,115 +423,88 @@ public class ComScoreIntegration extends Integration<Void> {
         asset.put("ns_st_ad", "1");
     }
 
-    setNullIfNotProvided(asset, options, properties, "c3");
-    setNullIfNotProvided(asset, options, properties, "c4");
-    setNullIfNotProvided(asset, options, properties, "c6");
+    putClassificationLabels(asset, video);
     return asset;
   }
 
-  /**
-   * Returns the value mapped by {@code key} if it exists and is a string, or can be coerced to a
-   * string. Returns {@code defaultValue} otherwise.
-   *
-   * <p>This will return {@code defaultValue} only if the value does not exist, since all types can
-   * have a String representation.
-   */
-  private String getStringOrDefaultValue(Map<String, ?> m, String key, String defaultValue) {
-    Object value = m.get(key);
-    if (value instanceof String) {
-      return (String) value;
-    }
-    if (value != null) {
-      return String.valueOf(value);
-    }
-
-    return defaultValue;
-  }
-
   private void trackVideoPlayback(
       TrackPayload track, Properties properties, Map<String, Object> comScoreOptions) {
     String name = track.event();
-    long playbackPosition = properties.getLong("playbackPosition", 0);
-    if (playbackPosition == 0) {
-      playbackPosition = properties.getLong("position", 0);
-    }
-    String adType = properties.getString("adType");
-    if (adType == null || adType.trim().isEmpty()) {
-      adType = properties.getString("ad_type");
-      if (adType == null || adType.trim().isEmpty()) {
-        adType = properties.getString("type");
-      }
+    VideoProperties video =
+        PropertyProjector.project(properties, comScoreOptions, LabelPlan.PLAYBACK);
+    long playbackPosition = video.position;
+    String adType = video.adType;
+    VideoSession session = videoSessions.get(video.sessionId);
+    Map<String, String> labels = session != null ? session.labels : null;
+    if (labels != null) {
+      labels.clear();
     }
 
-    configurationLabels.clear();
-
-    Map<String, String> playbackMapper = new LinkedHashMap<>();
-    playbackMapper.put("videoPlayer", "ns_st_mp");
-    playbackMapper.put("video_player", "ns_st_mp");
-    playbackMapper.put("sound", "ns_st_vo");
-
-    Map<String, String> mappedPlaybackProperties =
-        mapPlaybackProperties(properties, comScoreOptions, playbackMapper);
+    Map<String, String> mappedPlaybackProperties = mapPlaybackProperties(video);
 
     if (name.equals("Video Playback Started")) {
-      streamingAnalytics = comScoreAnalytics.createStreamingAnalytics();
+      labels = new HashMap<>();
+      StreamingAnalytics streamingAnalytics = comScoreAnalytics.createStreamingAnalytics();
+      session = videoSessions.start(video.sessionId, streamingAnalytics, labels);
       streamingAnalytics.createPlaybackSession();
-      streamingAnalytics.getConfiguration().addLabels(mappedPlaybackProperties);
+      streamingAnalytics.getConfiguration().addLabels(withinBudget(mappedPlaybackProperties));
 
-      // adding ad_type to configurationLabels assuming pre-roll ad plays before video content
+      // adding ad_type to the session labels assuming pre-roll ad plays before video content
       if (adType != null) {
-        configurationLabels.put("ns_st_ad", adType);
+        labels.put("ns_st_ad", adType);
       }
 
       // The label ns_st_ci must be set through a setAsset call
-      Map<String, String> contentIdMapper = new LinkedHashMap<>();
-      contentIdMapper.put("assetId", "ns_st_ci");
-      contentIdMapper.put("asset_id", "ns_st_ci");
-
-      Map<String, String> mappedContentProperties = mapSpecialKeys(properties, contentIdMapper);
-      streamingAnalytics.setMetadata(getContentMetadata(mappedContentProperties));
+      Map<String, String> mappedContentProperties = new HashMap<>();
+      if (video.contentId != null) {
+        mappedContentProperties.put("ns_st_ci", video.contentId);
+      }
+      session.playback.setMetadata(getContentMetadata(mappedContentProperties));
 
-      configurationLabels.put("ns_st_ci", mappedContentProperties.get("ns_st_ci"));
+      labels.put("ns_st_ci", video.contentId);
 
       return;
     }
 
-    if (streamingAnalytics == null) {
+    if (session == null) {
       logger.verbose(
           "streamingAnalytics instance not initialized correctly. Please call Video Playback Started to initialize.");
       return;
     }
-    streamingAnalytics.getConfiguration().addLabels(mappedPlaybackProperties);
+    session.streamingAnalytics.getConfiguration().addLabels(withinBudget(mappedPlaybackProperties));
+    PlaybackStateMachine playback = session.playback;
 
     switch (name) {
       case "Video Playback Paused":
       case "Video Playback Interrupted":
-        streamingAnalytics.notifyPause();
-        logger.verbose("streamingAnalytics.notifyPause(%s)", playbackPosition);
+        if (playback.pause()) {
+          logger.verbose("streamingAnalytics.notifyPause(%s)", playbackPosition);
+        }
         break;
       case "Video Playback Buffer Started":
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyBufferStart();
-        logger.verbose("streamingAnalytics.notifyBufferStart(%s)", playbackPosition);
+        if (playback.bufferStart(playbackPosition)) {
+          logger.verbose("streamingAnalytics.notifyBufferStart(%s)", playbackPosition);
+        }
         break;
       case "Video Playback Buffer Completed":
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyBufferStop();
-        logger.verbose("streamingAnalytics.notifyBufferStop(%s)", playbackPosition);
+        if (playback.bufferStop(playbackPosition)) {
+          logger.verbose("streamingAnalytics.notifyBufferStop(%s)", playbackPosition);
+        }
         break;
       case "Video Playback Seek Started":
-        streamingAnalytics.notifySeekStart();
-        logger.verbose("streamingAnalytics.notifySeekStart(%s)", playbackPosition);
+        if (playback.seekStart()) {
+          logger.verbose("streamingAnalytics.notifySeekStart(%s)", playbackPosition);
+        }
         break;
       case "Video Playback Seek Completed":
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        if (playback.play(playbackPosition, false)) {
+          logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        }
         break;
       case "Video Playback Resumed":
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        if (playback.play(playbackPosition, false)) {
+          logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        }
         break;
     }
   }
@@ -324,40 +512,27 @@ public class ComScoreIntegration extends Integration<Void> {
   private void trackVideoContent(
       TrackPayload track, Properties properties, Map<String, Object> comScoreOptions) {
     String name = track.event();
-    long playbackPosition = properties.getLong("playbackPosition", 0);
-    if (playbackPosition == 0) {
-      playbackPosition = properties.getLong("position", 0);
-    }
-
-    Map<String, String> contentMapper = new LinkedHashMap<>();
-    contentMapper.put("title", "ns_st_ep");
-    contentMapper.put("season", "ns_st_sn");
-    contentMapper.put("episode", "ns_st_en");
-    contentMapper.put("genre", "ns_st_ge");
-    contentMapper.put("program", "ns_st_pr");
-    contentMapper.put("channel", "ns_st_st");
-    contentMapper.put("publisher", "ns_st_pu");
-    contentMapper.put("fullEpisode", "ns_st_ce");
-    contentMapper.put("full_episode", "ns_st_ce");
-    contentMapper.put("podId", "ns_st_pn");
-    contentMapper.put("pod_id", "ns_st_pn");
-
-    Map<String, String> mappedContentProperties =
-        mapContentProperties(properties, comScoreOptions, contentMapper);
-
-    if (streamingAnalytics == null) {
+    VideoProperties video =
+        PropertyProjector.project(properties, comScoreOptions, LabelPlan.CONTENT);
+    long playbackPosition = video.position;
+
+    Map<String, String> mappedContentProperties = mapContentProperties(video, comScoreOptions);
+
+    VideoSession session = videoSessions.get(video.sessionId);
+    if (session == null) {
       logger.verbose(
           "streamingAnalytics instance not initialized correctly. Please call Video Playback Started to initialize.");
       return;
     }
+    PlaybackStateMachine playback = session.playback;
 
     switch (name) {
       case "Video Content Started":
-        streamingAnalytics.setMetadata(getContentMetadata(mappedContentProperties));
+        playback.setMetadata(getContentMetadata(mappedContentProperties));
         logger.verbose("streamingAnalytics.setMetadata(%s)", mappedContentProperties);
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        if (playback.play(playbackPosition, false)) {
+          logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        }
         break;
 
       case "Video Content Playing":
@@ -365,19 +540,22 @@ public class ComScoreIntegration extends Integration<Void> {
         // we need to call setAsset with the content metadata.  If ns_st_ad is not present, that means the last
         // observed event was related to content, in which case a setAsset call should not be made (because asset
         // did not change).
-        if (configurationLabels.containsKey("ns_st_ad")) {
-          streamingAnalytics.setMetadata(getContentMetadata(mappedContentProperties));
+        if (session.labels.containsKey("ns_st_ad")) {
+          playback.setMetadata(getContentMetadata(mappedContentProperties));
           logger.verbose("streamingAnalytics.setMetadata(%s)", mappedContentProperties);
+          // Back to content, so later heartbeats keep the asset.
+          session.labels.remove("ns_st_ad");
         }
 
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        if (playback.play(playbackPosition, false)) {
+          logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        }
         break;
 
       case "Video Content Completed":
-        streamingAnalytics.notifyEnd();
-        logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        if (playback.end()) {
+          logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        }
         break;
     }
   }
@@ -385,35 +563,24 @@ public class ComScoreIntegration extends Integration<Void> {
   public void trackVideoAd(
       TrackPayload track, Properties properties, Map<String, Object> comScoreOptions) {
     String name = track.event();
-    long playbackPosition = properties.getLong("playbackPosition", 0);
-    if (playbackPosition == 0) {
-      playbackPosition = properties.getLong("position", 0);
-    }
-    String adType = properties.getString("adType");
-    if (adType == null || adType.trim().isEmpty()) {
-      adType = properties.getString("ad_type");
-      if (adType == null || adType.trim().isEmpty()) {
-        adType = properties.getString("type");
-      }
-    }
-
-    Map<String, String> adMapper = new LinkedHashMap<>();
-    adMapper.put("assetId", "ns_st_ami");
-    adMapper.put("asset_id", "ns_st_ami");
-    adMapper.put("title", "ns_st_amt");
-    adMapper.put("publisher", "ns_st_pu");
-
-    if (adType != null) {
-      configurationLabels.put("ns_st_ad", adType);
+    VideoProperties video = PropertyProjector.project(properties, comScoreOptions, LabelPlan.AD);
+    long playbackPosition = video.position;
+    String adType = video.adType;
+    VideoSession session = videoSessions.get(video.sessionId);
+    Map<String, String> labels = session != null ? session.labels : null;
+
+    if (adType != null && labels != null) {
+      labels.put("ns_st_ad", adType);
     }
 
-    Map<String, String> mappedAdProperties = mapAdProperties(properties, comScoreOptions, adMapper);
+    Map<String, String> mappedAdProperties = mapAdProperties(video, comScoreOptions);
 
-    if (streamingAnalytics == null) {
+    if (session == null) {
       logger.verbose(
           "streamingAnalytics instance not initialized correctly. Please call Video Playback Started to initialize.");
       return;
     }
+    PlaybackStateMachine playback = session.playback;
 
     switch (name) {
       case "Video Ad Started":
@@ -421,98 +588,166 @@ public class ComScoreIntegration extends Integration<Void> {
         // StreamingAnalytics's asset. This is because ns_st_ci will have already been set on Content Started
         // calls (if this is a mid or post-roll), or on Video Playback Started (if this is a pre-roll).
 
-        String contentId = configurationLabels.get("ns_st_ci");
+        String contentId = labels.get("ns_st_ci");
 
         if (!isNullOrEmpty(contentId)) {
           mappedAdProperties.put("ns_st_ci", contentId);
         }
 
-        streamingAnalytics.setMetadata(getAdvertisementMetadata(mappedAdProperties));
+        playback.setMetadata(getAdvertisementMetadata(mappedAdProperties));
         logger.verbose("streamingAnalytics.setMetadata(%s)", mappedAdProperties);
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        if (playback.play(playbackPosition, true)) {
+          logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        }
         break;
 
       case "Video Ad Playing":
-        streamingAnalytics.startFromPosition(playbackPosition);
-        streamingAnalytics.notifyPlay();
-        logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        if (playback.play(playbackPosition, true)) {
+          logger.verbose("streamingAnalytics.notifyPlay(%s)", playbackPosition);
+        }
         break;
 
       case "Video Ad Completed":
-        streamingAnalytics.notifyEnd();
-        logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        if (playback.end()) {
+          logger.verbose("streamingAnalytics.notifyEnd(%s)", playbackPosition);
+        }
         break;
     }
   }
 
   private ContentMetadata getContentMetadata(Map<String, String> mappedContentProperties) {
-    return new ContentMetadata.Builder().customLabels(mappedContentProperties).build();
+    return metadataCache.content(withinBudget(mappedContentProperties));
   }
 
   private AdvertisementMetadata getAdvertisementMetadata(Map<String, String> mappedAdProperties) {
-    return new AdvertisementMetadata.Builder().customLabels(mappedAdProperties).build();
+    return metadataCache.advertisement(withinBudget(mappedAdProperties));
   }
-  // A pattern to parse consent flag value
-  Pattern privacyStringPattern = Pattern.compile("^1(-|Y|N){3}");
-
+  /**
+   * Builds the consent label from the configured consent flag property, read from {@code main}
+   * first and {@code fallback} second. The maps are read directly, so callers can pass the event's
+   * properties or traits without converting them to strings.
+   *
+   * @return The consent label, or {@code null} if no consent label should be sent.
+   */
   public HashMap<String, String> setConsentLabelValue(
-      Map<String, String> main, Map<String, String> fallback, Settings settings) {
+      Map<String, ?> main, Map<String, ?> fallback, Settings settings) {
     if (settings.getConsentFlagProp() != null && !settings.getConsentFlagProp().trim().isEmpty()) {
       String consentFlagKey = settings.getConsentFlagProp();
-      String consentFlagValue;
+      String consentLabelValue;
       if (main != null && main.containsKey(consentFlagKey)) {
-        consentFlagValue = main.get(consentFlagKey);
+        consentLabelValue = consentDecoder.decode(main.get(consentFlagKey));
       } else if (fallback != null && fallback.containsKey(consentFlagKey)) {
-        consentFlagValue = fallback.get(consentFlagKey);
+        consentLabelValue = consentDecoder.decode(fallback.get(consentFlagKey));
       } else {
-        consentFlagValue = null;
+        consentLabelValue = null;
       }
 
-      if (consentFlagValue != null) {
-        Matcher privacyStringMatcher = privacyStringPattern.matcher(consentFlagValue);
-        // If consent value is not a US Privacy String with the 3rd character = "-"
-        if (!(privacyStringMatcher.matches()
-            && String.valueOf(consentFlagValue.toCharArray()[2]) == "-")) {
-          if (consentFlagValue.equals("1")
-              || consentFlagValue.equals("true")
-              || (privacyStringMatcher.matches()
-                  && String.valueOf(consentFlagValue.toCharArray()[2]).equals("N"))) {
-            consentFlagValue = "1";
-          } else if (consentFlagValue.equals("0")
-              || consentFlagValue.equals("false")
-              || (privacyStringMatcher.matches()
-                  && String.valueOf(consentFlagValue.toCharArray()[2]).equals("Y"))) {
-            consentFlagValue = "0";
-          } else {
-            consentFlagValue = "";
-          }
-          HashMap<String, String> label = new HashMap<String, String>();
-          label.put("cs_ucfr", consentFlagValue);
-          return (label);
-        }
-      } else {
-        return null;
+      if (consentLabelValue != null) {
+        HashMap<String, String> label = new HashMap<String, String>();
+        label.put(ConsentState.LABEL, consentLabelValue);
+        return (label);
       }
     }
     return null;
   }
 
+  /**
+   * Converts properties or traits to labels. Values are converted like {@code toStringMap()} would,
+   * without a copy, unless they need flattening, truncating or dropping.
+   */
+  private Map<String, String> toLabels(Map<String, ?> source) {
+    if (flattener == null || flattener.isPlain(source)) {
+      return new StringMapView(source);
+    }
+    Map<String, String> labels = flattener.flatten(source);
+    logger.verbose("Flattened labels, saving %s bytes.", flattener.getLastSavedBytes());
+    return labels;
+  }
+
+  /**
+   * Copies a {@link StringMapView} that is about to be read on another thread, since the view caches
+   * its conversions as it is read.
+   */
+  private Map<String, String> detach(Map<String, String> labels) {
+    return labelsLeaveThread && labels instanceof StringMapView ? new HashMap<>(labels) : labels;
+  }
+
+  /**
+   * Fits labels sent to comScore into the label budget, if one is set, and logs what it trimmed.
+   */
+  private Map<String, String> withinBudget(Map<String, String> labels) {
+    if (labelBudget == null) {
+      return labels;
+    }
+    long trimmed = labelBudget.getTrimmedCount();
+    Map<String, String> fitted = labelBudget.apply(labels);
+    if (labelBudget.getTrimmedCount() != trimmed) {
+      logger.verbose(
+          "Trimmed labels to budget: %s of %s kept (%s dropped, %s truncated in total).",
+          fitted.size(),
+          labels.size(),
+          labelBudget.getDroppedCount(),
+          labelBudget.getTruncatedCount());
+    }
+    return fitted;
+  }
+
+  /** Sends one summary hidden event per aggregated event name. */
+  private void sendAggregates() {
+    for (Map<String, String> summary : aggregator.drain()) {
+      comScoreAnalytics.notifyHiddenEvent(withinBudget(summary));
+    }
+  }
+
+  /**
+   * Reports the events the rate limiter dropped since the last summary, as one hidden event per
+   * event name when summaries are enabled, and in the log otherwise.
+   */
+  private void summarizeRateLimitedEvents() {
+    for (Map.Entry<String, Long> entry : rateLimiter.drainDropped().entrySet()) {
+      logger.verbose("Rate limited %s %s events.", entry.getValue(), entry.getKey());
+      if (settings.isRateLimitSummary()) {
+        Map<String, String> summary = new HashMap<>();
+        summary.put("name", RATE_LIMIT_SUMMARY_EVENT);
+        summary.put("event", entry.getKey());
+        summary.put("dropped", String.valueOf(entry.getValue()));
+        comScoreAnalytics.notifyHiddenEvent(summary);
+      }
+    }
+  }
+
+  /**
+   * Sends the consent label to comScore, both as a persistent label and as a hidden event, unless
+   * comScore already has the same value.
+   */
+  private void applyConsentLabel(Map<String, String> label) {
+    if (consentState.update(label.get(ConsentState.LABEL), 2)) {
+      persistentLabels.put(label);
+      comScoreAnalytics.notifyHiddenEvent(label);
+    }
+  }
+
   @Override
   public void track(TrackPayload track) {
     String event = track.event();
+    boolean video = VIDEO_EVENTS.contains(event);
+    if (deferUntilStarted(track)) {
+      return;
+    }
     Properties properties = track.properties();
     AnalyticsContext analyticsContext = track.context();
     Traits traits = analyticsContext.traits();
-    HashMap label =
-        setConsentLabelValue(
-            properties != null ? properties.toStringMap() : null,
-            traits != null ? traits.toStringMap() : null,
-            settings);
+    HashMap label = setConsentLabelValue(properties, traits, settings);
     if (label != null) {
-      comScoreAnalytics.setPersistentLabels(label);
-      comScoreAnalytics.notifyHiddenEvent(label);
+      applyConsentLabel(label);
+    }
+    // Consent is applied even for filtered and sampled out events, which only skip the hidden event.
+    if (filter != null && !video && !filter.accept(event)) {
+      return;
+    }
+    if (sampler != null && !video && !sampler.sample(event, track.anonymousId())) {
+      logger.verbose("Sampled out %s.", event);
+      return;
     }
 
     Map<String, Object> comScoreOptions = track.integrations().getValueMap("comScore");
@@ -542,18 +777,41 @@ public class ComScoreIntegration extends Integration<Void> {
         trackVideoAd(track, properties, comScoreOptions);
         break;
       default:
-        Map<String, String> props = properties.toStringMap();
+        if (aggregator != null) {
+          if (aggregator.isDue()) {
+            sendAggregates();
+          }
+          if (aggregatedEvents.isAllowed(event) && aggregator.add(event, properties)) {
+            break;
+          }
+        }
+        if (rateLimiter != null) {
+          if (rateLimiter.isSummaryDue()) {
+            summarizeRateLimitedEvents();
+          }
+          if (!rateLimiter.tryAcquire(event)) {
+            break;
+          }
+        }
+        Map<String, String> props = toLabels(properties);
         props.put("name", event);
-        comScoreAnalytics.notifyHiddenEvent(props);
+        comScoreAnalytics.notifyHiddenEvent(detach(withinBudget(props)));
     }
+    // Only once the event has touched its session, so that resuming after a long pause does not
+    // reap the session being resumed.
+    videoSessions.reapIdle();
   }
 
   @Override
   public void identify(IdentifyPayload identify) {
+    if (deferUntilStarted(identify)) {
+      return;
+    }
     super.identify(identify);
+    videoSessions.reapIdle();
     String userId = identify.userId();
     String anonymousId = identify.anonymousId();
-    HashMap<String, String> traits = (HashMap<String, String>) identify.traits().toStringMap();
+    Map<String, String> traits = toLabels(identify.traits());
     traits.put("userId", userId);
     traits.put("anonymousId", anonymousId);
 
@@ -562,32 +820,79 @@ public class ComScoreIntegration extends Integration<Void> {
     if (label != null) {
       traits.putAll(label);
 
-      comScoreAnalytics.setPersistentLabels(traits);
-      comScoreAnalytics.notifyHiddenEvent(label);
+      persistentLabels.replace(traits);
+      if (consentState.update((String) label.get(ConsentState.LABEL), 1)) {
+        comScoreAnalytics.notifyHiddenEvent(label);
+      }
     } else {
-      comScoreAnalytics.setPersistentLabels(traits);
+      persistentLabels.replace(traits);
     }
   }
 
   @Override
   public void screen(ScreenPayload screen) {
-    String name = screen.name();
-    String category = screen.category();
-    HashMap<String, String> properties =
-        (HashMap<String, String>) //
-            screen.properties().toStringMap();
-    properties.put("name", name);
-    properties.put("category", category);
-
-    comScoreAnalytics.notifyViewEvent(properties);
+    if (deferUntilStarted(screen)) {
+      return;
+    }
+    videoSessions.reapIdle();
+    // Filtered screens only skip the view event; their consent flag is still applied.
+    if (filter == null || filter.accept(screen.event())) {
+      String name = screen.name();
+      String category = screen.category();
+      Map<String, String> properties = toLabels(screen.properties());
+      properties.put("name", name);
+      properties.put("category", category);
+
+      comScoreAnalytics.notifyViewEvent(detach(withinBudget(properties)));
+    }
 
     AnalyticsContext analyticsContext = screen.context();
     Traits traits = analyticsContext.traits();
-    HashMap label =
-        setConsentLabelValue(properties, traits != null ? traits.toStringMap() : null, settings);
+    HashMap label = setConsentLabelValue(screen.properties(), traits, settings);
     if (label != null) {
-      comScoreAnalytics.setPersistentLabels(label);
-      comScoreAnalytics.notifyHiddenEvent(label);
+      applyConsentLabel(label);
+    }
+  }
+
+  @Override
+  public void flush() {
+    super.flush();
+    if (deferredStart != null && deferredStart.isStarted()) {
+      drainDeferredStart();
+    }
+    videoSessions.reapIdle();
+    if (aggregator != null) {
+      sendAggregates();
+    }
+    if (rateLimiter != null) {
+      summarizeRateLimitedEvents();
+    }
+    if (batcher != null) {
+      batcher.flush();
+    }
+  }
+
+  @Override
+  public void onActivityStarted(Activity activity) {
+    super.onActivityStarted(activity);
+    startedActivities++;
+  }
+
+  @Override
+  public void onActivityStopped(Activity activity) {
+    super.onActivityStopped(activity);
+    if (startedActivities > 0 && --startedActivities == 0) {
+      onBackground();
+    }
+  }
+
+  /** Sends what is held back for later, as the app may not come back to the foreground. */
+  private void onBackground() {
+    if (aggregator != null) {
+      sendAggregates();
+    }
+    if (batcher != null) {
+      batcher.flush();
     }
   }
 
@@ -599,4 +904,122 @@ public class ComScoreIntegration extends Integration<Void> {
   Settings getSettings() {
     return settings;
   }
+
+  /**
+   * Retrieves the video session registry.
+   *
+   * @return Video sessions.
+   */
+  VideoSessionRegistry getVideoSessions() {
+    return videoSessions;
+  }
+
+  /**
+   * Retrieves the content and advertisement metadata cache.
+   *
+   * @return Metadata cache.
+   */
+  MetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Retrieves the comScore SDK call recorder, to dump its recording on demand with {@link
+   * RecordingComScoreAnalytics#dump()}.
+   *
+   * @return Call recorder, or {@code null} if calls are not recorded.
+   */
+  public RecordingComScoreAnalytics getCallRecorder() {
+    return callRecorder;
+  }
+
+  /**
+   * Retrieves the deferred start.
+   *
+   * @return Deferred start, or {@code null} if the start is not deferred or has completed.
+   */
+  DeferredStart getDeferredStart() {
+    return deferredStart;
+  }
+
+  /**
+   * Retrieves the label flattener.
+   *
+   * @return Flattener, or {@code null} if values are neither flattened nor truncated.
+   */
+  LabelFlattener getFlattener() {
+    return flattener;
+  }
+
+  /**
+   * Retrieves the label budget.
+   *
+   * @return Budget, or {@code null} if labels are not limited.
+   */
+  LabelBudget getLabelBudget() {
+    return labelBudget;
+  }
+
+  /**
+   * Retrieves the event filter.
+   *
+   * @return Filter, or {@code null} if events are neither allowed nor denied by name.
+   */
+  EventFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Retrieves the hidden event batcher.
+   *
+   * @return Batcher, or {@code null} if hidden events are sent right away.
+   */
+  BatchingComScoreAnalytics getBatcher() {
+    return batcher;
+  }
+
+  /**
+   * Retrieves the hidden event aggregator.
+   *
+   * @return Aggregator, or {@code null} if no event is aggregated.
+   */
+  EventAggregator getAggregator() {
+    return aggregator;
+  }
+
+  /**
+   * Retrieves the hidden event rate limiter.
+   *
+   * @return Rate limiter, or {@code null} if hidden events are not rate limited.
+   */
+  EventRateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * Retrieves the hidden event sampler.
+   *
+   * @return Sampler, or {@code null} if hidden events are not sampled.
+   */
+  EventSampler getSampler() {
+    return sampler;
+  }
+
+  /**
+   * Retrieves the persistent label store.
+   *
+   * @return Persistent labels.
+   */
+  PersistentLabelStore getPersistentLabels() {
+    return persistentLabels;
+  }
+
+  /**
+   * Retrieves the consent state tracker.
+   *
+   * @return Consent state.
+   */
+  ConsentState getConsentState() {
+    return consentState;
+  }
 }
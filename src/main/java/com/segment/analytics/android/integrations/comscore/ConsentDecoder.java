@@ -0,0 +1,125 @@
+package com.segment.analytics.android.integrations.comscore;
+
+/**
+ * Decodes a consent flag value into the comScore {@code cs_ucfr} label value, without regular
+ * expressions or allocation.
+ *
+ * <p>Accepted values are:
+ *
+ * <ul>
+ *   <li>{@code "1"} or {@code "true"}: consent given, {@code "1"}.
+ *   <li>{@code "0"} or {@code "false"}: consent denied, {@code "0"}.
+ *   <li>A US Privacy String such as {@code "1YNN"}: its third character (opt-out of sale) decides.
+ *       {@code 'N'} maps to {@code "1"}, {@code 'Y'} to {@code "0"}, and {@code '-'} (not
+ *       applicable) means no label is sent at all.
+ * </ul>
+ *
+ * Anything else maps to {@code ""}. Recent results are kept in a small direct-mapped cache, since
+ * an app sends the same consent value with most of its events.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class ConsentDecoder {
+
+  static final String GRANTED = "1";
+  static final String DENIED = "0";
+  static final String UNKNOWN = "";
+
+  private static final int US_PRIVACY_LENGTH = 4;
+  private static final int OPT_OUT_SALE_INDEX = 2;
+  private static final int CACHE_SIZE = 16; // Must be a power of two.
+
+  /** Cached marker for values that must not produce a label, since {@code null} means a miss. */
+  private static final String NO_LABEL = new String("no label");
+
+  private final String[] cachedValues = new String[CACHE_SIZE];
+  private final String[] cachedResults = new String[CACHE_SIZE];
+
+  /**
+   * Decodes {@code value}.
+   *
+   * @param value Raw consent flag value.
+   * @return The {@code cs_ucfr} value, or {@code null} if no label should be sent.
+   */
+  String decode(String value) {
+    if (value == null) {
+      return null;
+    }
+    int slot = value.hashCode() & (CACHE_SIZE - 1);
+    String cached = cachedValues[slot];
+    if (cached != null && (cached == value || cached.equals(value))) {
+      String result = cachedResults[slot];
+      return result == NO_LABEL ? null : result;
+    }
+
+    String result = decodeUncached(value);
+    cachedValues[slot] = value;
+    cachedResults[slot] = result == null ? NO_LABEL : result;
+    return result;
+  }
+
+  /**
+   * Decodes a consent flag value read straight from properties or traits. Booleans and integers
+   * are decoded without converting them to strings first; other values are decoded from their
+   * string form, so a property decodes the same way whatever its type.
+   *
+   * @param value Raw consent flag value. {@code null} is decoded as the string {@code "null"}.
+   * @return The {@code cs_ucfr} value, or {@code null} if no label should be sent.
+   */
+  String decode(Object value) {
+    if (value instanceof String) {
+      return decode((String) value);
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value ? GRANTED : DENIED;
+    }
+    if (value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte) {
+      long number = ((Number) value).longValue();
+      return number == 1 ? GRANTED : number == 0 ? DENIED : UNKNOWN;
+    }
+    return decode(String.valueOf(value));
+  }
+
+  /** Decodes {@code value} without looking at the cache. */
+  static String decodeUncached(String value) {
+    switch (value) {
+      case "1":
+      case "true":
+        return GRANTED;
+      case "0":
+      case "false":
+        return DENIED;
+      default:
+        break;
+    }
+
+    if (!isUsPrivacyString(value)) {
+      return UNKNOWN;
+    }
+    switch (value.charAt(OPT_OUT_SALE_INDEX)) {
+      case 'N':
+        return GRANTED;
+      case 'Y':
+        return DENIED;
+      default:
+        return null; // '-': the opt-out does not apply, so comScore gets no label.
+    }
+  }
+
+  /** Matches {@code 1[-YN]{3}}, a version 1 US Privacy String. */
+  private static boolean isUsPrivacyString(String value) {
+    if (value.length() != US_PRIVACY_LENGTH || value.charAt(0) != '1') {
+      return false;
+    }
+    for (int i = 1; i < US_PRIVACY_LENGTH; i++) {
+      char c = value.charAt(i);
+      if (c != '-' && c != 'Y' && c != 'N') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+package com.segment.analytics.android.integrations.comscore;
+
+/**
+ * Remembers the last {@code cs_ucfr} value applied to comScore, so the persistent label and the
+ * hidden event that announces it are only sent when the consent value actually changes.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class ConsentState {
+
+  /** Label comScore uses for the user consent flag. */
+  static final String LABEL = "cs_ucfr";
+
+  private String applied;
+  private long suppressedCalls;
+
+  /**
+   * Records {@code value} as the applied consent value.
+   *
+   * @param value The new {@code cs_ucfr} value.
+   * @param calls Number of SDK calls that will be skipped if the value did not change.
+   * @return <code>true</code> if the value changed and must be sent to comScore. <code>false
+   *     </code> if comScore already has it.
+   */
+  boolean update(String value, int calls) {
+    if (value.equals(applied)) {
+      suppressedCalls += calls;
+      return false;
+    }
+    applied = value;
+    return true;
+  }
+
+  /**
+   * Forgets {@code value} if it is the applied consent value, because comScore never got it, so
+   * that the next update sends it again.
+   *
+   * @param value The {@code cs_ucfr} value that was dropped.
+   */
+  void invalidate(String value) {
+    if (value != null && value.equals(applied)) {
+      applied = null;
+    }
+  }
+
+  /**
+   * Retrieves the last consent value sent to comScore.
+   *
+   * @return The {@code cs_ucfr} value, or {@code null} if none was sent yet.
+   */
+  String getApplied() {
+    return applied;
+  }
+
+  /**
+   * Retrieves the number of SDK calls skipped because the consent value had not changed.
+   *
+   * @return Suppressed calls.
+   */
+  long getSuppressedCount() {
+    return suppressedCalls;
+  }
+}
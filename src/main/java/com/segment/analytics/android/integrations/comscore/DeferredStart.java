@@ -0,0 +1,163 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.Logger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the comScore SDK on a background thread, so that its start does not run while the app
+ * creates its integrations, and holds the payloads that arrive in the meantime. The buffer is
+ * bounded: once it is full, further payloads are dropped and logged.
+ *
+ * <p>Only {@link #start} runs on another thread, and tells the integration thread once it is done.
+ * The buffer is not thread safe; Segment delivers payloads to an integration on a single thread.
+ */
+final class DeferredStart {
+
+  private static final String THREAD_NAME = "SegmentComScoreStart";
+
+  private final int capacity;
+  private final Logger logger;
+  private final Executor integrationThread;
+  private final ArrayDeque<BasePayload> buffer = new ArrayDeque<>();
+  private final CountDownLatch started = new CountDownLatch(1);
+  private volatile boolean failed;
+  private long droppedCount;
+
+  /**
+   * Creates a deferred start.
+   *
+   * @param capacity Maximum number of payloads held until the SDK has started. Must be at least 1.
+   * @param logger Logger for start failures and dropped payloads.
+   * @param integrationThread Runs tasks on the thread Segment delivers payloads on.
+   */
+  DeferredStart(int capacity, Logger logger, Executor integrationThread) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.capacity = capacity;
+    this.logger = logger;
+    this.integrationThread = integrationThread;
+  }
+
+  /**
+   * Runs {@code start} on a new background thread, then {@code onStarted} on the integration
+   * thread. The SDK counts as started once {@code start} returns, even if it failed, so that
+   * payloads are not held forever; {@link #isFailed()} tells whether it failed.
+   *
+   * @param start Starts and configures the SDK.
+   * @param onStarted Sends or drops the held payloads.
+   */
+  void start(final Runnable start, final Runnable onStarted) {
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  start.run();
+                } catch (RuntimeException e) {
+                  failed = true;
+                  logger.error(e, "comScore failed to start.");
+                } finally {
+                  started.countDown();
+                }
+                integrationThread.execute(onStarted);
+              }
+            },
+            THREAD_NAME);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Retrieves whether the SDK has started. Everything the start did is visible to the caller once
+   * this returns <code>true</code>.
+   *
+   * @return <code>true</code> once the start has run.
+   */
+  boolean isStarted() {
+    return started.getCount() == 0;
+  }
+
+  /**
+   * Retrieves whether the start threw. Only meaningful once {@link #isStarted()}.
+   *
+   * @return <code>true</code> if the SDK failed to start.
+   */
+  boolean isFailed() {
+    return failed;
+  }
+
+  /**
+   * Waits for the SDK to start, or until the timeout expires.
+   *
+   * @return <code>true</code> if the SDK started. <code>false</code> on timeout.
+   */
+  boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+    return started.await(timeout, unit);
+  }
+
+  /**
+   * Holds {@code payload} until the SDK has started.
+   *
+   * @param payload Payload that arrived before the start.
+   * @return <code>false</code> if the buffer is full and the payload was dropped.
+   */
+  boolean offer(BasePayload payload) {
+    if (buffer.size() == capacity) {
+      droppedCount++;
+      logger.error(
+          null,
+          "Dropped %s %s, comScore has not started yet.",
+          payload.type(),
+          payload.messageId());
+      return false;
+    }
+    buffer.add(payload);
+    return true;
+  }
+
+  /**
+   * Removes the oldest held payload.
+   *
+   * @return The payload, or {@code null} if none is held.
+   */
+  BasePayload poll() {
+    return buffer.poll();
+  }
+
+  /**
+   * Drops every held payload, e.g. because the SDK failed to start.
+   *
+   * @return Number of dropped payloads.
+   */
+  int dropAll() {
+    int dropped = buffer.size();
+    buffer.clear();
+    droppedCount += dropped;
+    return dropped;
+  }
+
+  /**
+   * Retrieves the number of held payloads.
+   *
+   * @return Number of payloads.
+   */
+  int size() {
+    return buffer.size();
+  }
+
+  /**
+   * Retrieves the number of payloads dropped because the buffer was full or the start failed.
+   *
+   * @return Dropped payloads.
+   */
+  long getDroppedCount() {
+    return droppedCount;
+  }
+}
@@ -0,0 +1,241 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolls hidden events up into one summary per event name: how many were tracked, and the sum of
+ * each numeric property. Summaries are drained periodically and sent in place of the events.
+ *
+ * <p>Names live in an open-addressed table keyed by their hash, with counts and sums in primitive
+ * arrays beside it. Once a name and its properties have been seen, adding an event allocates
+ * nothing. At most {@code maxNames} names and {@code maxFields} numeric properties per name are
+ * aggregated; {@link #add} refuses further names, and further properties are not summed. Names
+ * without events for a whole interval are evicted by {@link #drain()}, freeing their slots.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class EventAggregator {
+
+  /** Label holding the number of events a summary stands for. */
+  static final String COUNT_LABEL = "count";
+
+  /** Prefix of the labels holding the sum of a numeric property. */
+  static final String SUM_PREFIX = "sum.";
+
+  private final Clock clock;
+  private final long intervalMillis;
+  private final int maxNames;
+  private final int maxFields;
+  private final String[] names;
+  private final long[] counts;
+  private final String[][] fields;
+  private final double[][] sums;
+  private final int[] fieldCounts;
+  private final int mask;
+  private int size;
+  private long nextDrain;
+  private long aggregatedCount;
+
+  /**
+   * Creates an aggregator.
+   *
+   * @param maxNames Maximum number of event names aggregated. Must be at least 1.
+   * @param maxFields Maximum number of numeric properties summed per event name.
+   * @param intervalMillis Time between drains.
+   * @param clock Source of time.
+   */
+  EventAggregator(int maxNames, int maxFields, long intervalMillis, Clock clock) {
+    if (maxNames < 1) {
+      throw new IllegalArgumentException("maxNames < 1: " + maxNames);
+    }
+    this.clock = clock;
+    this.intervalMillis = intervalMillis;
+    this.maxNames = maxNames;
+    this.maxFields = maxFields;
+    // At most half full, so that probes stay short.
+    int capacity = Integer.highestOneBit(maxNames * 2 - 1) << 1;
+    this.mask = capacity - 1;
+    this.names = new String[capacity];
+    this.counts = new long[capacity];
+    this.fields = new String[capacity][];
+    this.sums = new double[capacity][];
+    this.fieldCounts = new int[capacity];
+    this.nextDrain = clock.millis() + intervalMillis;
+  }
+
+  /**
+   * Counts {@code event} and sums its numeric properties.
+   *
+   * @param event Event name.
+   * @param properties Event properties. Only read.
+   * @return <code>false</code> if {@code maxNames} other names are aggregated already, and the
+   *     event should be sent on its own.
+   */
+  boolean add(String event, Map<String, ?> properties) {
+    int slot = slot(event);
+    if (names[slot] == null) {
+      if (size == maxNames) {
+        return false;
+      }
+      names[slot] = event;
+      fields[slot] = new String[maxFields];
+      sums[slot] = new double[maxFields];
+      size++;
+    }
+    counts[slot]++;
+    aggregatedCount++;
+    for (Map.Entry<String, ?> entry : properties.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Number) {
+        int field = field(slot, entry.getKey());
+        if (field >= 0) {
+          sums[slot][field] += ((Number) value).doubleValue();
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves whether the interval since the last drain has elapsed.
+   *
+   * @return <code>true</code> if the caller should {@link #drain()}.
+   */
+  boolean isDue() {
+    return clock.millis() >= nextDrain;
+  }
+
+  /**
+   * Retrieves one summary per event name added since the last drain, evicts the names that had no
+   * events, and starts a new interval.
+   *
+   * @return Labels of the summaries: the event name, {@link #COUNT_LABEL} and one {@link
+   *     #SUM_PREFIX} label per numeric property. Empty if no event was added.
+   */
+  List<Map<String, String>> drain() {
+    nextDrain = clock.millis() + intervalMillis;
+    if (size == 0) {
+      return new ArrayList<>(0);
+    }
+    List<Map<String, String>> summaries = new ArrayList<>();
+    List<String> idle = null;
+    for (int slot = 0; slot < names.length; slot++) {
+      if (names[slot] == null) {
+        continue;
+      }
+      if (counts[slot] == 0) {
+        if (idle == null) {
+          idle = new ArrayList<>();
+        }
+        idle.add(names[slot]);
+        continue;
+      }
+      Map<String, String> summary = new LinkedHashMap<>();
+      summary.put("name", names[slot]);
+      summary.put(COUNT_LABEL, String.valueOf(counts[slot]));
+      for (int field = 0; field < fieldCounts[slot]; field++) {
+        summary.put(SUM_PREFIX + fields[slot][field], format(sums[slot][field]));
+      }
+      summaries.add(summary);
+      counts[slot] = 0;
+      Arrays.fill(sums[slot], 0);
+    }
+    if (idle != null) {
+      for (String name : idle) {
+        evict(slot(name));
+      }
+    }
+    return summaries;
+  }
+
+  /**
+   * Retrieves the number of event names holding a slot.
+   *
+   * @return Number of names.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Retrieves the number of events aggregated since creation.
+   *
+   * @return Aggregated events.
+   */
+  long getAggregatedCount() {
+    return aggregatedCount;
+  }
+
+  private int slot(String event) {
+    int slot = home(event);
+    while (names[slot] != null && !names[slot].equals(event)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private int home(String event) {
+    int h = event.hashCode();
+    h ^= h >>> 16; // Spreads the high bits, as HashMap does.
+    return h & mask;
+  }
+
+  /**
+   * Frees a slot, then moves back the names probed past it, so that lookups never stop at the hole
+   * before reaching them.
+   */
+  private void evict(int slot) {
+    clear(slot);
+    size--;
+    for (int next = (slot + 1) & mask; names[next] != null; next = (next + 1) & mask) {
+      int home = home(names[next]);
+      // Whether home lies cyclically in (slot, next]; if so, the name is still reachable.
+      boolean reachable = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+      if (!reachable) {
+        names[slot] = names[next];
+        counts[slot] = counts[next];
+        fields[slot] = fields[next];
+        sums[slot] = sums[next];
+        fieldCounts[slot] = fieldCounts[next];
+        clear(next);
+        slot = next;
+      }
+    }
+  }
+
+  private void clear(int slot) {
+    names[slot] = null;
+    counts[slot] = 0;
+    fields[slot] = null;
+    sums[slot] = null;
+    fieldCounts[slot] = 0;
+  }
+
+  private int field(int slot, String key) {
+    String[] keys = fields[slot];
+    int count = fieldCounts[slot];
+    for (int i = 0; i < count; i++) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    if (count == maxFields) {
+      return -1;
+    }
+    keys[count] = key;
+    fieldCounts[slot] = count + 1;
+    return count;
+  }
+
+  /** Formats whole sums without a fraction, as a count would be. */
+  private static String format(double sum) {
+    if (sum == Math.rint(sum) && Math.abs(sum) < 1e15) {
+      return String.valueOf((long) sum);
+    }
+    return String.valueOf(sum);
+  }
+}
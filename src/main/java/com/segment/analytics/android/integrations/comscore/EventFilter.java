@@ -0,0 +1,193 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Decides which track and screen events reach comScore, from allowed and denied event names. A name
+ * is matched exactly, unless it holds {@code *} wildcards that match any run of characters:
+ * {@code Video*} matches every event starting with {@code Video}, {@code *Viewed} every event
+ * ending with {@code Viewed}. An event is dropped if it matches a denied pattern, or if there are
+ * allowed patterns and it matches none.
+ *
+ * <p>Patterns are compiled into a trie at construction, which is run as an automaton: every
+ * pattern that still matches the name read so far is followed at once, rather than trying one
+ * wildcard split after another. Deciding on an event reads each character of its name once, costs
+ * at most the number of trie nodes per character, and allocates nothing.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class EventFilter {
+
+  private static final char WILDCARD = '*';
+
+  private final Automaton allowed;
+  private final Automaton denied;
+  private long filteredCount;
+
+  /**
+   * Compiles a filter.
+   *
+   * @param allowedEvents Patterns of the events to forward. Empty to forward every event.
+   * @param deniedEvents Patterns of the events to drop.
+   */
+  EventFilter(Collection<String> allowedEvents, Collection<String> deniedEvents) {
+    this.allowed = allowedEvents.isEmpty() ? null : new Automaton(allowedEvents);
+    this.denied = deniedEvents.isEmpty() ? null : new Automaton(deniedEvents);
+  }
+
+  /**
+   * Decides whether {@code event} is forwarded.
+   *
+   * @param event Event or screen name.
+   * @return <code>false</code> if the event is dropped.
+   */
+  boolean accept(String event) {
+    if (event == null) {
+      event = "";
+    }
+    if ((allowed != null && !allowed.matches(event)) || (denied != null && denied.matches(event))) {
+      filteredCount++;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves whether {@code event} matches an allowed pattern, without filtering it.
+   *
+   * @param event Event name.
+   * @return <code>true</code> if the event matches an allowed pattern.
+   */
+  boolean isAllowed(String event) {
+    return allowed != null && allowed.matches(event != null ? event : "");
+  }
+
+  /**
+   * Retrieves the number of events dropped by the filter.
+   *
+   * @return Dropped events.
+   */
+  long getFilteredCount() {
+    return filteredCount;
+  }
+
+  /** A trie of patterns, with the buffers to run it without allocating. */
+  private static final class Automaton {
+
+    private final Node root = new Node();
+    private Node[] states;
+    private Node[] nextStates;
+    private int size;
+    private int generation;
+
+    Automaton(Collection<String> patterns) {
+      int nodes = 1;
+      for (String pattern : patterns) {
+        Node node = root;
+        for (int i = 0, length = pattern.length(); i < length; i++) {
+          char c = pattern.charAt(i);
+          if (c == WILDCARD) {
+            if (node.wildcard == null) {
+              node.wildcard = new Node();
+              node.wildcard.loops = true;
+              nodes++;
+            }
+            node = node.wildcard;
+            while (i + 1 < length && pattern.charAt(i + 1) == WILDCARD) {
+              i++; // Consecutive wildcards match what one does.
+            }
+          } else {
+            Node child = node.child(c);
+            if (child == null) {
+              child = node.add(c);
+              nodes++;
+            }
+            node = child;
+          }
+        }
+        node.terminal = true;
+      }
+      this.states = new Node[nodes];
+      this.nextStates = new Node[nodes];
+    }
+
+    /** Whether a pattern matches the whole of {@code event}. */
+    boolean matches(String event) {
+      size = 0;
+      generation++;
+      enter(root);
+      for (int i = 0, length = event.length(); i < length && size > 0; i++) {
+        char c = event.charAt(i);
+        Node[] current = states;
+        int count = size;
+        states = nextStates;
+        nextStates = current;
+        size = 0;
+        generation++;
+        for (int j = 0; j < count; j++) {
+          Node node = current[j];
+          if (node.loops) {
+            if (node.terminal) {
+              return true; // A trailing wildcard matches whatever is left.
+            }
+            enter(node);
+          }
+          Node child = node.child(c);
+          if (child != null) {
+            enter(child);
+          }
+        }
+      }
+      for (int j = 0; j < size; j++) {
+        if (states[j].terminal) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Adds {@code node} to the states, and the wildcard after it, which may match nothing. */
+    private void enter(Node node) {
+      while (node != null && node.generation != generation) {
+        node.generation = generation;
+        states[size++] = node;
+        node = node.wildcard;
+      }
+    }
+  }
+
+  /** A trie node, with its children in arrays to avoid boxing characters. */
+  private static final class Node {
+
+    char[] keys = new char[0];
+    Node[] children = new Node[0];
+    int size;
+    Node wildcard;
+    boolean terminal;
+    /** Whether the node is a wildcard, which matches any character and stays. */
+    boolean loops;
+    /** The last run of the automaton that entered the node. */
+    int generation;
+
+    Node child(char c) {
+      for (int i = 0; i < size; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node add(char c) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, Math.max(2, size * 2));
+        children = Arrays.copyOf(children, keys.length);
+      }
+      Node child = new Node();
+      keys[size] = c;
+      children[size++] = child;
+      return child;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often each event name is forwarded, with one token bucket per name: a name may burst
+ * {@code burst} events, then one event per {@code 1 / rate} seconds. Excess events are dropped and
+ * counted per name, so that a periodic summary can report them.
+ *
+ * <p>At most {@code maxNames} names get their own bucket; further names share one overflow bucket,
+ * reported as {@link #OVERFLOW_NAME}, so that a storm of distinct names is limited as well. A name
+ * reserves its slot before its bucket is created, so concurrent callers never exceed the maximum.
+ * Buckets that are full and have nothing to report are evicted by {@link #drainDropped()}.
+ *
+ * <p>Each bucket is a single theoretical arrival time updated by compare-and-set, as in the generic
+ * cell rate algorithm, so the limiter is lock free and safe to use from any thread.
+ */
+final class EventRateLimiter {
+
+  /** Name under which events without their own bucket are reported. */
+  static final String OVERFLOW_NAME = "*";
+
+  private final Clock clock;
+  private final long emissionInterval;
+  private final long burstTolerance;
+  private final long summaryInterval;
+  private final int maxNames;
+  private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final Bucket overflow = new Bucket();
+  private final AtomicInteger names = new AtomicInteger();
+  private final AtomicLong nextSummary;
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * Creates a limiter.
+   *
+   * @param rate Events per second forwarded per name once the burst is spent. Must be positive.
+   * @param burst Events per name forwarded at once. Must be at least 1.
+   * @param maxNames Maximum number of names with their own bucket. Must be at least 1.
+   * @param summaryIntervalMillis Time between summaries of dropped events.
+   * @param clock Source of time.
+   */
+  EventRateLimiter(double rate, int burst, int maxNames, long summaryIntervalMillis, Clock clock) {
+    if (!(rate > 0)) {
+      throw new IllegalArgumentException("rate <= 0: " + rate);
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("burst < 1: " + burst);
+    }
+    if (maxNames < 1) {
+      throw new IllegalArgumentException("maxNames < 1: " + maxNames);
+    }
+    this.clock = clock;
+    this.emissionInterval = Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) / rate));
+    this.burstTolerance = emissionInterval * (burst - 1);
+    this.summaryInterval = TimeUnit.MILLISECONDS.toMicros(summaryIntervalMillis);
+    this.maxNames = maxNames;
+    this.nextSummary = new AtomicLong(now() + summaryInterval);
+  }
+
+  /**
+   * Takes a token for {@code event}.
+   *
+   * @param event Event name.
+   * @return <code>false</code> if the event exceeds its rate and was counted as dropped.
+   */
+  boolean tryAcquire(String event) {
+    Bucket bucket = buckets.get(event);
+    if (bucket == null) {
+      bucket = reserve(event);
+    }
+
+    long now = now();
+    while (true) {
+      long arrival = bucket.arrival.get();
+      long start = Math.max(arrival, now);
+      if (start - now > burstTolerance) {
+        bucket.dropped.incrementAndGet();
+        droppedCount.incrementAndGet();
+        return false;
+      }
+      if (bucket.arrival.compareAndSet(arrival, start + emissionInterval)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Creates the bucket of {@code event} if a name slot is free.
+   *
+   * @return The bucket of {@code event}, or the overflow bucket if every slot is taken.
+   */
+  private Bucket reserve(String event) {
+    int count;
+    do {
+      count = names.get();
+      if (count >= maxNames) {
+        return overflow;
+      }
+    } while (!names.compareAndSet(count, count + 1));
+    Bucket created = new Bucket();
+    Bucket existing = buckets.putIfAbsent(event, created);
+    if (existing != null) {
+      names.decrementAndGet(); // Another caller created it first.
+      return existing;
+    }
+    return created;
+  }
+
+  /**
+   * Claims the next summary once its interval has elapsed. Only one caller gets <code>true</code>
+   * per interval.
+   *
+   * @return <code>true</code> if the caller should summarize with {@link #drainDropped()}.
+   */
+  boolean isSummaryDue() {
+    long due = nextSummary.get();
+    long now = now();
+    return now >= due && nextSummary.compareAndSet(due, now + summaryInterval);
+  }
+
+  /**
+   * Retrieves and resets the events dropped per name since the last drain, and evicts the buckets
+   * that are full again and have nothing to report.
+   *
+   * @return Dropped events by name, in no particular order. Empty if none were dropped.
+   */
+  Map<String, Long> drainDropped() {
+    Map<String, Long> dropped = new LinkedHashMap<>();
+    long now = now();
+    for (Iterator<Map.Entry<String, Bucket>> iterator = buckets.entrySet().iterator();
+        iterator.hasNext(); ) {
+      Map.Entry<String, Bucket> entry = iterator.next();
+      Bucket bucket = entry.getValue();
+      long count = bucket.dropped.getAndSet(0);
+      if (count > 0) {
+        dropped.put(entry.getKey(), count);
+      } else if (bucket.arrival.get() <= now && buckets.remove(entry.getKey(), bucket)) {
+        names.decrementAndGet();
+      }
+    }
+    long count = overflow.dropped.getAndSet(0);
+    if (count > 0) {
+      dropped.put(OVERFLOW_NAME, count);
+    }
+    return dropped;
+  }
+
+  /**
+   * Retrieves the number of names with their own bucket.
+   *
+   * @return Number of tracked names.
+   */
+  int size() {
+    return buckets.size();
+  }
+
+  /**
+   * Retrieves the number of events dropped since creation.
+   *
+   * @return Dropped events.
+   */
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  private long now() {
+    return TimeUnit.MILLISECONDS.toMicros(clock.millis());
+  }
+
+  private static final class Bucket {
+
+    /** When the bucket will be full again, in microseconds of the clock. */
+    final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    final AtomicLong dropped = new AtomicLong();
+  }
+}
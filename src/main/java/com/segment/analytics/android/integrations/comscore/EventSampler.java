@@ -0,0 +1,123 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples the events forwarded as hidden events, by event name. A rule maps an event name, or a
+ * prefix ending with {@code *}, to the rate of users whose events are forwarded: {@code
+ * "Scroll Depth": 0.1} forwards the event for one user in ten, {@code "Impression*": 0} drops
+ * every event whose name starts with {@code Impression}. An exact name takes precedence over
+ * prefixes, and a longer prefix over a shorter one. Events without a rule are always forwarded.
+ *
+ * <p>Decisions hash the anonymous id with the rule, so a user is either always in or always out of
+ * a rule's sample, while different rules sample different users.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class EventSampler {
+
+  private static final String WILDCARD = "*";
+  private static final int BUCKETS = 1 << 24;
+
+  private final Map<String, Rule> exact = new HashMap<>();
+  private final Rule[] prefixes;
+  private long sampledOutCount;
+
+  /**
+   * Compiles sampling rules.
+   *
+   * @param rates Event names, or prefixes ending with {@code *}, mapped to a rate between 0 and 1.
+   */
+  EventSampler(Map<String, Double> rates) {
+    List<Rule> prefixRules = new ArrayList<>();
+    for (Map.Entry<String, Double> entry : rates.entrySet()) {
+      String key = entry.getKey();
+      double rate = Math.max(0, Math.min(1, entry.getValue()));
+      if (key.endsWith(WILDCARD)) {
+        prefixRules.add(new Rule(key.substring(0, key.length() - WILDCARD.length()), key, rate));
+      } else {
+        exact.put(key, new Rule(key, key, rate));
+      }
+    }
+    Collections.sort(
+        prefixRules,
+        new Comparator<Rule>() {
+          @Override
+          public int compare(Rule a, Rule b) {
+            return b.name.length() - a.name.length();
+          }
+        });
+    this.prefixes = prefixRules.toArray(new Rule[0]);
+  }
+
+  /**
+   * Decides whether {@code event} is forwarded for the user with {@code anonymousId}.
+   *
+   * @param event Event name.
+   * @param anonymousId Anonymous id of the user.
+   * @return <code>false</code> if the event is sampled out.
+   */
+  boolean sample(String event, String anonymousId) {
+    Rule rule = rule(event);
+    if (rule == null || rule.threshold >= BUCKETS) {
+      return true;
+    }
+    if (rule.threshold > 0 && bucket(anonymousId, rule.salt) < rule.threshold) {
+      return true;
+    }
+    sampledOutCount++;
+    return false;
+  }
+
+  /**
+   * Retrieves the number of events sampled out.
+   *
+   * @return Sampled out events.
+   */
+  long getSampledOutCount() {
+    return sampledOutCount;
+  }
+
+  private Rule rule(String event) {
+    Rule rule = exact.get(event);
+    if (rule != null) {
+      return rule;
+    }
+    for (Rule prefix : prefixes) {
+      if (event.startsWith(prefix.name)) {
+        return prefix;
+      }
+    }
+    return null;
+  }
+
+  /** Maps a user to one of {@link #BUCKETS} buckets, independently for every rule. */
+  static int bucket(String anonymousId, int salt) {
+    int h = (anonymousId != null ? anonymousId.hashCode() : 0) ^ salt;
+    // MurmurHash3's finalizer, so that similar ids land in unrelated buckets.
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h >>> 8;
+  }
+
+  private static final class Rule {
+
+    final String name;
+    final int salt;
+    final int threshold;
+
+    Rule(String name, String key, double rate) {
+      this.name = name;
+      this.salt = key.hashCode() * 0x9e3779b9;
+      this.threshold = (int) Math.round(rate * BUCKETS);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounds the labels of a single comScore call, so that one runaway event cannot produce a beacon of
+ * several kilobytes. A call is within budget when it has at most {@code maxLabels} labels, no key
+ * longer than {@code maxKeyLength}, no value longer than {@code maxValueLength} and at most {@code
+ * maxBytes} bytes of keys and values in UTF-8. A limit of 0 is no limit.
+ *
+ * <p>Labels that comScore reports on are protected: {@code ns_st_*}, {@code c3}, {@code c4}, {@code
+ * c6}, {@code cs_ucfr}, {@code name} and {@code category}. They are always kept as they are and
+ * count towards the budget first. The other labels are kept in their order while they fit; values
+ * that are too long are truncated, and labels that do not fit are dropped.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class LabelBudget {
+
+  private static final String STREAMING_PREFIX = "ns_st_";
+
+  private final int maxLabels;
+  private final int maxKeyLength;
+  private final int maxValueLength;
+  private final long maxBytes;
+  private long trimmedCount;
+  private long droppedCount;
+  private long truncatedCount;
+
+  /**
+   * Creates a budget.
+   *
+   * @param maxLabels Maximum number of labels per call, or 0 for no maximum.
+   * @param maxKeyLength Maximum number of characters in a key, or 0 for no maximum.
+   * @param maxValueLength Maximum number of characters in a value, or 0 for no maximum.
+   * @param maxBytes Maximum size of keys and values in UTF-8 per call, or 0 for no maximum.
+   */
+  LabelBudget(int maxLabels, int maxKeyLength, int maxValueLength, long maxBytes) {
+    this.maxLabels = maxLabels;
+    this.maxKeyLength = maxKeyLength;
+    this.maxValueLength = maxValueLength;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Retrieves whether comScore reports on {@code key}, so that it is always kept.
+   *
+   * @param key Label key.
+   * @return <code>true</code> if the label is protected.
+   */
+  static boolean isProtected(String key) {
+    if (key == null) {
+      return false;
+    }
+    if (key.startsWith(STREAMING_PREFIX)) {
+      return true;
+    }
+    switch (key) {
+      case "c3":
+      case "c4":
+      case "c6":
+      case ConsentState.LABEL:
+      case "name":
+      case "category":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Fits {@code labels} into the budget.
+   *
+   * @param labels Labels of a call. Not modified.
+   * @return {@code labels} itself if they are within budget, otherwise new labels in the same order.
+   */
+  Map<String, String> apply(Map<String, String> labels) {
+    if (fits(labels)) {
+      return labels;
+    }
+    trimmedCount++;
+
+    int count = 0;
+    long bytes = 0;
+    for (Map.Entry<String, String> entry : labels.entrySet()) {
+      if (isProtected(entry.getKey())) {
+        count++;
+        bytes += size(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Map<String, String> trimmed = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : labels.entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      if (isProtected(key)) {
+        trimmed.put(key, value);
+        continue;
+      }
+      if (key == null
+          || (maxKeyLength > 0 && key.length() > maxKeyLength)
+          || (maxLabels > 0 && count >= maxLabels)) {
+        droppedCount++;
+        continue;
+      }
+      if (value != null && maxValueLength > 0 && value.length() > maxValueLength) {
+        value = value.substring(0, maxValueLength);
+        truncatedCount++;
+      }
+      long size = size(key, value);
+      if (maxBytes > 0 && bytes + size > maxBytes) {
+        droppedCount++;
+        continue;
+      }
+      trimmed.put(key, value);
+      count++;
+      bytes += size;
+    }
+    return trimmed;
+  }
+
+  /**
+   * Retrieves the number of calls whose labels had to be trimmed.
+   *
+   * @return Trimmed calls.
+   */
+  long getTrimmedCount() {
+    return trimmedCount;
+  }
+
+  /**
+   * Retrieves the number of labels dropped for their key length, the label count or the byte size.
+   *
+   * @return Dropped labels.
+   */
+  long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Retrieves the number of values truncated.
+   *
+   * @return Truncated values.
+   */
+  long getTruncatedCount() {
+    return truncatedCount;
+  }
+
+  private boolean fits(Map<String, String> labels) {
+    long bytes = 0;
+    boolean trimmable = false;
+    for (Map.Entry<String, String> entry : labels.entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      bytes += size(key, value);
+      if (isProtected(key)) {
+        continue;
+      }
+      if (key == null
+          || (maxKeyLength > 0 && key.length() > maxKeyLength)
+          || (maxValueLength > 0 && value != null && value.length() > maxValueLength)) {
+        return false;
+      }
+      trimmable = true;
+    }
+    // Protected labels alone may exceed the budget; there is nothing to trim then.
+    return !trimmable
+        || ((maxLabels <= 0 || labels.size() <= maxLabels) && (maxBytes <= 0 || bytes <= maxBytes));
+  }
+
+  private long size(String key, String value) {
+    if (maxBytes <= 0) {
+      return 0; // Sizes are only needed for the byte budget.
+    }
+    return LabelFlattener.utf8Length(key) + (value != null ? LabelFlattener.utf8Length(value) : 0);
+  }
+}
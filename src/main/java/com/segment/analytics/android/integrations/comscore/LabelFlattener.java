@@ -0,0 +1,273 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns properties and traits with nested values into comScore labels of bounded size. {@code
+ * toStringMap()} converts a nested map or list with {@link String#valueOf(Object)}, which yields one
+ * huge label nobody can report on; this flattener emits one label per leaf instead, under a dotted
+ * key such as {@code address.city} or {@code products.0.sku}.
+ *
+ * <ul>
+ *   <li>Leaves deeper than {@code maxDepth} keys are dropped. With a {@code maxDepth} of 0, nested
+ *       values are converted with {@link String#valueOf(Object)} as before.
+ *   <li>At most {@code maxLabels} labels are emitted from nested values per event; top-level
+ *       values are always kept.
+ *   <li>Values longer than {@code maxValueLength} characters are truncated, unless it is 0.
+ *   <li>Values that look binary are dropped: byte arrays, strings with control characters, data
+ *       URIs and long base64 runs.
+ * </ul>
+ *
+ * <p>Each flattening records how many bytes of UTF-8 the labels shrank by compared to {@code
+ * toStringMap()}.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class LabelFlattener {
+
+  /** Shortest string without whitespace that is taken for base64 encoded binary data. */
+  static final int MIN_BASE64_LENGTH = 256;
+
+  private final int maxDepth;
+  private final int maxLabels;
+  private final int maxValueLength;
+  private final StringBuilder key = new StringBuilder();
+  private int nestedLabels;
+  private long lastSavedBytes;
+  private long savedBytes;
+  private long droppedCount;
+  private long truncatedCount;
+
+  /**
+   * Creates a flattener.
+   *
+   * @param maxDepth Maximum number of keys in a dotted key, or 0 to not flatten.
+   * @param maxLabels Maximum number of labels emitted from nested values per event.
+   * @param maxValueLength Maximum number of characters in a value, or 0 for no maximum.
+   */
+  LabelFlattener(int maxDepth, int maxLabels, int maxValueLength) {
+    this.maxDepth = maxDepth;
+    this.maxLabels = maxLabels;
+    this.maxValueLength = maxValueLength;
+  }
+
+  /**
+   * Retrieves whether every value of {@code source} can be sent as {@code toStringMap()} would
+   * convert it, so that {@link #flatten} is not needed.
+   *
+   * @param source Properties or traits.
+   * @return <code>true</code> if no value is nested, too long or binary.
+   */
+  boolean isPlain(Map<String, ?> source) {
+    for (Object value : source.values()) {
+      if (value instanceof String) {
+        String string = (String) value;
+        if ((maxValueLength > 0 && string.length() > maxValueLength) || looksBinary(string)) {
+          return false;
+        }
+      } else if (value instanceof Map || value instanceof Collection || isArray(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Converts {@code source} to labels.
+   *
+   * @param source Properties or traits.
+   * @return New, modifiable labels in the order of {@code source}.
+   */
+  Map<String, String> flatten(Map<String, ?> source) {
+    Map<String, String> labels = new LinkedHashMap<>();
+    nestedLabels = 0;
+    long before = 0;
+    long after = 0;
+    for (Map.Entry<String, ?> entry : source.entrySet()) {
+      String name = entry.getKey();
+      Object value = entry.getValue();
+      if (value instanceof String && !isLong((String) value) && !looksBinary((String) value)) {
+        labels.put(name, (String) value);
+        continue;
+      }
+      before += utf8Length(name) + utf8Length(value);
+      key.setLength(0);
+      key.append(name);
+      after += add(labels, value, 1);
+    }
+    lastSavedBytes = before - after;
+    savedBytes += lastSavedBytes;
+    return labels;
+  }
+
+  /**
+   * Retrieves how many bytes the last {@link #flatten} saved.
+   *
+   * @return Saved bytes. Negative if the dotted keys took more room than they saved.
+   */
+  long getLastSavedBytes() {
+    return lastSavedBytes;
+  }
+
+  /**
+   * Retrieves how many bytes all flattenings saved.
+   *
+   * @return Saved bytes.
+   */
+  long getSavedBytes() {
+    return savedBytes;
+  }
+
+  /**
+   * Retrieves the number of values dropped for being too deep, beyond the label count or binary.
+   *
+   * @return Dropped values.
+   */
+  long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Retrieves the number of values truncated.
+   *
+   * @return Truncated values.
+   */
+  long getTruncatedCount() {
+    return truncatedCount;
+  }
+
+  /**
+   * Adds the labels of {@code value} under the key being built.
+   *
+   * @return Bytes of the labels added.
+   */
+  private long add(Map<String, String> labels, Object value, int depth) {
+    boolean nested = value instanceof Map || value instanceof Collection || isArray(value);
+    if (nested && maxDepth > 0 && !(value instanceof byte[])) {
+      if (depth == maxDepth) {
+        droppedCount++;
+        return 0;
+      }
+      long bytes = 0;
+      int length = key.length();
+      if (value instanceof Map) {
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          key.setLength(length);
+          key.append('.').append(entry.getKey());
+          bytes += add(labels, entry.getValue(), depth + 1);
+        }
+      } else if (value instanceof Collection) {
+        int index = 0;
+        for (Iterator<?> iterator = ((Collection<?>) value).iterator(); iterator.hasNext(); ) {
+          key.setLength(length);
+          key.append('.').append(index++);
+          bytes += add(labels, iterator.next(), depth + 1);
+        }
+      } else {
+        for (int i = 0, size = Array.getLength(value); i < size; i++) {
+          key.setLength(length);
+          key.append('.').append(i);
+          bytes += add(labels, Array.get(value, i), depth + 1);
+        }
+      }
+      key.setLength(length);
+      return bytes;
+    }
+
+    if (value instanceof byte[]) {
+      droppedCount++;
+      return 0;
+    }
+    if (depth > 1 && nestedLabels == maxLabels) {
+      droppedCount++;
+      return 0;
+    }
+    String string = String.valueOf(value);
+    if (looksBinary(string)) {
+      droppedCount++;
+      return 0;
+    }
+    if (isLong(string)) {
+      string = string.substring(0, maxValueLength);
+      truncatedCount++;
+    }
+    if (depth > 1) {
+      nestedLabels++;
+    }
+    String name = key.toString();
+    labels.put(name, string);
+    return utf8Length(name) + utf8Length(string);
+  }
+
+  private boolean isLong(String value) {
+    return maxValueLength > 0 && value.length() > maxValueLength;
+  }
+
+  private static boolean isArray(Object value) {
+    return value != null && value.getClass().isArray();
+  }
+
+  /** Whether {@code value} holds control characters, or is a data URI or a long base64 run. */
+  static boolean looksBinary(String value) {
+    int length = value.length();
+    boolean base64 = length >= MIN_BASE64_LENGTH;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == '\uFFFD') {
+        return true;
+      }
+      if (base64
+          && !((c >= 'A' && c <= 'Z')
+              || (c >= 'a' && c <= 'z')
+              || (c >= '0' && c <= '9')
+              || c == '+'
+              || c == '/'
+              || c == '-'
+              || c == '_'
+              || c == '=')) {
+        base64 = false;
+      }
+    }
+    return base64 || (value.startsWith("data:") && value.contains(";base64,"));
+  }
+
+  /** Bytes of {@code String.valueOf(value)} in UTF-8, without converting nested values. */
+  static long utf8Length(Object value) {
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      long length = 2 + Math.max(0, map.size() - 1) * 2L; // "{", "}" and ", " separators.
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        length += utf8Length(entry.getKey()) + 1 + utf8Length(entry.getValue());
+      }
+      return length;
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      long length = 2 + Math.max(0, collection.size() - 1) * 2L;
+      for (Object element : collection) {
+        length += utf8Length(element);
+      }
+      return length;
+    }
+    String string = String.valueOf(value);
+    long length = 0;
+    for (int i = 0, size = string.length(); i < size; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
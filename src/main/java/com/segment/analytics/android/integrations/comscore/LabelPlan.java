@@ -0,0 +1,141 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable projection plan that maps Segment property keys to comScore {@code ns_st_*} labels.
+ * One plan exists per video event family and is compiled when the class is loaded, so mapping an
+ * event never has to build its own lookup table.
+ */
+final class LabelPlan {
+
+  /** Labels shared by every "Video Playback *" event. */
+  static final LabelPlan PLAYBACK =
+      new Builder() //
+          .map("videoPlayer", "ns_st_mp")
+          .map("video_player", "ns_st_mp")
+          .map("sound", "ns_st_vo")
+          .build();
+
+  /** Content labels for "Video Content *" events. */
+  static final LabelPlan CONTENT =
+      new Builder() //
+          .map("title", "ns_st_ep")
+          .map("season", "ns_st_sn")
+          .map("episode", "ns_st_en")
+          .map("genre", "ns_st_ge")
+          .map("program", "ns_st_pr")
+          .map("channel", "ns_st_st")
+          .map("publisher", "ns_st_pu")
+          .map("fullEpisode", "ns_st_ce")
+          .map("full_episode", "ns_st_ce")
+          .map("podId", "ns_st_pn")
+          .map("pod_id", "ns_st_pn")
+          .option("contentClassificationType", "ns_st_ct", "vc00")
+          .option("digitalAirdate", "ns_st_ddt", null)
+          .option("tvAirdate", "ns_st_tdt", null)
+          .build();
+
+  /** Advertisement labels for "Video Ad *" events. */
+  static final LabelPlan AD =
+      new Builder() //
+          .map("assetId", "ns_st_ami")
+          .map("asset_id", "ns_st_ami")
+          .map("title", "ns_st_amt")
+          .map("publisher", "ns_st_pu")
+          .option("adClassificationType", "ns_st_ct", "va00")
+          .build();
+
+  /**
+   * Number of labels a projection is expected to hold beyond the mapped ones (c3, c4, c6 and the
+   * computed {@code ns_st_*} values), used to size the output map.
+   */
+  private static final int EXTRA_LABELS = 8;
+
+  private final Map<String, String> labels;
+  private final String[] optionKeys;
+  private final String[] optionLabels;
+  private final String[] optionDefaults;
+  private final int capacity;
+
+  private LabelPlan(Builder builder) {
+    this.labels = Collections.unmodifiableMap(new HashMap<>(builder.labels));
+    int options = builder.optionKeys.size();
+    this.optionKeys = builder.optionKeys.toArray(new String[options]);
+    this.optionLabels = builder.optionLabels.toArray(new String[options]);
+    this.optionDefaults = builder.optionDefaults.toArray(new String[options]);
+    // Pre-size so that the projected map never rehashes.
+    this.capacity = (int) ((labels.size() + options + EXTRA_LABELS) / 0.75f) + 1;
+  }
+
+  /**
+   * Retrieves the comScore label for a Segment property key.
+   *
+   * @param key Segment property key.
+   * @return The comScore label, or {@code null} if the key is not mapped by this plan.
+   */
+  String label(String key) {
+    return labels.get(key);
+  }
+
+  /**
+   * Creates an empty label map sized for this plan.
+   *
+   * @return A new, mutable label map.
+   */
+  Map<String, String> newLabels() {
+    return new LinkedHashMap<>(capacity);
+  }
+
+  /**
+   * Copies the integration options known to this plan into {@code asset}, falling back to the
+   * plan's default when an option is missing and a default exists.
+   *
+   * @param asset Labels to update.
+   * @param options comScore integration options for the event.
+   */
+  void applyOptions(Map<String, String> asset, Map<String, ?> options) {
+    for (int i = 0; i < optionKeys.length; i++) {
+      if (options.containsKey(optionKeys[i])) {
+        asset.put(optionLabels[i], String.valueOf(options.get(optionKeys[i])));
+      } else if (optionDefaults[i] != null) {
+        asset.put(optionLabels[i], optionDefaults[i]);
+      }
+    }
+  }
+
+  /** Compiles a {@link LabelPlan}. Only used to build the static plans above. */
+  static final class Builder {
+
+    private final Map<String, String> labels = new LinkedHashMap<>();
+    private final List<String> optionKeys = new ArrayList<>();
+    private final List<String> optionLabels = new ArrayList<>();
+    private final List<String> optionDefaults = new ArrayList<>();
+
+    /** Maps the Segment property {@code key} to the comScore {@code label}. */
+    Builder map(String key, String label) {
+      labels.put(key, label);
+      return this;
+    }
+
+    /**
+     * Maps the comScore integration option {@code key} to {@code label}, using {@code
+     * defaultValue} when the option is absent. A {@code null} default omits the label instead.
+     */
+    Builder option(String key, String label, String defaultValue) {
+      optionKeys.add(key);
+      optionLabels.add(label);
+      optionDefaults.add(defaultValue);
+      return this;
+    }
+
+    LabelPlan build() {
+      return new LabelPlan(this);
+    }
+  }
+}
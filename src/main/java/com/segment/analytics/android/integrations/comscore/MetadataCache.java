@@ -0,0 +1,157 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.AdvertisementMetadata;
+import com.comscore.streaming.ContentMetadata;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reuses the {@link ContentMetadata} and {@link AdvertisementMetadata} built for an asset. The same
+ * labels are sent again when playback returns from an ad break or an asset is replayed, so building
+ * the metadata once per distinct set of labels is enough.
+ *
+ * <p>Entries are keyed by asset id ({@code ns_st_ci} for content, {@code ns_st_ami} for ads) and
+ * the labels' hash. Labels are compared in full on a hit, so a hash collision never returns the
+ * wrong metadata. The least recently used entry is evicted beyond {@code capacity}.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class MetadataCache {
+
+  private final int capacity;
+  private final LinkedHashMap<Key, Object> entries;
+  private long hitCount;
+  private long missCount;
+
+  /**
+   * Creates a cache.
+   *
+   * @param capacity Maximum number of cached metadata objects. Must be at least 1.
+   */
+  MetadataCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.capacity = capacity;
+    this.entries =
+        new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > MetadataCache.this.capacity;
+          }
+        };
+  }
+
+  /**
+   * Retrieves content metadata with {@code labels} as custom labels.
+   *
+   * @param labels Content labels. Not retained; may be modified after this call.
+   * @return Cached or newly built metadata.
+   */
+  ContentMetadata content(Map<String, String> labels) {
+    Key key = new Key(false, labels.get("ns_st_ci"), labels);
+    ContentMetadata metadata = (ContentMetadata) lookup(key);
+    if (metadata == null) {
+      metadata = new ContentMetadata.Builder().customLabels(key.labels).build();
+      entries.put(key, metadata);
+    }
+    return metadata;
+  }
+
+  /**
+   * Retrieves advertisement metadata with {@code labels} as custom labels.
+   *
+   * @param labels Advertisement labels. Not retained; may be modified after this call.
+   * @return Cached or newly built metadata.
+   */
+  AdvertisementMetadata advertisement(Map<String, String> labels) {
+    Key key = new Key(true, labels.get("ns_st_ami"), labels);
+    AdvertisementMetadata metadata = (AdvertisementMetadata) lookup(key);
+    if (metadata == null) {
+      metadata = new AdvertisementMetadata.Builder().customLabels(key.labels).build();
+      entries.put(key, metadata);
+    }
+    return metadata;
+  }
+
+  /**
+   * Retrieves the number of lookups that returned cached metadata.
+   *
+   * @return Number of hits.
+   */
+  long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Retrieves the number of lookups that had to build metadata.
+   *
+   * @return Number of misses.
+   */
+  long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Retrieves the number of cached metadata objects.
+   *
+   * @return Number of entries.
+   */
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Looks {@code key} up. On a miss, the key's labels are replaced by a copy so that the caller's
+   * map can change without affecting the key.
+   */
+  private Object lookup(Key key) {
+    Object metadata = entries.get(key);
+    if (metadata != null) {
+      hitCount++;
+      return metadata;
+    }
+    missCount++;
+    key.labels = new HashMap<>(key.labels);
+    return null;
+  }
+
+  private static final class Key {
+
+    final boolean ad;
+    final String assetId;
+    final int hash;
+    Map<String, String> labels;
+
+    Key(boolean ad, String assetId, Map<String, String> labels) {
+      this.ad = ad;
+      this.assetId = assetId;
+      this.labels = labels;
+      int hash = ad ? 1 : 0;
+      hash = 31 * hash + (assetId == null ? 0 : assetId.hashCode());
+      this.hash = 31 * hash + labels.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash
+          && ad == other.ad
+          && (assetId == null ? other.assetId == null : assetId.equals(other.assetId))
+          && labels.equals(other.labels);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mirrors the persistent labels applied to comScore, so that only the labels that changed are sent
+ * again. Identify calls usually repeat the same traits; those become no-ops.
+ *
+ * <p>Labels set with {@link #replace} belong to the identified user: those missing from the next
+ * replacement are removed from comScore, unless they are among the kept labels. Labels set with
+ * {@link #put} are kept until they are explicitly removed.
+ *
+ * <p>Labels whose calls never reached comScore, such as calls dropped by a full dispatch queue,
+ * are {@link #invalidate invalidated}: their next update or removal is sent whatever the mirror
+ * holds.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class PersistentLabelStore {
+
+  private final ComScoreAnalytics comScoreAnalytics;
+  private final Set<String> kept = new HashSet<>();
+  private final Map<String, String> applied = new HashMap<>();
+  private final Set<String> replaced = new HashSet<>();
+  private final Set<String> unconfirmed = new HashSet<>();
+  private long noOpCount;
+  private long removedCount;
+
+  /**
+   * Creates a store.
+   *
+   * @param comScoreAnalytics SDK to apply labels to.
+   * @param keptLabels Labels that a replacement never removes.
+   */
+  PersistentLabelStore(ComScoreAnalytics comScoreAnalytics, String... keptLabels) {
+    this.comScoreAnalytics = comScoreAnalytics;
+    Collections.addAll(kept, keptLabels);
+  }
+
+  /**
+   * Applies {@code labels} and removes the labels of the previous replacement that are not in
+   * them.
+   *
+   * @param labels New labels. Not retained; may be modified after this call.
+   * @return <code>false</code> if comScore already had exactly these labels and nothing was sent.
+   */
+  boolean replace(Map<String, String> labels) {
+    boolean changed = apply(labels);
+    for (Iterator<String> iterator = replaced.iterator(); iterator.hasNext(); ) {
+      String key = iterator.next();
+      if (labels.containsKey(key)) {
+        continue;
+      }
+      iterator.remove();
+      if (applied.containsKey(key) || unconfirmed.contains(key)) {
+        remove(key);
+        changed = true;
+      }
+    }
+    for (String key : labels.keySet()) {
+      if (!kept.contains(key)) {
+        replaced.add(key);
+      }
+    }
+    if (!changed) {
+      noOpCount++;
+    }
+    return changed;
+  }
+
+  /**
+   * Applies {@code labels}. They are kept until explicitly removed, even when a later {@link
+   * #replace} does not include them.
+   *
+   * @param labels New labels. Not retained; may be modified after this call.
+   * @return <code>false</code> if comScore already had these labels and nothing was sent.
+   */
+  boolean put(Map<String, String> labels) {
+    replaced.removeAll(labels.keySet());
+    boolean changed = apply(labels);
+    if (!changed) {
+      noOpCount++;
+    }
+    return changed;
+  }
+
+  /**
+   * Removes a label from comScore, if it was applied.
+   *
+   * @param key Label to remove.
+   */
+  void remove(String key) {
+    replaced.remove(key);
+    if (!applied.containsKey(key) && !unconfirmed.remove(key)) {
+      return;
+    }
+    applied.remove(key);
+    comScoreAnalytics.removePersistentLabel(key);
+    removedCount++;
+  }
+
+  /**
+   * Forgets what comScore holds for {@code keys}, because a call setting or removing them did not
+   * reach it.
+   *
+   * @param keys Labels of the dropped call.
+   */
+  void invalidate(Collection<String> keys) {
+    unconfirmed.addAll(keys);
+  }
+
+  /**
+   * Retrieves the value applied for a label.
+   *
+   * @param key Label.
+   * @return The value, or {@code null} if the label is not applied or was applied as {@code null}.
+   */
+  String get(String key) {
+    return applied.get(key);
+  }
+
+  /**
+   * Retrieves the number of updates that sent nothing because comScore already had the labels.
+   *
+   * @return Number of no-op updates.
+   */
+  long getNoOpCount() {
+    return noOpCount;
+  }
+
+  /**
+   * Retrieves the number of labels removed from comScore.
+   *
+   * @return Number of removed labels.
+   */
+  long getRemovedCount() {
+    return removedCount;
+  }
+
+  /** Sends the labels whose values differ from the applied ones. */
+  private boolean apply(Map<String, String> labels) {
+    Map<String, String> changes = null;
+    for (Map.Entry<String, String> entry : labels.entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      String current = applied.get(key);
+      boolean unchanged =
+          current == null ? value == null && applied.containsKey(key) : current.equals(value);
+      if (!unconfirmed.remove(key) && unchanged) {
+        continue;
+      }
+      if (changes == null) {
+        changes = new HashMap<>();
+      }
+      changes.put(key, value);
+    }
+    if (changes == null) {
+      return false;
+    }
+    applied.putAll(changes);
+    comScoreAnalytics.setPersistentLabels(changes);
+    return true;
+  }
+}
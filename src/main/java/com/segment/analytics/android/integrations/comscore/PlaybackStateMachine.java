@@ -0,0 +1,217 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.AdvertisementMetadata;
+import com.comscore.streaming.ContentMetadata;
+import com.comscore.streaming.StreamingAnalytics;
+
+/**
+ * Tracks the playback state of a {@link StreamingAnalytics} instance and only forwards calls that
+ * change it. Players send "Playing" heartbeats and repeated resume, buffer and seek events while
+ * the state does not change; comScore already extrapolates the position of a playing asset, so
+ * those calls are dropped unless the position jumped.
+ *
+ * <p>Until the first transition after a session starts, or after new metadata is set, the state is
+ * {@link State#IDLE} and every call is forwarded, since comScore may not be in the state this class
+ * would assume.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class PlaybackStateMachine {
+
+  enum State {
+    IDLE,
+    PLAYING,
+    PAUSED,
+    BUFFERING,
+    SEEKING,
+    AD,
+    ENDED
+  }
+
+  /** How far, in seconds, a reported position may drift from the extrapolated one by default. */
+  static final long DEFAULT_POSITION_TOLERANCE = 2;
+
+  private final StreamingAnalytics streamingAnalytics;
+  private final Clock clock;
+  private final long positionTolerance;
+  private State state = State.IDLE;
+  private State stateBeforeBuffering = State.IDLE;
+  // Position last given to comScore, and when.
+  private long anchorPosition;
+  private long anchorTime;
+  private long savedCalls;
+
+  PlaybackStateMachine(StreamingAnalytics streamingAnalytics, Clock clock) {
+    this(streamingAnalytics, DEFAULT_POSITION_TOLERANCE, clock);
+  }
+
+  /**
+   * Creates a state machine.
+   *
+   * @param streamingAnalytics Instance to forward calls to.
+   * @param positionTolerance How far, in seconds, a reported position may drift from the
+   *     extrapolated one before a play is forwarded again. Jumps within it, such as short seeks
+   *     reported without seek events, are not forwarded.
+   * @param clock Source of time.
+   */
+  PlaybackStateMachine(StreamingAnalytics streamingAnalytics, long positionTolerance, Clock clock) {
+    this.streamingAnalytics = streamingAnalytics;
+    this.positionTolerance = positionTolerance;
+    this.clock = clock;
+  }
+
+  /**
+   * Sets content metadata. Always forwarded; comScore expects playback to be reported again.
+   *
+   * @param metadata Content metadata.
+   */
+  void setMetadata(ContentMetadata metadata) {
+    streamingAnalytics.setMetadata(metadata);
+    state = State.IDLE;
+  }
+
+  /**
+   * Sets advertisement metadata. Always forwarded; comScore expects playback to be reported again.
+   *
+   * @param metadata Advertisement metadata.
+   */
+  void setMetadata(AdvertisementMetadata metadata) {
+    streamingAnalytics.setMetadata(metadata);
+    state = State.IDLE;
+  }
+
+  /**
+   * Reports that content or an ad plays from {@code position}, with {@code startFromPosition} and
+   * {@code notifyPlay}.
+   *
+   * @param position Playback position in seconds.
+   * @param ad Whether an ad is playing.
+   * @return Whether the calls were forwarded.
+   */
+  boolean play(long position, boolean ad) {
+    State target = ad ? State.AD : State.PLAYING;
+    if (state == target && !isDiscontinuity(position)) {
+      savedCalls += 2;
+      return false;
+    }
+    startFromPosition(position);
+    streamingAnalytics.notifyPlay();
+    state = target;
+    return true;
+  }
+
+  /**
+   * Reports a pause with {@code notifyPause}.
+   *
+   * @return Whether the call was forwarded.
+   */
+  boolean pause() {
+    if (state == State.PAUSED) {
+      savedCalls++;
+      return false;
+    }
+    streamingAnalytics.notifyPause();
+    state = State.PAUSED;
+    return true;
+  }
+
+  /**
+   * Reports that buffering started at {@code position}, with {@code startFromPosition} and {@code
+   * notifyBufferStart}.
+   *
+   * @param position Playback position in seconds.
+   * @return Whether the calls were forwarded.
+   */
+  boolean bufferStart(long position) {
+    if (state == State.BUFFERING) {
+      savedCalls += 2;
+      return false;
+    }
+    startFromPosition(position);
+    streamingAnalytics.notifyBufferStart();
+    stateBeforeBuffering = state;
+    state = State.BUFFERING;
+    return true;
+  }
+
+  /**
+   * Reports that buffering stopped at {@code position}, with {@code startFromPosition} and {@code
+   * notifyBufferStop}. Playback returns to the state it was in before buffering.
+   *
+   * @param position Playback position in seconds.
+   * @return Whether the calls were forwarded.
+   */
+  boolean bufferStop(long position) {
+    if (state != State.BUFFERING && state != State.IDLE) {
+      savedCalls += 2;
+      return false;
+    }
+    startFromPosition(position);
+    streamingAnalytics.notifyBufferStop();
+    if (state == State.BUFFERING) {
+      state = stateBeforeBuffering;
+    }
+    return true;
+  }
+
+  /**
+   * Reports a seek with {@code notifySeekStart}.
+   *
+   * @return Whether the call was forwarded.
+   */
+  boolean seekStart() {
+    if (state == State.SEEKING) {
+      savedCalls++;
+      return false;
+    }
+    streamingAnalytics.notifySeekStart();
+    state = State.SEEKING;
+    return true;
+  }
+
+  /**
+   * Reports the end of the asset with {@code notifyEnd}.
+   *
+   * @return Whether the call was forwarded.
+   */
+  boolean end() {
+    if (state == State.ENDED) {
+      savedCalls++;
+      return false;
+    }
+    streamingAnalytics.notifyEnd();
+    state = State.ENDED;
+    return true;
+  }
+
+  /**
+   * Retrieves the current state.
+   *
+   * @return Playback state.
+   */
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Retrieves the number of calls to comScore that were not made because they would not have
+   * changed its state.
+   *
+   * @return Number of saved calls.
+   */
+  long getSavedCalls() {
+    return savedCalls;
+  }
+
+  private void startFromPosition(long position) {
+    streamingAnalytics.startFromPosition(position);
+    anchorPosition = position;
+    anchorTime = clock.millis();
+  }
+
+  /** Whether {@code position} is not where playback since the last forwarded position would be. */
+  private boolean isDiscontinuity(long position) {
+    long expected = anchorPosition + (clock.millis() - anchorTime) / 1000;
+    return Math.abs(position - expected) > positionTolerance;
+  }
+}
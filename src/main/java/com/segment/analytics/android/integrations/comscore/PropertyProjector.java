@@ -0,0 +1,188 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.Map;
+
+/**
+ * Projects the properties of a video event into {@link VideoProperties}. The properties map is
+ * walked exactly once: every entry is matched against the plan's labels and the known aliases, and
+ * aliases are resolved afterwards with the same precedence the Segment video spec mappings always
+ * had (camelCase first, then snake_case).
+ */
+final class PropertyProjector {
+
+  private static final String NULL_LABEL = "*null";
+
+  private PropertyProjector() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Projects {@code properties} with {@code plan}.
+   *
+   * @param properties Event properties.
+   * @param options comScore integration options for the event. Take precedence for c3, c4 and c6.
+   * @param plan Labels to map for this event family.
+   * @return The projected properties.
+   */
+  static VideoProperties project(
+      Map<String, ?> properties, Map<String, ?> options, LabelPlan plan) {
+    VideoProperties video = new VideoProperties(plan.newLabels());
+
+    long playbackPosition = 0;
+    long position = 0;
+    String adType = null;
+    String snakeAdType = null;
+    String assetId = null;
+    String snakeAssetId = null;
+    String sessionId = null;
+    String snakeSessionId = null;
+    int totalLength = 0;
+    int snakeTotalLength = 0;
+    boolean fullScreen = false;
+    boolean snakeFullScreen = false;
+    String c3 = null;
+    String c4 = null;
+    String c6 = null;
+
+    for (Map.Entry<String, ?> entry : properties.entrySet()) {
+      String key = entry.getKey();
+      Object value = entry.getValue();
+
+      String label = plan.label(key);
+      if (label != null) {
+        video.labels.put(label, String.valueOf(value));
+      }
+
+      switch (key) {
+        case "playbackPosition":
+          playbackPosition = toLong(value, 0);
+          break;
+        case "position":
+          position = toLong(value, 0);
+          break;
+        case "adType":
+          adType = toString(value);
+          break;
+        case "ad_type":
+          snakeAdType = toString(value);
+          break;
+        case "type":
+          video.type = toString(value);
+          break;
+        case "assetId":
+          assetId = toString(value);
+          video.contentId = String.valueOf(value);
+          break;
+        case "asset_id":
+          snakeAssetId = toString(value);
+          video.contentId = String.valueOf(value);
+          break;
+        case "sessionId":
+          sessionId = toString(value);
+          break;
+        case "session_id":
+          snakeSessionId = toString(value);
+          break;
+        case "totalLength":
+          totalLength = toInt(value, 0);
+          video.hasLength = true;
+          break;
+        case "total_length":
+          snakeTotalLength = toInt(value, 0);
+          video.hasLength = true;
+          break;
+        case "bitrate":
+          video.bitrate = toInt(value, 0) * 1000; // comScore expects bps.
+          break;
+        case "fullScreen":
+          fullScreen = toBoolean(value, false);
+          break;
+        case "full_screen":
+          snakeFullScreen = toBoolean(value, false);
+          break;
+        case "c3":
+          c3 = toString(value);
+          break;
+        case "c4":
+          c4 = toString(value);
+          break;
+        case "c6":
+          c6 = toString(value);
+          break;
+        default:
+          break;
+      }
+    }
+
+    video.position = playbackPosition != 0 ? playbackPosition : position;
+    video.adType = !isBlank(adType) ? adType : !isBlank(snakeAdType) ? snakeAdType : video.type;
+    video.assetId = !isBlank(assetId) ? assetId : !isBlank(snakeAssetId) ? snakeAssetId : "0";
+    video.sessionId =
+        !isBlank(sessionId) ? sessionId : !isBlank(snakeSessionId) ? snakeSessionId : null;
+    // comScore expects milliseconds.
+    video.length = (totalLength != 0 ? totalLength : snakeTotalLength) * 1000;
+    video.fullScreen = fullScreen || snakeFullScreen;
+    video.c3 = option(options, "c3", c3);
+    video.c4 = option(options, "c4", c4);
+    video.c6 = option(options, "c6", c6);
+    return video;
+  }
+
+  /**
+   * Returns the option for {@code key} if set, falling back to {@code property} and then to {@code
+   * "*null"}.
+   */
+  private static String option(Map<String, ?> options, String key, String property) {
+    Object option = options.get(key);
+    if (option != null) {
+      return String.valueOf(option);
+    }
+    return property != null ? property : NULL_LABEL;
+  }
+
+  private static boolean isBlank(String value) {
+    return value == null || value.trim().isEmpty();
+  }
+
+  // The conversions below mirror ValueMap's getters, so projected values are the same as before.
+
+  private static String toString(Object value) {
+    return value != null ? String.valueOf(value) : null;
+  }
+
+  private static int toInt(Object value, int defaultValue) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    if (value instanceof String) {
+      try {
+        return Integer.valueOf((String) value);
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return defaultValue;
+  }
+
+  private static long toLong(Object value, long defaultValue) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof String) {
+      try {
+        return Long.valueOf((String) value);
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return defaultValue;
+  }
+
+  private static boolean toBoolean(Object value, boolean defaultValue) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof String) {
+      return Boolean.valueOf((String) value);
+    }
+    return defaultValue;
+  }
+}
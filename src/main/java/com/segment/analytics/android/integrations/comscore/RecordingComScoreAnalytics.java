@@ -0,0 +1,286 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.content.Context;
+
+import com.comscore.PublisherConfiguration;
+import com.comscore.streaming.StreamingAnalytics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link ComScoreAnalytics} that records the last {@code capacity} calls made to it: the method,
+ * a snapshot of the labels and {@link System#nanoTime()}. It can be used on its own in tests, or
+ * wrap another instance as a diagnostic tap whose recording is dumped on demand.
+ *
+ * <p>Calls are kept in a ring buffer whose slots are reused. A slot grows to fit the largest call it
+ * has held, up to {@link #MAX_LABELS} labels; further labels of a call are not recorded. Recording
+ * allocates only while slots grow, and {@link #getCalls()} and {@link #dump} on every use.
+ *
+ * <p>Thread safe, so that a recording can be dumped from any thread.
+ */
+public class RecordingComScoreAnalytics implements ComScoreAnalytics {
+
+  /** The methods of {@link ComScoreAnalytics}, as recorded. */
+  public enum Method {
+    START,
+    CREATE_STREAMING_ANALYTICS,
+    SET_PERSISTENT_LABELS,
+    NOTIFY_VIEW_EVENT,
+    NOTIFY_HIDDEN_EVENT,
+    REMOVE_PERSISTENT_LABEL
+  }
+
+  /** Maximum number of labels recorded per call. */
+  public static final int MAX_LABELS = 64;
+
+  private final ComScoreAnalytics delegate;
+  private final Method[] methods;
+  private final long[] nanoTimes;
+  private final String[][] keys;
+  private final String[][] values;
+  private final int[] sizes;
+  private final long[] callCounts = new long[Method.values().length];
+  private int next;
+  private long recordedCount;
+
+  /**
+   * Creates a recorder that does nothing but record. {@link #createStreamingAnalytics()} returns
+   * {@code null}, since a real instance would start the comScore SDK; wrap an instance that creates
+   * them, such as a mock, to record streaming calls.
+   *
+   * @param capacity Number of calls kept.
+   */
+  public RecordingComScoreAnalytics(int capacity) {
+    this(null, capacity);
+  }
+
+  /**
+   * Creates a recorder that forwards every call to {@code delegate} after recording it.
+   *
+   * @param delegate Instance to forward calls to, or {@code null} to only record.
+   * @param capacity Number of calls kept.
+   */
+  public RecordingComScoreAnalytics(ComScoreAnalytics delegate, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.delegate = delegate;
+    this.methods = new Method[capacity];
+    this.nanoTimes = new long[capacity];
+    this.keys = new String[capacity][];
+    this.values = new String[capacity][];
+    this.sizes = new int[capacity];
+  }
+
+  @Override
+  public StreamingAnalytics createStreamingAnalytics() {
+    record(Method.CREATE_STREAMING_ANALYTICS, null);
+    return delegate != null ? delegate.createStreamingAnalytics() : null;
+  }
+
+  @Override
+  public void start(Context context, String partnerId, PublisherConfiguration publisher) {
+    record(Method.START, Collections.singletonMap("partnerId", partnerId));
+    if (delegate != null) {
+      delegate.start(context, partnerId, publisher);
+    }
+  }
+
+  @Override
+  public void setPersistentLabels(Map<String, String> labels) {
+    record(Method.SET_PERSISTENT_LABELS, labels);
+    if (delegate != null) {
+      delegate.setPersistentLabels(labels);
+    }
+  }
+
+  @Override
+  public void removePersistentLabel(String label) {
+    record(Method.REMOVE_PERSISTENT_LABEL, Collections.singletonMap("label", label));
+    if (delegate != null) {
+      delegate.removePersistentLabel(label);
+    }
+  }
+
+  @Override
+  public void notifyViewEvent(Map<String, String> properties) {
+    record(Method.NOTIFY_VIEW_EVENT, properties);
+    if (delegate != null) {
+      delegate.notifyViewEvent(properties);
+    }
+  }
+
+  @Override
+  public void notifyHiddenEvent(Map<String, String> properties) {
+    record(Method.NOTIFY_HIDDEN_EVENT, properties);
+    if (delegate != null) {
+      delegate.notifyHiddenEvent(properties);
+    }
+  }
+
+  /**
+   * Retrieves the recorded calls, oldest first.
+   *
+   * @return A snapshot of at most {@code capacity} calls.
+   */
+  public synchronized List<Call> getCalls() {
+    int count = (int) Math.min(recordedCount, methods.length);
+    List<Call> calls = new ArrayList<>(count);
+    int slot = recordedCount > methods.length ? next : 0;
+    for (int i = 0; i < count; i++) {
+      Map<String, String> labels = new LinkedHashMap<>();
+      for (int j = 0; j < sizes[slot]; j++) {
+        labels.put(keys[slot][j], values[slot][j]);
+      }
+      calls.add(new Call(methods[slot], Collections.unmodifiableMap(labels), nanoTimes[slot]));
+      slot = (slot + 1) % methods.length;
+    }
+    return calls;
+  }
+
+  /**
+   * Retrieves the number of calls recorded since creation or {@link #clear()}, including those that
+   * have been overwritten.
+   *
+   * @return Number of recorded calls.
+   */
+  public synchronized long getRecordedCount() {
+    return recordedCount;
+  }
+
+  /**
+   * Retrieves the number of calls to {@code method} since creation or {@link #clear()}, including
+   * those that have been overwritten.
+   *
+   * @param method Method.
+   * @return Number of calls.
+   */
+  public synchronized long getCallCount(Method method) {
+    return callCounts[method.ordinal()];
+  }
+
+  /** Forgets every recorded call. */
+  public synchronized void clear() {
+    Arrays.fill(methods, null);
+    Arrays.fill(sizes, 0);
+    Arrays.fill(callCounts, 0);
+    next = 0;
+    recordedCount = 0;
+  }
+
+  /**
+   * Writes the recorded calls, oldest first, one per line with its time relative to the first.
+   *
+   * @param out Destination.
+   */
+  public void dump(Appendable out) throws IOException {
+    List<Call> calls = getCalls();
+    long first = calls.isEmpty() ? 0 : calls.get(0).nanoTime;
+    for (Call call : calls) {
+      out.append(
+          String.format(
+              Locale.US,
+              "+%.3fms %s %s%n",
+              (call.nanoTime - first) / 1e6,
+              call.method,
+              call.labels));
+    }
+  }
+
+  /**
+   * Retrieves the recorded calls, formatted like {@link #dump(Appendable)}.
+   *
+   * @return The recording.
+   */
+  public String dump() {
+    StringBuilder out = new StringBuilder();
+    try {
+      dump(out);
+    } catch (IOException e) {
+      throw new AssertionError(e); // StringBuilder does not throw.
+    }
+    return out.toString();
+  }
+
+  private synchronized void record(Method method, Map<String, String> labels) {
+    int slot = next;
+    methods[slot] = method;
+    nanoTimes[slot] = System.nanoTime();
+    int size = 0;
+    if (labels != null) {
+      int needed = Math.min(labels.size(), MAX_LABELS);
+      if (keys[slot] == null || keys[slot].length < needed) {
+        keys[slot] = new String[needed];
+        values[slot] = new String[needed];
+      }
+      for (Map.Entry<String, String> entry : labels.entrySet()) {
+        if (size == keys[slot].length) {
+          break; // Beyond MAX_LABELS, or the map does not match its size; keep what fits.
+        }
+        keys[slot][size] = entry.getKey();
+        values[slot][size] = entry.getValue();
+        size++;
+      }
+      // Let go of labels left over from a larger call.
+      Arrays.fill(keys[slot], size, keys[slot].length, null);
+      Arrays.fill(values[slot], size, values[slot].length, null);
+    }
+    sizes[slot] = size;
+    next = (slot + 1) % methods.length;
+    recordedCount++;
+    callCounts[method.ordinal()]++;
+  }
+
+  /** A recorded call. */
+  public static final class Call {
+
+    private final Method method;
+    private final Map<String, String> labels;
+    private final long nanoTime;
+
+    Call(Method method, Map<String, String> labels, long nanoTime) {
+      this.method = method;
+      this.labels = labels;
+      this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Retrieves the method that was called.
+     *
+     * @return Method.
+     */
+    public Method method() {
+      return method;
+    }
+
+    /**
+     * Retrieves the labels passed to the call, as they were when it was made.
+     *
+     * @return Unmodifiable labels. Empty for calls without labels.
+     */
+    public Map<String, String> labels() {
+      return labels;
+    }
+
+    /**
+     * Retrieves when the call was made.
+     *
+     * @return {@link System#nanoTime()} at the call.
+     */
+    public long nanoTime() {
+      return nanoTime;
+    }
+
+    @Override
+    public String toString() {
+      return method + " " + labels;
+    }
+  }
+}
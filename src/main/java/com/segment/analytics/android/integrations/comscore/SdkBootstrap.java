@@ -0,0 +1,102 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.ClientConfiguration;
+import com.comscore.PartnerConfiguration;
+import com.comscore.PublisherConfiguration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registers comScore clients and starts the SDK once per process. The SDK is a process-wide
+ * singleton, but apps may create several Segment {@code Analytics} instances, each with its own
+ * comScore integration; without this, every one of them would add the same clients again and
+ * restart the SDK. Clients are deduplicated by partner and publisher id.
+ *
+ * <p>The first configuration wins: a later integration with a publisher id already registered
+ * does not change that publisher's settings, such as secure transmission or its initial persistent
+ * labels. The SDK cannot be stopped, so clients stay registered for the life of the process. The
+ * usage property settings of {@link Settings#analyticsConfig()} are process wide as well, and are
+ * applied by every integration as it starts.
+ *
+ * <p>Thread safe, since integrations may start on different threads.
+ */
+final class SdkBootstrap {
+
+  /** The comScore SDK calls made by the bootstrap. */
+  interface Sdk {
+
+    /**
+     * Adds a client to the SDK configuration.
+     *
+     * @param client Partner or publisher configuration.
+     */
+    void addClient(ClientConfiguration client);
+
+    /** Starts the SDK. */
+    void start();
+  }
+
+  /** The bootstrap shared by every integration in the process. */
+  static final SdkBootstrap SHARED = new SdkBootstrap();
+
+  private final Set<String> partnerIds = new HashSet<>();
+  private final Set<String> publisherIds = new HashSet<>();
+  private boolean started;
+  private long skippedCount;
+
+  /**
+   * Registers the clients of an integration unless already registered, and starts the SDK unless
+   * already started.
+   *
+   * @param sdk SDK to call.
+   * @param partner Partner configuration, added once per {@code partnerId}.
+   * @param partnerId Partner id.
+   * @param publisher Publisher configuration, added once per {@code publisherId}.
+   * @param publisherId Publisher id, or {@code null} to add {@code publisher} regardless.
+   * @return <code>false</code> if {@code publisher} was not added, since its id already was.
+   */
+  synchronized boolean register(
+      Sdk sdk,
+      PartnerConfiguration partner,
+      String partnerId,
+      PublisherConfiguration publisher,
+      String publisherId) {
+    if (partnerIds.add(partnerId)) {
+      sdk.addClient(partner);
+    } else {
+      skippedCount++;
+    }
+    boolean added = publisherId == null || publisherIds.add(publisherId);
+    if (added) {
+      sdk.addClient(publisher);
+    } else {
+      skippedCount++;
+    }
+    if (!started) {
+      sdk.start();
+      started = true;
+    } else {
+      skippedCount++;
+    }
+    return added;
+  }
+
+  /**
+   * Retrieves whether the SDK was started.
+   *
+   * @return <code>true</code> once the first integration has been registered.
+   */
+  synchronized boolean isStarted() {
+    return started;
+  }
+
+  /**
+   * Retrieves the number of client registrations and starts that were not repeated.
+   *
+   * @return Number of skipped SDK calls.
+   */
+  synchronized long getSkippedCount() {
+    return skippedCount;
+  }
+}
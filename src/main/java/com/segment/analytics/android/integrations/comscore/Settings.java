@@ -5,7 +5,13 @@ import com.comscore.PublisherConfiguration;
 import com.comscore.UsagePropertiesAutoUpdateMode;
 import com.segment.analytics.ValueMap;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /** Encapsulates all settings required to initialize the ComsCore destination. */
 public class Settings {
@@ -14,6 +20,35 @@ public class Settings {
   private static final boolean DEFAULT_HTTPS = true;
   private static final boolean DEFAULT_AUTOUPDATE = false;
   private static final boolean DEFAULT_FOREGROUND = true;
+  private static final boolean DEFAULT_ASYNC_DISPATCH = false;
+  private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_MAX_VIDEO_SESSIONS = 8;
+  private static final int DEFAULT_VIDEO_SESSION_TIMEOUT = 1800;
+  private static final int DEFAULT_SEEK_TOLERANCE = 2;
+  private static final int DEFAULT_METADATA_CACHE_SIZE = 32;
+  private static final int DEFAULT_CALL_RECORDER_SIZE = 0;
+  private static final boolean DEFAULT_DEFERRED_START = false;
+  private static final int DEFAULT_DEFERRED_START_BUFFER_SIZE = 200;
+  private static final boolean DEFAULT_DURABLE_QUEUE = false;
+  private static final int DEFAULT_DURABLE_QUEUE_SEGMENT_SIZE = 256 * 1024;
+  private static final int MIN_DURABLE_QUEUE_SEGMENT_SIZE = 4 * 1024;
+  private static final int DEFAULT_FLATTEN_DEPTH = 0;
+  private static final int DEFAULT_FLATTEN_MAX_LABELS = 50;
+  private static final int DEFAULT_FLATTEN_MAX_VALUE_LENGTH = 0;
+  private static final int DEFAULT_MAX_LABEL_VALUE_LENGTH = 0;
+  private static final int DEFAULT_MAX_LABELS = 0;
+  private static final int DEFAULT_MAX_LABEL_KEY_LENGTH = 0;
+  private static final int DEFAULT_MAX_LABEL_BYTES = 0;
+  private static final double DEFAULT_HIDDEN_EVENT_RATE_LIMIT = 0;
+  private static final int DEFAULT_HIDDEN_EVENT_BURST = 10;
+  private static final int DEFAULT_RATE_LIMITED_EVENT_NAMES = 100;
+  private static final boolean DEFAULT_RATE_LIMIT_SUMMARY = false;
+  private static final int DEFAULT_RATE_LIMIT_SUMMARY_INTERVAL = 60;
+  private static final int DEFAULT_AGGREGATION_INTERVAL = 60;
+  private static final int DEFAULT_MAX_AGGREGATED_EVENTS = 100;
+  private static final int DEFAULT_MAX_AGGREGATED_FIELDS = 10;
+  private static final int DEFAULT_HIDDEN_EVENT_BATCH_SIZE = 0;
+  private static final int DEFAULT_HIDDEN_EVENT_BATCH_DELAY = 5000;
 
   private String c2;
   private String appName;
@@ -23,6 +58,38 @@ public class Settings {
   private boolean useHTTPS;
   private boolean foregroundOnly;
   private String consentFlagProp; // Consent Flag change
+  private boolean asyncDispatch;
+  private int asyncQueueSize;
+  private int maxVideoSessions;
+  private int videoSessionTimeout;
+  private int seekTolerance;
+  private int metadataCacheSize;
+  private int callRecorderSize;
+  private boolean deferredStart;
+  private int deferredStartBufferSize;
+  private boolean durableQueue;
+  private int durableQueueSegmentSize;
+  private int flattenDepth;
+  private int flattenMaxLabels;
+  private int flattenMaxValueLength;
+  private int maxLabelValueLength;
+  private int maxLabels;
+  private int maxLabelKeyLength;
+  private int maxLabelBytes;
+  private Map<String, Double> hiddenEventSampleRates;
+  private List<String> allowedEvents;
+  private List<String> deniedEvents;
+  private double hiddenEventRateLimit;
+  private int hiddenEventBurst;
+  private int rateLimitedEventNames;
+  private boolean rateLimitSummary;
+  private int rateLimitSummaryInterval;
+  private List<String> aggregatedEvents;
+  private int aggregationInterval;
+  private int maxAggregatedEvents;
+  private int maxAggregatedFields;
+  private int hiddenEventBatchSize;
+  private int hiddenEventBatchDelay;
 
   /**
    * Creates the settings from the provided map.
@@ -38,6 +105,94 @@ public class Settings {
     this.useHTTPS = destinationSettings.getBoolean("useHTTPS", DEFAULT_HTTPS);
     this.appName = destinationSettings.getString("appName");
     this.consentFlagProp = destinationSettings.getString("consentFlag"); // Consent Flag change
+    this.asyncDispatch = destinationSettings.getBoolean("asyncDispatch", DEFAULT_ASYNC_DISPATCH);
+    this.asyncQueueSize =
+        Math.max(1, destinationSettings.getInt("asyncQueueSize", DEFAULT_ASYNC_QUEUE_SIZE));
+    this.maxVideoSessions =
+        Math.max(1, destinationSettings.getInt("maxVideoSessions", DEFAULT_MAX_VIDEO_SESSIONS));
+    this.videoSessionTimeout =
+        destinationSettings.getInt("videoSessionTimeout", DEFAULT_VIDEO_SESSION_TIMEOUT);
+    this.seekTolerance =
+        Math.max(0, destinationSettings.getInt("seekTolerance", DEFAULT_SEEK_TOLERANCE));
+    this.metadataCacheSize =
+        Math.max(
+            1, destinationSettings.getInt("metadataCacheSize", DEFAULT_METADATA_CACHE_SIZE));
+    this.callRecorderSize =
+        destinationSettings.getInt("callRecorderSize", DEFAULT_CALL_RECORDER_SIZE);
+    this.deferredStart = destinationSettings.getBoolean("deferredStart", DEFAULT_DEFERRED_START);
+    this.deferredStartBufferSize =
+        Math.max(
+            1,
+            destinationSettings.getInt(
+                "deferredStartBufferSize", DEFAULT_DEFERRED_START_BUFFER_SIZE));
+    this.durableQueue = destinationSettings.getBoolean("durableQueue", DEFAULT_DURABLE_QUEUE);
+    this.durableQueueSegmentSize =
+        Math.max(
+            MIN_DURABLE_QUEUE_SEGMENT_SIZE,
+            destinationSettings.getInt(
+                "durableQueueSegmentSize", DEFAULT_DURABLE_QUEUE_SEGMENT_SIZE));
+    this.flattenDepth =
+        Math.max(0, destinationSettings.getInt("flattenDepth", DEFAULT_FLATTEN_DEPTH));
+    this.flattenMaxLabels =
+        Math.max(0, destinationSettings.getInt("flattenMaxLabels", DEFAULT_FLATTEN_MAX_LABELS));
+    this.flattenMaxValueLength =
+        Math.max(
+            0,
+            destinationSettings.getInt("flattenMaxValueLength", DEFAULT_FLATTEN_MAX_VALUE_LENGTH));
+    this.maxLabelValueLength =
+        Math.max(
+            0, destinationSettings.getInt("maxLabelValueLength", DEFAULT_MAX_LABEL_VALUE_LENGTH));
+    this.maxLabels = Math.max(0, destinationSettings.getInt("maxLabels", DEFAULT_MAX_LABELS));
+    this.maxLabelKeyLength =
+        Math.max(0, destinationSettings.getInt("maxLabelKeyLength", DEFAULT_MAX_LABEL_KEY_LENGTH));
+    this.maxLabelBytes =
+        Math.max(0, destinationSettings.getInt("maxLabelBytes", DEFAULT_MAX_LABEL_BYTES));
+    Map<String, Double> sampleRates = new LinkedHashMap<>();
+    ValueMap rates = destinationSettings.getValueMap("hiddenEventSampleRates");
+    if (rates != null) {
+      for (String event : rates.keySet()) {
+        double rate = rates.getDouble(event, 1);
+        if (!Double.isNaN(rate) && !Double.isInfinite(rate)) {
+          sampleRates.put(event, rate);
+        }
+      }
+    }
+    this.hiddenEventSampleRates = Collections.unmodifiableMap(sampleRates);
+    this.allowedEvents = getStrings(destinationSettings, "allowedEvents");
+    this.deniedEvents = getStrings(destinationSettings, "deniedEvents");
+    this.hiddenEventRateLimit =
+        Math.max(
+            0,
+            destinationSettings.getDouble("hiddenEventRateLimit", DEFAULT_HIDDEN_EVENT_RATE_LIMIT));
+    this.hiddenEventBurst =
+        Math.max(1, destinationSettings.getInt("hiddenEventBurst", DEFAULT_HIDDEN_EVENT_BURST));
+    this.rateLimitedEventNames =
+        Math.max(
+            1,
+            destinationSettings.getInt("rateLimitedEventNames", DEFAULT_RATE_LIMITED_EVENT_NAMES));
+    this.rateLimitSummary =
+        destinationSettings.getBoolean("rateLimitSummary", DEFAULT_RATE_LIMIT_SUMMARY);
+    this.rateLimitSummaryInterval =
+        Math.max(
+            1,
+            destinationSettings.getInt(
+                "rateLimitSummaryInterval", DEFAULT_RATE_LIMIT_SUMMARY_INTERVAL));
+    this.aggregatedEvents = getStrings(destinationSettings, "aggregatedEvents");
+    this.aggregationInterval =
+        Math.max(
+            1, destinationSettings.getInt("aggregationInterval", DEFAULT_AGGREGATION_INTERVAL));
+    this.maxAggregatedEvents =
+        Math.max(
+            1, destinationSettings.getInt("maxAggregatedEvents", DEFAULT_MAX_AGGREGATED_EVENTS));
+    this.maxAggregatedFields =
+        Math.max(
+            0, destinationSettings.getInt("maxAggregatedFields", DEFAULT_MAX_AGGREGATED_FIELDS));
+    this.hiddenEventBatchSize =
+        destinationSettings.getInt("hiddenEventBatchSize", DEFAULT_HIDDEN_EVENT_BATCH_SIZE);
+    this.hiddenEventBatchDelay =
+        Math.max(
+            0,
+            destinationSettings.getInt("hiddenEventBatchDelay", DEFAULT_HIDDEN_EVENT_BATCH_DELAY));
 
     if (appName != null && appName.trim().length() == 0) {
       // Application name as null
@@ -118,6 +273,345 @@ public class Settings {
     return consentFlagProp;
   }
 
+  /**
+   * Retrieves if calls to the comScore SDK are dispatched on a dedicated worker thread.
+   *
+   * @return <code>true</code> if async dispatch is enabled. <code>false</code> otherwise.
+   */
+  public boolean isAsyncDispatch() {
+    return asyncDispatch;
+  }
+
+  /**
+   * Retrieves the maximum number of calls waiting for the async dispatch worker.
+   *
+   * @return Queue size.
+   */
+  public int getAsyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  /**
+   * Retrieves the maximum number of concurrent video sessions. Starting one more ends the least
+   * recently used session.
+   *
+   * @return Maximum number of video sessions.
+   */
+  public int getMaxVideoSessions() {
+    return maxVideoSessions;
+  }
+
+  /**
+   * Retrieves the time without events after which a video session is ended. Idle sessions are
+   * checked on every payload and once per timeout, so one is ended at most twice the timeout after
+   * its last event.
+   *
+   * @return Timeout in seconds. <code>0</code> or less if idle sessions are never ended.
+   */
+  public int getVideoSessionTimeout() {
+    return videoSessionTimeout;
+  }
+
+  /**
+   * Retrieves how far a reported playback position may be from the position extrapolated since the
+   * last one sent to comScore. A repeated play event within it is not sent again, so a seek shorter
+   * than the tolerance that is only visible from the position, without seek events, goes
+   * unreported.
+   *
+   * @return Tolerance in seconds. <code>0</code> if every change of position is reported.
+   */
+  public int getSeekTolerance() {
+    return seekTolerance;
+  }
+
+  /**
+   * Retrieves the number of content and advertisement metadata objects kept for reuse.
+   *
+   * @return Metadata cache size.
+   */
+  public int getMetadataCacheSize() {
+    return metadataCacheSize;
+  }
+
+  /**
+   * Retrieves the number of comScore SDK calls recorded for diagnostics. The recording is dumped on
+   * demand, from {@link ComScoreIntegration#getCallRecorder()}.
+   *
+   * @return Number of recorded calls. <code>0</code> or less if calls are not recorded.
+   */
+  public int getCallRecorderSize() {
+    return callRecorderSize;
+  }
+
+  /**
+   * Retrieves whether the comScore SDK is started on a background thread instead of while the
+   * integration is created. Payloads that arrive before it has started are held and sent in order
+   * afterwards.
+   *
+   * @return <code>true</code> if the start is deferred.
+   */
+  public boolean isDeferredStart() {
+    return deferredStart;
+  }
+
+  /**
+   * Retrieves the maximum number of payloads held until a deferred start completes. Payloads beyond
+   * it are dropped.
+   *
+   * @return Deferred start buffer size.
+   */
+  public int getDeferredStartBufferSize() {
+    return deferredStartBufferSize;
+  }
+
+  /**
+   * Retrieves whether calls queued for async dispatch are journaled to disk until comScore has
+   * processed them, and replayed on the next launch if the process dies first. Only used with
+   * {@link #isAsyncDispatch()}. Payloads held back by {@link #isDeferredStart()} are not journaled
+   * until they are dispatched.
+   *
+   * @return <code>true</code> if queued calls are journaled.
+   */
+  public boolean isDurableQueue() {
+    return durableQueue;
+  }
+
+  /**
+   * Retrieves the size of a journal segment file.
+   *
+   * @return Segment size in bytes.
+   */
+  public int getDurableQueueSegmentSize() {
+    return durableQueueSegmentSize;
+  }
+
+  /**
+   * Retrieves how deep nested properties and traits are flattened into labels with dotted keys,
+   * such as <code>address.city</code>. Deeper values are dropped.
+   *
+   * @return Maximum number of keys in a dotted key. <code>0</code> if nested values are converted
+   *     to a single string label instead.
+   */
+  public int getFlattenDepth() {
+    return flattenDepth;
+  }
+
+  /**
+   * Retrieves the maximum number of labels flattened from nested values per event.
+   *
+   * @return Maximum number of flattened labels.
+   */
+  public int getFlattenMaxLabels() {
+    return flattenMaxLabels;
+  }
+
+  /**
+   * Retrieves the length beyond which property and trait values are truncated while they are
+   * converted to labels. Setting it also drops values that look binary, as flattening does.
+   *
+   * @return Maximum value length in characters. <code>0</code> if values are not truncated.
+   */
+  public int getFlattenMaxValueLength() {
+    return flattenMaxValueLength;
+  }
+
+  /**
+   * Retrieves the length beyond which the label budget truncates the values of the labels sent with
+   * an event, except those comScore reports on, such as <code>ns_st_*</code>, <code>c3</code> or
+   * <code>name</code>. Independent of {@link #getFlattenMaxValueLength()}.
+   *
+   * @return Maximum value length in characters. <code>0</code> if values are not truncated.
+   */
+  public int getMaxLabelValueLength() {
+    return maxLabelValueLength;
+  }
+
+  /**
+   * Retrieves the maximum number of labels sent with a hidden event, view event, streaming
+   * configuration or metadata. Labels comScore reports on are always kept; others are dropped.
+   *
+   * @return Maximum number of labels. <code>0</code> if the number is not limited.
+   */
+  public int getMaxLabels() {
+    return maxLabels;
+  }
+
+  /**
+   * Retrieves the length beyond which labels are dropped for their key, unless comScore reports on
+   * them.
+   *
+   * @return Maximum key length in characters. <code>0</code> if keys are not limited.
+   */
+  public int getMaxLabelKeyLength() {
+    return maxLabelKeyLength;
+  }
+
+  /**
+   * Retrieves the maximum size of the keys and values of the labels sent with an event, in bytes of
+   * UTF-8. Labels comScore reports on count first and are always kept; others are dropped once the
+   * size is reached.
+   *
+   * @return Maximum size in bytes. <code>0</code> if the size is not limited.
+   */
+  public int getMaxLabelBytes() {
+    return maxLabelBytes;
+  }
+
+  /**
+   * Retrieves the rates at which track events are forwarded to comScore as hidden events. Keys are
+   * event names, or prefixes ending with <code>*</code>; values are between <code>0</code> and
+   * <code>1</code>. Users are sampled by anonymous id, so a user is always in or always out. Rates
+   * that are not finite numbers are ignored, so their events are forwarded.
+   *
+   * @return Sample rates by event name. Empty if every event is forwarded.
+   */
+  public Map<String, Double> getHiddenEventSampleRates() {
+    return hiddenEventSampleRates;
+  }
+
+  /**
+   * Retrieves the names of the track and screen events forwarded to comScore. Names may hold
+   * <code>*</code> wildcards, such as <code>Scroll*</code>. Video lifecycle events, such as
+   * <code>Video Playback Started</code>, drive streaming sessions and are always forwarded.
+   *
+   * @return Allowed event names. Empty if every event not denied is forwarded.
+   */
+  public List<String> getAllowedEvents() {
+    return allowedEvents;
+  }
+
+  /**
+   * Retrieves the names of the track and screen events never forwarded to comScore, even if they
+   * are allowed. Names may hold <code>*</code> wildcards. Video lifecycle events are never dropped,
+   * and the consent flag of a dropped event is still applied.
+   *
+   * @return Denied event names.
+   */
+  public List<String> getDeniedEvents() {
+    return deniedEvents;
+  }
+
+  /**
+   * Retrieves how many hidden events per second each event name may send to comScore once its
+   * burst is spent. Excess events are dropped.
+   *
+   * @return Events per second per name. <code>0</code> if events are not rate limited.
+   */
+  public double getHiddenEventRateLimit() {
+    return hiddenEventRateLimit;
+  }
+
+  /**
+   * Retrieves how many hidden events each event name may send to comScore at once.
+   *
+   * @return Burst size per name.
+   */
+  public int getHiddenEventBurst() {
+    return hiddenEventBurst;
+  }
+
+  /**
+   * Retrieves the number of event names rate limited on their own. Further names share one limit.
+   *
+   * @return Maximum number of rate limited names.
+   */
+  public int getRateLimitedEventNames() {
+    return rateLimitedEventNames;
+  }
+
+  /**
+   * Retrieves whether the hidden events dropped by the rate limit are reported to comScore, as a
+   * periodic hidden event per event name with the number of events dropped.
+   *
+   * @return <code>true</code> if dropped events are summarized.
+   */
+  public boolean isRateLimitSummary() {
+    return rateLimitSummary;
+  }
+
+  /**
+   * Retrieves the time between summaries of rate limited events.
+   *
+   * @return Summary interval in seconds.
+   */
+  public int getRateLimitSummaryInterval() {
+    return rateLimitSummaryInterval;
+  }
+
+  /**
+   * Retrieves the names of the track events sent to comScore as periodic summaries instead of one
+   * hidden event each. A summary holds the number of events and the sum of each numeric property.
+   * Names may hold <code>*</code> wildcards.
+   *
+   * @return Aggregated event names. Empty if no event is aggregated.
+   */
+  public List<String> getAggregatedEvents() {
+    return aggregatedEvents;
+  }
+
+  /**
+   * Retrieves the time between summaries of aggregated events. Summaries are also sent on flush
+   * and when the app goes to the background.
+   *
+   * @return Aggregation interval in seconds.
+   */
+  public int getAggregationInterval() {
+    return aggregationInterval;
+  }
+
+  /**
+   * Retrieves the maximum number of event names aggregated at once. Further events are sent on
+   * their own.
+   *
+   * @return Maximum number of aggregated names.
+   */
+  public int getMaxAggregatedEvents() {
+    return maxAggregatedEvents;
+  }
+
+  /**
+   * Retrieves the maximum number of numeric properties summed per aggregated event name.
+   *
+   * @return Maximum number of summed properties.
+   */
+  public int getMaxAggregatedFields() {
+    return maxAggregatedFields;
+  }
+
+  /**
+   * Retrieves how many hidden events are held back and handed to comScore as one burst. Any other
+   * call to comScore sends the held events first, so calls stay in order.
+   *
+   * @return Burst size. <code>0</code> or less if hidden events are sent right away.
+   */
+  public int getHiddenEventBatchSize() {
+    return hiddenEventBatchSize;
+  }
+
+  /**
+   * Retrieves how long a hidden event is held back at most when hidden events are sent in bursts.
+   * Held events are also sent on flush and when the app goes to the background.
+   *
+   * @return Maximum delay in milliseconds.
+   */
+  public int getHiddenEventBatchDelay() {
+    return hiddenEventBatchDelay;
+  }
+
+  private static List<String> getStrings(ValueMap destinationSettings, String key) {
+    Object value = destinationSettings.get(key);
+    if (!(value instanceof Collection)) {
+      return Collections.emptyList();
+    }
+    List<String> strings = new ArrayList<>();
+    for (Object element : (Collection<?>) value) {
+      if (element != null) {
+        strings.add(element.toString());
+      }
+    }
+    return Collections.unmodifiableList(strings);
+  }
+
   public HashMap<String, String> setConsentFlag() {
     HashMap<String, String> consentFlag = new HashMap<String, String>();
     consentFlag.put("cs_ucfr", "");
@@ -0,0 +1,206 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@code Map<String, String>} view over Segment properties or traits, used instead of {@code
+ * ValueMap.toStringMap()} for the maps handed to comScore.
+ *
+ * <p>Nothing is copied up front. Values are converted with {@link String#valueOf(Object)} when they
+ * are read, exactly like {@code toStringMap()} does, and each conversion of a non-string value is
+ * cached so it happens once. Values added with {@link #put} go into a small overlay that shadows the
+ * source; the source itself is never modified, and removing entries is not supported.
+ *
+ * <p>Not thread safe, since conversions are cached as they are read. The source must not change
+ * while the view is in use, and a view must be copied before it is handed to another thread.
+ */
+final class StringMapView extends AbstractMap<String, String> {
+
+  private static final int INITIAL_OVERLAY_CAPACITY = 4;
+
+  private final Map<String, ?> source;
+
+  // Overlay entries, in insertion order, allocated on the first put. Linear scans are faster than
+  // hashing for a few entries.
+  private String[] overlayKeys;
+  private String[] overlayValues;
+  private boolean[] overlayShadows;
+  private int overlaySize;
+  private int overlayShadowCount;
+
+  // Open-addressed cache of converted values, allocated on the first non-string conversion.
+  private String[] convertedKeys;
+  private String[] convertedValues;
+  private Set<Map.Entry<String, String>> entrySet;
+
+  StringMapView(Map<String, ?> source) {
+    this.source = source;
+  }
+
+  @Override
+  public int size() {
+    return source.size() + overlaySize - overlayShadowCount;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0 || source.containsKey(key);
+  }
+
+  @Override
+  public String get(Object key) {
+    int index = indexOf(key);
+    if (index >= 0) {
+      return overlayValues[index];
+    }
+    Object value = source.get(key);
+    if (value == null && !source.containsKey(key)) {
+      return null;
+    }
+    return convert((String) key, value);
+  }
+
+  @Override
+  public String put(String key, String value) {
+    int index = indexOf(key);
+    if (index >= 0) {
+      String previous = overlayValues[index];
+      overlayValues[index] = value;
+      return previous;
+    }
+
+    String previous = null;
+    boolean shadows = source.containsKey(key);
+    if (shadows) {
+      previous = convert(key, source.get(key));
+      overlayShadowCount++;
+    }
+    if (overlayKeys == null) {
+      overlayKeys = new String[INITIAL_OVERLAY_CAPACITY];
+      overlayValues = new String[INITIAL_OVERLAY_CAPACITY];
+      overlayShadows = new boolean[INITIAL_OVERLAY_CAPACITY];
+    } else if (overlaySize == overlayKeys.length) {
+      int capacity = overlaySize * 2;
+      overlayKeys = Arrays.copyOf(overlayKeys, capacity);
+      overlayValues = Arrays.copyOf(overlayValues, capacity);
+      overlayShadows = Arrays.copyOf(overlayShadows, capacity);
+    }
+    overlayKeys[overlaySize] = key;
+    overlayValues[overlaySize] = value;
+    overlayShadows[overlaySize] = shadows;
+    overlaySize++;
+    return previous;
+  }
+
+  @Override
+  public String remove(Object key) {
+    throw new UnsupportedOperationException("StringMapView does not support removal.");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("StringMapView does not support removal.");
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    if (entrySet == null) {
+      entrySet =
+          new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+              return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+              return StringMapView.this.size();
+            }
+          };
+    }
+    return entrySet;
+  }
+
+  private int indexOf(Object key) {
+    for (int i = 0; i < overlaySize; i++) {
+      String overlayKey = overlayKeys[i];
+      if (overlayKey == key || (overlayKey != null && overlayKey.equals(key))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Converts a source value like {@code toStringMap()} would, caching non-string conversions. */
+  private String convert(String key, Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    }
+    if (key == null) {
+      return String.valueOf(value); // Null marks a free slot in the cache.
+    }
+    if (convertedKeys == null) {
+      int capacity = Integer.highestOneBit(Math.max(source.size(), 2) * 3 - 1);
+      convertedKeys = new String[capacity];
+      convertedValues = new String[capacity];
+    }
+    int mask = convertedKeys.length - 1;
+    int slot = key.hashCode() & mask;
+    while (convertedKeys[slot] != null) {
+      if (convertedKeys[slot].equals(key)) {
+        return convertedValues[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    String string = String.valueOf(value);
+    convertedKeys[slot] = key;
+    convertedValues[slot] = string;
+    return string;
+  }
+
+  /** Iterates the source entries first, then the overlay entries that do not shadow one. */
+  private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+    private final Iterator<? extends Map.Entry<String, ?>> sourceIterator =
+        source.entrySet().iterator();
+    private int overlayIndex;
+
+    @Override
+    public boolean hasNext() {
+      if (sourceIterator.hasNext()) {
+        return true;
+      }
+      skipShadowingOverlayEntries();
+      return overlayIndex < overlaySize;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (sourceIterator.hasNext()) {
+        Map.Entry<String, ?> sourceEntry = sourceIterator.next();
+        String key = sourceEntry.getKey();
+        int index = indexOf(key);
+        return new SimpleImmutableEntry<>(
+            key, index >= 0 ? overlayValues[index] : convert(key, sourceEntry.getValue()));
+      }
+      skipShadowingOverlayEntries();
+      if (overlayIndex >= overlaySize) {
+        throw new NoSuchElementException();
+      }
+      int index = overlayIndex++;
+      return new SimpleImmutableEntry<>(overlayKeys[index], overlayValues[index]);
+    }
+
+    private void skipShadowingOverlayEntries() {
+      while (overlayIndex < overlaySize && overlayShadows[overlayIndex]) {
+        overlayIndex++;
+      }
+    }
+  }
+}
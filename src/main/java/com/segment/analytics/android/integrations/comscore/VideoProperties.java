@@ -0,0 +1,57 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.Map;
+
+/**
+ * Typed result of projecting a video event's properties. All camelCase/snake_case aliases have
+ * already been resolved by {@link PropertyProjector}, so the integration reads plain fields instead
+ * of looking up the same property several times.
+ */
+final class VideoProperties {
+
+  /** Labels mapped by the event family's {@link LabelPlan}. Mutable, sized for the plan. */
+  final Map<String, String> labels;
+
+  /** Playback position, from {@code playbackPosition} or {@code position}. */
+  long position;
+
+  /** Ad type, from {@code adType}, {@code ad_type} or {@code type}. May be {@code null}. */
+  String adType;
+
+  /** Raw {@code type} property, used for the {@code ns_st_ad} label of ads. May be {@code null}. */
+  String type;
+
+  /** Content asset id, from {@code assetId} or {@code asset_id}. Defaults to {@code "0"}. */
+  String assetId;
+
+  /**
+   * The {@code ns_st_ci} label set on "Video Playback Started": the last {@code assetId} or {@code
+   * asset_id} value seen, unresolved. {@code null} when neither property exists.
+   */
+  String contentId;
+
+  /** Video session id, from {@code session_id} or {@code sessionId}. May be {@code null}. */
+  String sessionId;
+
+  /** Whether {@code totalLength} or {@code total_length} was present. */
+  boolean hasLength;
+
+  /** Total length in milliseconds. Only meaningful if {@link #hasLength} is set. */
+  int length;
+
+  /** Bitrate in bps. */
+  int bitrate;
+
+  /** Whether the player is full screen, from {@code fullScreen} or {@code full_screen}. */
+  boolean fullScreen;
+
+  /** c3, c4 and c6 labels, from the comScore options or properties. {@code "*null"} if missing. */
+  String c3;
+
+  String c4;
+  String c6;
+
+  VideoProperties(Map<String, String> labels) {
+    this.labels = labels;
+  }
+}
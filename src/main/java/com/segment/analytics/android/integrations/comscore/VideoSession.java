@@ -0,0 +1,37 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.StreamingAnalytics;
+
+import java.util.Map;
+
+/**
+ * A video playback session: the {@link StreamingAnalytics} instance created on "Video Playback
+ * Started" and the labels the integration remembers between events of that session.
+ */
+final class VideoSession {
+
+  /** The {@code session_id} property of the session's events, or {@code null}. */
+  final String id;
+
+  final StreamingAnalytics streamingAnalytics;
+
+  /** Playback state of {@link #streamingAnalytics}; notify calls go through it. */
+  final PlaybackStateMachine playback;
+
+  /** Labels remembered between events, such as {@code ns_st_ci} and {@code ns_st_ad}. */
+  final Map<String, String> labels;
+
+  /** {@link Clock} time of the session's last event. */
+  long lastActivity;
+
+  VideoSession(
+      String id,
+      StreamingAnalytics streamingAnalytics,
+      PlaybackStateMachine playback,
+      Map<String, String> labels) {
+    this.id = id;
+    this.streamingAnalytics = streamingAnalytics;
+    this.playback = playback;
+    this.labels = labels;
+  }
+}
@@ -0,0 +1,180 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.StreamingAnalytics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Video sessions keyed by the Segment video spec's {@code session_id} property, so that several
+ * players can be tracked at the same time. Events without a {@code session_id} share the session
+ * keyed by {@code null}.
+ *
+ * <p>The registry holds at most {@code capacity} sessions. Starting one more evicts the least
+ * recently used session, which is ended with {@link StreamingAnalytics#notifyEnd()} and has its
+ * labels cleared.
+ *
+ * <p>Sessions whose player went away without a final event are reaped: {@link #reapIdle()} ends
+ * every session that saw no event for longer than the idle timeout. Sessions are kept in access
+ * order, so reaping only looks at the sessions it ends plus one.
+ *
+ * <p>Not thread safe. Segment delivers payloads to an integration on a single thread.
+ */
+final class VideoSessionRegistry {
+
+  private final int capacity;
+  private final long idleTimeoutMillis;
+  private final long positionTolerance;
+  private final Clock clock;
+  private final LinkedHashMap<String, VideoSession> sessions;
+  private long evictedCount;
+  private long reapedCount;
+  private long endedSavedCalls;
+
+  /**
+   * Creates a registry.
+   *
+   * @param capacity Maximum number of sessions. Must be at least 1.
+   * @param idleTimeoutMillis Time without events after which a session is reaped. {@code 0} or
+   *     less disables reaping.
+   * @param clock Source of the session activity times.
+   */
+  VideoSessionRegistry(int capacity, long idleTimeoutMillis, Clock clock) {
+    this(capacity, idleTimeoutMillis, PlaybackStateMachine.DEFAULT_POSITION_TOLERANCE, clock);
+  }
+
+  /**
+   * Creates a registry.
+   *
+   * @param positionTolerance How far, in seconds, a reported position may drift before a session
+   *     forwards a repeated play.
+   */
+  VideoSessionRegistry(int capacity, long idleTimeoutMillis, long positionTolerance, Clock clock) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.capacity = capacity;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.positionTolerance = positionTolerance;
+    this.clock = clock;
+    this.sessions =
+        new LinkedHashMap<String, VideoSession>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, VideoSession> eldest) {
+            if (size() <= VideoSessionRegistry.this.capacity) {
+              return false;
+            }
+            evictedCount++;
+            end(eldest.getValue());
+            return true;
+          }
+        };
+  }
+
+  /**
+   * Starts a session, replacing any session with the same id. The replaced session is ended and has
+   * its labels cleared, like an evicted one.
+   *
+   * @param id Session id, or {@code null} for events without one.
+   * @param streamingAnalytics The session's streaming analytics instance.
+   * @param labels The session's label map. Cleared before it is used.
+   * @return The new session.
+   */
+  VideoSession start(String id, StreamingAnalytics streamingAnalytics, Map<String, String> labels) {
+    VideoSession replaced = sessions.remove(id);
+    if (replaced != null) {
+      end(replaced);
+    }
+    labels.clear();
+    VideoSession session =
+        new VideoSession(
+            id,
+            streamingAnalytics,
+            new PlaybackStateMachine(streamingAnalytics, positionTolerance, clock),
+            labels);
+    session.lastActivity = clock.millis();
+    sessions.put(id, session);
+    return session;
+  }
+
+  /**
+   * Retrieves a session and records activity on it.
+   *
+   * @param id Session id, or {@code null} for events without one.
+   * @return The session, or {@code null} if it was never started, or has been evicted or reaped.
+   */
+  VideoSession get(String id) {
+    VideoSession session = sessions.get(id);
+    if (session != null) {
+      session.lastActivity = clock.millis();
+    }
+    return session;
+  }
+
+  /** Ends and removes every session that has been idle for longer than the idle timeout. */
+  void reapIdle() {
+    if (idleTimeoutMillis <= 0 || sessions.isEmpty()) {
+      return;
+    }
+    long now = clock.millis();
+    // Least recently used first, which is also the order of their last activity.
+    Iterator<VideoSession> iterator = sessions.values().iterator();
+    while (iterator.hasNext()) {
+      VideoSession session = iterator.next();
+      if (now - session.lastActivity <= idleTimeoutMillis) {
+        return;
+      }
+      iterator.remove();
+      reapedCount++;
+      end(session);
+    }
+  }
+
+  /**
+   * Retrieves the number of sessions currently held.
+   *
+   * @return Number of sessions.
+   */
+  int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Retrieves the number of sessions evicted to stay within capacity.
+   *
+   * @return Number of evicted sessions.
+   */
+  long getEvictedCount() {
+    return evictedCount;
+  }
+
+  /**
+   * Retrieves the number of sessions reaped after being idle.
+   *
+   * @return Number of reaped sessions.
+   */
+  long getReapedCount() {
+    return reapedCount;
+  }
+
+  /**
+   * Retrieves the number of calls to comScore saved by the sessions' {@link PlaybackStateMachine},
+   * including sessions that have been evicted or reaped.
+   *
+   * @return Number of saved calls.
+   */
+  long getSavedCalls() {
+    long savedCalls = endedSavedCalls;
+    for (VideoSession session : sessions.values()) {
+      savedCalls += session.playback.getSavedCalls();
+    }
+    return savedCalls;
+  }
+
+  private void end(VideoSession session) {
+    session.playback.end();
+    session.labels.clear();
+    endedSavedCalls += session.playback.getSavedCalls();
+  }
+}
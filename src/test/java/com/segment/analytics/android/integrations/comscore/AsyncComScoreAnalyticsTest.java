@@ -0,0 +1,177 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import android.content.Context;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+import com.segment.analytics.integrations.Logger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncComScoreAnalyticsTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock ComScoreAnalytics delegate;
+  private Logger logger;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    logger = Logger.with(Analytics.LogLevel.NONE);
+  }
+
+  @Test
+  public void preservesCallOrder() throws InterruptedException {
+    AsyncComScoreAnalytics async = new AsyncComScoreAnalytics(delegate, 10, logger);
+    Map<String, String> first = Collections.singletonMap("name", "first");
+    Map<String, String> second = Collections.singletonMap("name", "second");
+    Map<String, String> third = Collections.singletonMap("name", "third");
+
+    async.notifyHiddenEvent(first);
+    async.setPersistentLabels(second);
+    async.notifyViewEvent(third);
+    async.shutdown();
+    assertTrue(async.awaitTermination(5, TimeUnit.SECONDS));
+
+    InOrder inOrder = Mockito.inOrder(delegate);
+    inOrder.verify(delegate).notifyHiddenEvent(first);
+    inOrder.verify(delegate).setPersistentLabels(second);
+    inOrder.verify(delegate).notifyViewEvent(third);
+  }
+
+  @Test
+  public void dropsCallsWhenQueueIsFull() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Map<String, String> blocking = Collections.singletonMap("name", "blocking");
+    Mockito.doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) throws Throwable {
+                running.countDown();
+                release.await();
+                return null;
+              }
+            })
+        .when(delegate)
+        .notifyHiddenEvent(blocking);
+
+    AsyncComScoreAnalytics async = new AsyncComScoreAnalytics(delegate, 1, logger);
+    async.notifyHiddenEvent(blocking);
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+
+    Map<String, String> queued = Collections.singletonMap("name", "queued");
+    Map<String, String> dropped = Collections.singletonMap("name", "dropped");
+    async.notifyHiddenEvent(queued);
+    async.notifyHiddenEvent(dropped);
+    release.countDown();
+    async.shutdown();
+    assertTrue(async.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(1, async.getDroppedCount());
+    Mockito.verify(delegate).notifyHiddenEvent(queued);
+    Mockito.verify(delegate, Mockito.never()).notifyHiddenEvent(dropped);
+  }
+
+  @Test
+  public void reportsDroppedCalls() {
+    final Map<Method, Map<String, String>> rejected = new HashMap<>();
+    AsyncComScoreAnalytics async = new AsyncComScoreAnalytics(delegate, 1, logger);
+    async.setRejectionListener(
+        new AsyncComScoreAnalytics.RejectionListener() {
+          @Override
+          public void onRejected(Method method, Map<String, String> labels) {
+            rejected.put(method, labels);
+          }
+        });
+    async.shutdown();
+
+    Map<String, String> labels = Collections.singletonMap("userId", "foo");
+    async.setPersistentLabels(labels);
+    async.removePersistentLabel("name");
+
+    assertEquals(2, async.getDroppedCount());
+    assertEquals(labels, rejected.get(Method.SET_PERSISTENT_LABELS));
+    assertEquals(
+        Collections.singleton("name"), rejected.get(Method.REMOVE_PERSISTENT_LABEL).keySet());
+  }
+
+  @Test
+  public void journalsCallsUntilTheDelegateHasProcessedThem() throws Exception {
+    File filesDir = folder.newFolder();
+    Context context = Mockito.mock(Context.class);
+    Mockito.when(context.getFilesDir()).thenReturn(filesDir);
+    final CountDownLatch release = new CountDownLatch(1);
+    Map<String, String> blocking = Collections.singletonMap("name", "blocking");
+    Mockito.doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+              }
+            })
+        .when(delegate)
+        .notifyHiddenEvent(blocking);
+
+    CallJournal journal = new CallJournal(4096, 2);
+    AsyncComScoreAnalytics async = new AsyncComScoreAnalytics(delegate, 10, logger, journal);
+    async.start(context, "24186693", null);
+    async.notifyHiddenEvent(blocking);
+    async.notifyViewEvent(Collections.singletonMap("name", "Home"));
+    assertEquals(2, journal.size());
+
+    // A process started now would replay both calls.
+    CallJournal.Record replayed =
+        new CallJournal(4096, 2).open(new File(filesDir, "segment-comscore-journal")).get(1);
+    assertEquals(Method.NOTIFY_VIEW_EVENT, replayed.method);
+
+    release.countDown();
+    async.shutdown();
+    assertTrue(async.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, journal.size());
+  }
+
+  @Test
+  public void replaysJournaledCallsOnStart() throws Exception {
+    File filesDir = folder.newFolder();
+    Context context = Mockito.mock(Context.class);
+    Mockito.when(context.getFilesDir()).thenReturn(filesDir);
+    CallJournal previous = new CallJournal(4096, 2);
+    previous.open(new File(filesDir, "segment-comscore-journal"));
+    previous.append(Method.SET_PERSISTENT_LABELS, Collections.singletonMap("cs_ucfr", "1"));
+    previous.append(Method.NOTIFY_HIDDEN_EVENT, Collections.singletonMap("name", "Lost"));
+
+    AsyncComScoreAnalytics async =
+        new AsyncComScoreAnalytics(delegate, 10, logger, new CallJournal(4096, 2));
+    async.start(context, "24186693", null);
+    async.shutdown();
+    assertTrue(async.awaitTermination(5, TimeUnit.SECONDS));
+
+    InOrder inOrder = Mockito.inOrder(delegate);
+    inOrder.verify(delegate).start(context, "24186693", null);
+    inOrder.verify(delegate).setPersistentLabels(Collections.singletonMap("cs_ucfr", "1"));
+    inOrder.verify(delegate).notifyHiddenEvent(Collections.singletonMap("name", "Lost"));
+    assertEquals(0, async.getJournal().size());
+  }
+}
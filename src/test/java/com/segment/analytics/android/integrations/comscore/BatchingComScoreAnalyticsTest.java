@@ -0,0 +1,104 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class BatchingComScoreAnalyticsTest {
+
+  @Mock ComScoreAnalytics delegate;
+  private final FakeClock clock = new FakeClock();
+  private final Map<String, String> first = Collections.singletonMap("name", "first");
+  private final Map<String, String> second = Collections.singletonMap("name", "second");
+  private final Map<String, String> third = Collections.singletonMap("name", "third");
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void sendsABurstOnceTheBatchIsFull() {
+    BatchingComScoreAnalytics batching =
+        new BatchingComScoreAnalytics(delegate, 2, 1000, clock, null);
+
+    batching.notifyHiddenEvent(first);
+    verify(delegate, never()).notifyHiddenEvent(Mockito.<String, String>anyMap());
+    batching.notifyHiddenEvent(second);
+
+    InOrder inOrder = Mockito.inOrder(delegate);
+    inOrder.verify(delegate).notifyHiddenEvent(first);
+    inOrder.verify(delegate).notifyHiddenEvent(second);
+    assertEquals(0, batching.size());
+    assertEquals(1, batching.getBurstCount());
+  }
+
+  @Test
+  public void sendsABurstOnceTheOldestEventIsDue() {
+    BatchingComScoreAnalytics batching =
+        new BatchingComScoreAnalytics(delegate, 10, 1000, clock, null);
+    batching.notifyHiddenEvent(first);
+
+    clock.advance(999);
+    batching.flushIfDue();
+    verify(delegate, never()).notifyHiddenEvent(first);
+
+    clock.advance(1);
+    batching.flushIfDue();
+    verify(delegate).notifyHiddenEvent(first);
+  }
+
+  @Test
+  public void aLateEventSendsTheDueBurstFirst() {
+    BatchingComScoreAnalytics batching =
+        new BatchingComScoreAnalytics(delegate, 10, 1000, clock, null);
+    batching.notifyHiddenEvent(first);
+    clock.advance(1000);
+
+    batching.notifyHiddenEvent(second);
+
+    verify(delegate).notifyHiddenEvent(first);
+    verify(delegate, never()).notifyHiddenEvent(second);
+    assertEquals(1, batching.size());
+  }
+
+  @Test
+  public void otherCallsSendHeldEventsFirst() {
+    BatchingComScoreAnalytics batching =
+        new BatchingComScoreAnalytics(delegate, 10, 1000, clock, null);
+
+    batching.notifyHiddenEvent(first);
+    batching.setPersistentLabels(second);
+    batching.notifyHiddenEvent(third);
+    batching.removePersistentLabel("a");
+    batching.notifyViewEvent(first);
+
+    InOrder inOrder = Mockito.inOrder(delegate);
+    inOrder.verify(delegate).notifyHiddenEvent(first);
+    inOrder.verify(delegate).setPersistentLabels(second);
+    inOrder.verify(delegate).notifyHiddenEvent(third);
+    inOrder.verify(delegate).removePersistentLabel("a");
+    inOrder.verify(delegate).notifyViewEvent(first);
+  }
+
+  @Test
+  public void timerSendsDueBursts() {
+    BatchingComScoreAnalytics batching =
+        new BatchingComScoreAnalytics(delegate, 10, 10, Clock.SYSTEM);
+
+    batching.notifyHiddenEvent(first);
+
+    verify(delegate, timeout(5000)).notifyHiddenEvent(first);
+  }
+}
@@ -0,0 +1,331 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.android.integrations.comscore.RecordingComScoreAnalytics.Method;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallJournalTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Map<String, String> labels(String name) {
+    Map<String, String> labels = new LinkedHashMap<>();
+    labels.put("name", name);
+    labels.put("category", "Feed");
+    return labels;
+  }
+
+  private List<CallJournal.Record> reopen(File directory) throws IOException {
+    return new CallJournal(4096, 4).open(directory);
+  }
+
+  @Test
+  public void replaysCallsThatWereNotAcknowledged() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    assertTrue(journal.open(directory).isEmpty());
+
+    long first = journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Order Completed"));
+    journal.append(Method.SET_PERSISTENT_LABELS, labels("Settings"));
+    journal.acknowledge(first);
+    assertEquals(2, journal.size());
+
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(2, records.size());
+    assertEquals(Method.NOTIFY_HIDDEN_EVENT, records.get(0).method);
+    assertEquals(labels("Order Completed"), records.get(0).labels);
+    assertEquals(Method.SET_PERSISTENT_LABELS, records.get(1).method);
+    assertEquals(labels("Settings"), records.get(1).labels);
+  }
+
+  @Test
+  public void replayedCallsAreJournaledAgainUntilAcknowledged() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+
+    CallJournal reopened = new CallJournal(4096, 4);
+    reopened.open(directory);
+    assertEquals(1, reopened.size());
+    assertEquals(1, reopen(directory).size());
+
+    reopened = new CallJournal(4096, 4);
+    List<CallJournal.Record> records = reopened.open(directory);
+    reopened.acknowledge(records.get(0).sequence);
+    assertTrue(reopen(directory).isEmpty());
+  }
+
+  @Test
+  public void closingKeepsPendingCallsForTheNextOpen() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    journal.close();
+
+    assertEquals(-1, journal.append(Method.NOTIFY_VIEW_EVENT, labels("Feed")));
+    assertEquals(1, journal.getUnjournaledCount());
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(1, records.size());
+    assertEquals(labels("Home"), records.get(0).labels);
+  }
+
+  @Test
+  public void methodsAreWrittenAsStableOpcodes() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Home"));
+    journal.force();
+
+    RandomAccessFile raf = new RandomAccessFile(new File(directory, "0000000000000000.seg"), "r");
+    try {
+      raf.seek(16); // Segment header, then record header.
+      assertEquals(4, raf.readByte());
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Test
+  public void acknowledgementsOutOfOrderWaitForOlderCalls() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    long second = journal.append(Method.NOTIFY_VIEW_EVENT, labels("Feed"));
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Settings"));
+
+    journal.acknowledge(second);
+    assertEquals(2, journal.size());
+    assertEquals(3, reopen(directory).size());
+  }
+
+  @Test
+  public void acknowledgementsOutOfOrderAreAppliedOnceOlderCallsAre() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    long first = journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    long second = journal.append(Method.NOTIFY_VIEW_EVENT, labels("Feed"));
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Settings"));
+
+    journal.acknowledge(second);
+    journal.acknowledge(first);
+
+    assertEquals(1, journal.size());
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(1, records.size());
+    assertEquals("Settings", records.get(0).labels.get("name"));
+  }
+
+  @Test
+  public void drainedSegmentsAreDeleted() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    long last = -1;
+    // Each call takes well over 100 bytes, so 100 of them need several segments.
+    for (int i = 0; i < 100; i++) {
+      last = journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Event with a long name " + i));
+    }
+    assertTrue(journal.getSegmentCount() > 1);
+
+    for (long sequence = 0; sequence <= last; sequence++) {
+      journal.acknowledge(sequence);
+    }
+
+    assertEquals(1, journal.getSegmentCount());
+    assertEquals(1, directory.listFiles().length);
+    assertEquals(0, journal.size());
+    long next = journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    assertEquals(last + 1, next);
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(1, records.size());
+    assertEquals("Home", records.get(0).labels.get("name"));
+  }
+
+  @Test
+  public void drainedSegmentIsReusedWhenFull() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(256, 1);
+    journal.open(directory);
+
+    for (int i = 0; i < 100; i++) {
+      journal.acknowledge(journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Event " + i)));
+    }
+    journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Pending"));
+
+    assertEquals(0, journal.getUnjournaledCount());
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(1, records.size());
+    assertEquals("Pending", records.get(0).labels.get("name"));
+  }
+
+  @Test
+  public void callsBeyondTheLastSegmentAreNotJournaled() throws IOException {
+    CallJournal journal = new CallJournal(256, 2);
+    journal.open(folder.newFolder());
+
+    int journaled = 0;
+    for (int i = 0; i < 50; i++) {
+      if (journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Event " + i)) >= 0) {
+        journaled++;
+      }
+    }
+
+    assertEquals(2, journal.getSegmentCount());
+    assertEquals(journaled, journal.size());
+    assertEquals(50 - journaled, journal.getUnjournaledCount());
+  }
+
+  @Test
+  public void callsLargerThanASegmentAreNotJournaled() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(256, 4);
+    journal.open(directory);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      large.append('x');
+    }
+
+    assertEquals(-1, journal.append(Method.NOTIFY_HIDDEN_EVENT, labels(large.toString())));
+    assertEquals(-1, journal.append(Method.NOTIFY_HIDDEN_EVENT, labels(large.toString())));
+    assertEquals(0, journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Small")));
+    assertEquals(1, journal.getSegmentCount());
+    assertEquals(2, journal.getUnjournaledCount());
+    assertEquals("Small", reopen(directory).get(0).labels.get("name"));
+  }
+
+  @Test
+  public void keysDefinedByCallsThatDidNotFitAreNotReused() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(256, 1);
+    journal.open(directory);
+    Map<String, String> filler = new HashMap<>();
+    filler.put("filler", "0123456789012345678901234567890123456789012345678901234567890123456789");
+    journal.append(Method.NOTIFY_HIDDEN_EVENT, filler);
+    journal.append(Method.NOTIFY_HIDDEN_EVENT, filler);
+    Map<String, String> tooLarge = new HashMap<>(filler);
+    tooLarge.put("unused", "x");
+    assertEquals(-1, journal.append(Method.NOTIFY_HIDDEN_EVENT, tooLarge));
+
+    Map<String, String> small = new HashMap<>();
+    small.put("name", "Home");
+    assertEquals(2, journal.append(Method.NOTIFY_VIEW_EVENT, small));
+
+    List<CallJournal.Record> records = new CallJournal(256, 4).open(directory);
+    assertEquals(3, records.size());
+    assertEquals(small, records.get(2).labels);
+  }
+
+  @Test
+  public void callsThatNoLongerFitAreStillReplayed() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(256, 4);
+    journal.open(directory);
+    for (int i = 0; i < 20; i++) {
+      journal.append(Method.NOTIFY_HIDDEN_EVENT, labels("Event " + i));
+    }
+    assertTrue(journal.getSegmentCount() > 1);
+
+    CallJournal reopened = new CallJournal(256, 1);
+    List<CallJournal.Record> records = reopened.open(directory);
+    assertEquals(20, records.size());
+    assertEquals("Event 19", records.get(19).labels.get("name"));
+    assertEquals(-1, records.get(19).sequence);
+    assertTrue(reopened.getUnjournaledCount() > 0);
+  }
+
+  @Test
+  public void segmentsThatCannotBeDeletedDoNotFailTheOpen() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    // A directory named like a segment, which cannot be deleted while it holds a file.
+    File stuck = new File(directory, "0000000000000100.seg");
+    assertTrue(new File(stuck, "child").mkdirs());
+
+    CallJournal reopened = new CallJournal(4096, 4);
+    List<CallJournal.Record> records = reopened.open(directory);
+    assertEquals(1, records.size());
+    assertEquals(1, reopened.getUndeletedCount());
+  }
+
+  @Test
+  public void roundTripsNullValuesAndNonAsciiText() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    Map<String, String> labels = new LinkedHashMap<>();
+    labels.put("name", "Caf\u00e9 \u65e5\u672c \ud83d\ude00");
+    labels.put("category", null);
+    labels.put("", "empty key");
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels);
+
+    List<CallJournal.Record> records = reopen(directory);
+    assertEquals(labels, records.get(0).labels);
+    assertNull(records.get(0).labels.get("category"));
+  }
+
+  @Test
+  public void stopsReplayingAtACorruptRecord() throws IOException {
+    File directory = folder.newFolder();
+    CallJournal journal = new CallJournal(4096, 4);
+    journal.open(directory);
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home"));
+    journal.append(Method.NOTIFY_VIEW_EVENT, labels("Feed"));
+    File segment = directory.listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      // Flips the last byte of the second record's payload.
+      long end = 0;
+      for (long position = 8; ; ) {
+        file.seek(position);
+        int length = file.readInt();
+        if (length == 0) {
+          break;
+        }
+        end = position + 8 + length;
+        position = end;
+      }
+      file.seek(end - 1);
+      int last = file.read();
+      file.seek(end - 1);
+      file.write(last ^ 0xff);
+    } finally {
+      file.close();
+    }
+
+    CallJournal reopened = new CallJournal(4096, 4);
+    List<CallJournal.Record> records = reopened.open(directory);
+    assertEquals(1, records.size());
+    assertEquals("Home", records.get(0).labels.get("name"));
+    assertEquals(1, reopened.getCorruptCount());
+  }
+
+  @Test
+  public void callsAreNotJournaledBeforeOpen() {
+    CallJournal journal = new CallJournal(4096, 4);
+
+    assertEquals(-1, journal.append(Method.NOTIFY_VIEW_EVENT, labels("Home")));
+    assertEquals(1, journal.getUnjournaledCount());
+  }
+}
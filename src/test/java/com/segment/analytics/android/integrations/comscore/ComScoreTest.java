@@ -1,6 +1,8 @@
 package com.segment.analytics.android.integrations.comscore;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
 import android.content.pm.ApplicationInfo;
 
 import com.comscore.PublisherConfiguration;
@@ -22,20 +24,29 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.segment.analytics.Utils.createContext;
 import static com.segment.analytics.Utils.createTraits;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.refEq;
@@ -107,6 +118,38 @@ public class ComScoreTest {
     assertTrue(settings.isUseHTTPS());
     assertFalse(settings.isAutoUpdate());
     assertTrue(settings.isForegroundOnly());
+    assertFalse(settings.isAsyncDispatch());
+    assertEquals(1000, settings.getAsyncQueueSize());
+    assertEquals(8, settings.getMaxVideoSessions());
+    assertEquals(1800, settings.getVideoSessionTimeout());
+    assertEquals(2, settings.getSeekTolerance());
+    assertEquals(32, settings.getMetadataCacheSize());
+    assertEquals(0, settings.getCallRecorderSize());
+    assertFalse(settings.isDeferredStart());
+    assertEquals(200, settings.getDeferredStartBufferSize());
+    assertFalse(settings.isDurableQueue());
+    assertEquals(256 * 1024, settings.getDurableQueueSegmentSize());
+    assertEquals(0, settings.getFlattenDepth());
+    assertEquals(50, settings.getFlattenMaxLabels());
+    assertEquals(0, settings.getFlattenMaxValueLength());
+    assertEquals(0, settings.getMaxLabelValueLength());
+    assertEquals(0, settings.getMaxLabels());
+    assertEquals(0, settings.getMaxLabelKeyLength());
+    assertEquals(0, settings.getMaxLabelBytes());
+    assertTrue(settings.getHiddenEventSampleRates().isEmpty());
+    assertTrue(settings.getAllowedEvents().isEmpty());
+    assertTrue(settings.getDeniedEvents().isEmpty());
+    assertEquals(0, settings.getHiddenEventRateLimit(), 0);
+    assertEquals(10, settings.getHiddenEventBurst());
+    assertEquals(100, settings.getRateLimitedEventNames());
+    assertFalse(settings.isRateLimitSummary());
+    assertEquals(60, settings.getRateLimitSummaryInterval());
+    assertTrue(settings.getAggregatedEvents().isEmpty());
+    assertEquals(60, settings.getAggregationInterval());
+    assertEquals(100, settings.getMaxAggregatedEvents());
+    assertEquals(10, settings.getMaxAggregatedFields());
+    assertEquals(0, settings.getHiddenEventBatchSize());
+    assertEquals(5000, settings.getHiddenEventBatchDelay());
   }
 
   @Test
@@ -635,7 +678,7 @@ public class ComScoreTest {
   @Test
   public void videoContentPlaying() {
     setupWithVideoPlaybackStarted();
-    assertTrue(integration.configurationLabels.containsKey("ns_st_ad") && integration.configurationLabels.get("ns_st_ad") != null);
+    assertNotNull(nullSessionLabels().get("ns_st_ad"));
 
     integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Playing")
             .properties(new Properties().putValue("assetId", 123214)
@@ -662,7 +705,7 @@ public class ComScoreTest {
   @Test
   public void videoContentPlayingWithAdType() {
     setupWithVideoPlaybackStarted();
-    assertTrue(integration.configurationLabels.containsKey("ns_st_ad") && integration.configurationLabels.get("ns_st_ad") != null);
+    assertNotNull(nullSessionLabels().get("ns_st_ad"));
 
     integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Playing")
             .properties(new Properties().putValue("assetId", 123214)
@@ -725,7 +768,7 @@ public class ComScoreTest {
   @Test
   public void videoAdStarted() {
     setupWithVideoPlaybackStarted();
-    assertTrue(integration.configurationLabels.containsKey("ns_st_ad") && integration.configurationLabels.get("ns_st_ad") != null);
+    assertNotNull(nullSessionLabels().get("ns_st_ad"));
     integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Ad Started")
             .properties(new Properties().putValue("asset_id", 4311)
                     .putValue("pod_id", "adSegmentA")
@@ -822,7 +865,7 @@ public class ComScoreTest {
   @Test
   public void videoAdPlaying() {
     setupWithVideoPlaybackStarted();
-    assertTrue(integration.configurationLabels.containsKey("ns_st_ad") && integration.configurationLabels.get("ns_st_ad") != null);
+    assertNotNull(nullSessionLabels().get("ns_st_ad"));
     integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Ad Playing")
             .properties(new Properties().putValue("assetId", 4311)
                     .putValue("podId", "adSegmentA")
@@ -870,6 +913,29 @@ public class ComScoreTest {
             .setPersistentLabels(expected);
   }
 
+  @Test
+  public void repeatedIdentifySendsOnlyChangedTraits() {
+    Traits traits = new Traits();
+    traits.putValue("firstName", "Kylo");
+    traits.putValue("lastName", "Ren");
+    integration.identify(new IdentifyPayload.Builder().userId("foo")
+            .anonymousId("foobar").traits(traits).build());
+    integration.identify(new IdentifyPayload.Builder().userId("foo")
+            .anonymousId("foobar").traits(traits).build());
+
+    Traits renamed = new Traits();
+    renamed.putValue("firstName", "Ben");
+    integration.identify(new IdentifyPayload.Builder().userId("foo")
+            .anonymousId("foobar").traits(renamed).build());
+
+    Mockito.verify(comScoreAnalytics, Mockito.times(2))
+            .setPersistentLabels(Mockito.<String, String>anyMap());
+    Mockito.verify(comScoreAnalytics).setPersistentLabels(
+            Collections.singletonMap("firstName", "Ben"));
+    Mockito.verify(comScoreAnalytics).removePersistentLabel("lastName");
+    assertEquals(1, integration.getPersistentLabels().getNoOpCount());
+  }
+
   @Test
   public void screen() {
     integration.screen(
@@ -1436,6 +1502,781 @@ public class ComScoreTest {
     Mockito.verify(comScoreAnalytics, Mockito.times(1)).notifyHiddenEvent(expectedFlag);
   }
 
+  @Test
+  public void trackWithUnchangedConsentFlagSendsLabelOnce() {
+    ValueMap destinationSettings = new ValueMap();
+    destinationSettings.putValue("c2", "foobarbar");
+    destinationSettings.putValue("publisherSecret", "illnevertell");
+    destinationSettings.putValue("consentFlag", "consentFlagProp");
+
+    integration = new ComScoreIntegration(analytics, destinationSettings, comScoreAnalytics);
+
+    for (int i = 0; i < 3; i++) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo anon id") //
+              .event("Test Event")
+              .properties(new Properties().putValue("consentFlagProp", "1"))
+              .build());
+    }
+    integration.screen(
+            new ScreenPayload.Builder()
+                    .anonymousId("foo")
+                    .name("SmartWatches")
+                    .properties(new Properties().putValue("consentFlagProp", "true"))
+                    .build());
+
+    LinkedHashMap<String, String> expectedFlag = new LinkedHashMap<>();
+    expectedFlag.put("cs_ucfr", "1");
+    Mockito.verify(comScoreAnalytics, Mockito.times(1)).setPersistentLabels(expectedFlag);
+    Mockito.verify(comScoreAnalytics, Mockito.times(1)).notifyHiddenEvent(expectedFlag);
+    assertEquals(6, integration.getConsentState().getSuppressedCount());
+  }
+
+  @Test
+  public void trackWithChangedConsentFlagSendsNewLabel() {
+    ValueMap destinationSettings = new ValueMap();
+    destinationSettings.putValue("c2", "foobarbar");
+    destinationSettings.putValue("publisherSecret", "illnevertell");
+    destinationSettings.putValue("consentFlag", "consentFlagProp");
+
+    integration = new ComScoreIntegration(analytics, destinationSettings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo anon id") //
+            .event("Test Event")
+            .properties(new Properties().putValue("consentFlagProp", "1"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo anon id") //
+            .event("Test Event")
+            .properties(new Properties().putValue("consentFlagProp", "0"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo anon id") //
+            .event("Test Event")
+            .properties(new Properties().putValue("consentFlagProp", "1"))
+            .build());
+
+    LinkedHashMap<String, String> expectedGranted = new LinkedHashMap<>();
+    expectedGranted.put("cs_ucfr", "1");
+    LinkedHashMap<String, String> expectedDenied = new LinkedHashMap<>();
+    expectedDenied.put("cs_ucfr", "0");
+    Mockito.verify(comScoreAnalytics, Mockito.times(2)).setPersistentLabels(expectedGranted);
+    Mockito.verify(comScoreAnalytics, Mockito.times(1)).setPersistentLabels(expectedDenied);
+    Mockito.verify(comScoreAnalytics, Mockito.times(1)).notifyHiddenEvent(expectedDenied);
+    assertEquals(0, integration.getConsentState().getSuppressedCount());
+  }
+
+  @Test
+  public void videoSessionsWithDifferentIdsKeepSeparateState() {
+    StreamingAnalytics first = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics second = Mockito.mock(StreamingAnalytics.class);
+    when(first.getConfiguration()).thenReturn(streamingConfiguration);
+    when(second.getConfiguration()).thenReturn(streamingConfiguration);
+    when(comScoreAnalytics.createStreamingAnalytics()).thenReturn(first, second);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("session_id", "a").putValue("asset_id", 1))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("session_id", "b").putValue("asset_id", 2))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Ad Started")
+            .properties(new Properties().putValue("session_id", "a").putValue("asset_id", 10)
+                    .putValue("type", "mid-roll"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Paused")
+            .properties(new Properties().putValue("sessionId", "b"))
+            .build());
+
+    LinkedHashMap<String, String> expected = new LinkedHashMap<>();
+    expected.put("ns_st_ami", "10");
+    expected.put("ns_st_ad", "mid-roll");
+    expected.put("ns_st_ct", "va00");
+    expected.put("c3", "*null");
+    expected.put("c4", "*null");
+    expected.put("c6", "*null");
+    expected.put("ns_st_ci", "1");
+
+    Mockito.verify(first).setMetadata(refEq(getAdvertisementMetadata(expected)));
+    Mockito.verify(first, Mockito.never()).notifyPause();
+    Mockito.verify(second).notifyPause();
+    Mockito.verify(second, Mockito.never()).notifyPlay();
+    assertEquals(2, integration.getVideoSessions().size());
+  }
+
+  @Test
+  public void restartedVideoSessionEndsThePreviousOne() {
+    StreamingAnalytics first = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics second = Mockito.mock(StreamingAnalytics.class);
+    when(first.getConfiguration()).thenReturn(streamingConfiguration);
+    when(second.getConfiguration()).thenReturn(streamingConfiguration);
+    when(comScoreAnalytics.createStreamingAnalytics()).thenReturn(first, second);
+
+    for (int i = 0; i < 2; i++) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo")
+              .event("Video Playback Started")
+              .properties(new Properties().putValue("session_id", "a").putValue("ad_type", "pre-roll"))
+              .build());
+    }
+
+    Mockito.verify(first).notifyEnd();
+    Mockito.verify(second, Mockito.never()).notifyEnd();
+    assertEquals(1, integration.getVideoSessions().size());
+    assertEquals("pre-roll", integration.getVideoSessions().get("a").labels.get("ns_st_ad"));
+  }
+
+  @Test
+  public void videoSessionsBeyondCapacityEndLeastRecentlyUsed() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("maxVideoSessions", 1);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+    StreamingAnalytics first = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics second = Mockito.mock(StreamingAnalytics.class);
+    when(first.getConfiguration()).thenReturn(streamingConfiguration);
+    when(second.getConfiguration()).thenReturn(streamingConfiguration);
+    when(comScoreAnalytics.createStreamingAnalytics()).thenReturn(first, second);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("session_id", "a"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("session_id", "b"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Paused")
+            .properties(new Properties().putValue("session_id", "a"))
+            .build());
+
+    Mockito.verify(first).notifyEnd();
+    Mockito.verify(first, Mockito.never()).notifyPause();
+    Mockito.verify(second, Mockito.never()).notifyEnd();
+    assertEquals(1, integration.getVideoSessions().size());
+    assertEquals(1, integration.getVideoSessions().getEvictedCount());
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void videoSessionWithoutIdKeepsItsOwnLabels() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("videoSessionTimeout", 60);
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+    integration.configurationLabels.put("app", "label");
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("asset_id", 1234).putValue("ad_type", "pre-roll"))
+            .build());
+    assertEquals("pre-roll", nullSessionLabels().get("ns_st_ad"));
+    clock.advance(61 * 1000);
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+
+    assertEquals(0, integration.getVideoSessions().size());
+    assertEquals(Collections.singletonMap("app", "label"), integration.configurationLabels);
+  }
+
+  @Test
+  public void idleVideoSessionIsEndedOnNextPayload() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("videoSessionTimeout", 60);
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("asset_id", 1234))
+            .build());
+    clock.advance(61 * 1000);
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+
+    Mockito.verify(streamingAnalytics).notifyEnd();
+    assertEquals(0, integration.getVideoSessions().size());
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Paused")
+            .properties(new Properties().putValue("asset_id", 1234))
+            .build());
+    Mockito.verify(streamingAnalytics, Mockito.never()).notifyPause();
+  }
+
+  @Test
+  public void idleVideoSessionIsEndedOnATimer() throws InterruptedException {
+    ValueMap settings = new ValueMap();
+    settings.putValue("videoSessionTimeout", 1);
+    FakeClock clock = new FakeClock();
+    QueueExecutor integrationThread = new QueueExecutor();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock,
+            integrationThread);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("asset_id", 1234))
+            .build());
+    clock.advance(1001);
+    integrationThread.runNext();
+
+    Mockito.verify(streamingAnalytics).notifyEnd();
+    assertEquals(0, integration.getVideoSessions().size());
+  }
+
+  @Test
+  public void resumingAfterTheTimeoutKeepsTheSession() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("videoSessionTimeout", 60);
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("asset_id", 1234))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Paused")
+            .properties(new Properties().putValue("asset_id", 1234))
+            .build());
+    clock.advance(61 * 1000);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Resumed")
+            .properties(new Properties().putValue("asset_id", 1234).putValue("position", 30))
+            .build());
+
+    Mockito.verify(streamingAnalytics).notifyPlay();
+    Mockito.verify(streamingAnalytics, Mockito.never()).notifyEnd();
+    assertEquals(1, integration.getVideoSessions().size());
+  }
+
+  @Test
+  public void deferredStartHoldsPayloadsUntilTheSdkHasStarted() throws Exception {
+    ComScoreAnalytics sdk = Mockito.mock(ComScoreAnalytics.class);
+    final CountDownLatch release = new CountDownLatch(1);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        release.await();
+        return null;
+      }
+    }).when(sdk).start(Mockito.<Context>any(), Mockito.anyString(),
+            Mockito.<PublisherConfiguration>any());
+    ValueMap settings = new ValueMap();
+    settings.putValue("deferredStart", true);
+    QueueExecutor integrationThread = new QueueExecutor();
+    integration = new ComScoreIntegration(analytics, settings, sdk, Clock.SYSTEM,
+            integrationThread);
+
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .build());
+    Mockito.verify(sdk, Mockito.never()).notifyViewEvent(
+            Mockito.<String, String>anyMap());
+    assertEquals(2, integration.getDeferredStart().size());
+
+    release.countDown();
+    integrationThread.runNext();
+    assertNull(integration.getDeferredStart());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Feed").build());
+
+    InOrder inOrder = Mockito.inOrder(sdk);
+    inOrder.verify(sdk).start(Mockito.<Context>any(), Mockito.anyString(),
+            Mockito.<PublisherConfiguration>any());
+    Map<String, String> home = new LinkedHashMap<>();
+    home.put("name", "Home");
+    home.put("category", null);
+    inOrder.verify(sdk).notifyViewEvent(home);
+    inOrder.verify(sdk).notifyHiddenEvent(Mockito.<String, String>anyMap());
+    Map<String, String> feed = new LinkedHashMap<>();
+    feed.put("name", "Feed");
+    feed.put("category", null);
+    inOrder.verify(sdk).notifyViewEvent(feed);
+  }
+
+  @Test
+  public void failedDeferredStartDropsHeldPayloads() throws Exception {
+    ComScoreAnalytics sdk = Mockito.mock(ComScoreAnalytics.class);
+    final CountDownLatch release = new CountDownLatch(1);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        release.await();
+        throw new IllegalStateException("No network");
+      }
+    }).when(sdk).start(Mockito.<Context>any(), Mockito.anyString(),
+            Mockito.<PublisherConfiguration>any());
+    ValueMap settings = new ValueMap();
+    settings.putValue("deferredStart", true);
+    QueueExecutor integrationThread = new QueueExecutor();
+    integration = new ComScoreIntegration(analytics, settings, sdk, Clock.SYSTEM,
+            integrationThread);
+
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    DeferredStart deferredStart = integration.getDeferredStart();
+    release.countDown();
+    integrationThread.runNext();
+
+    Mockito.verify(sdk, Mockito.never()).notifyViewEvent(Mockito.<String, String>anyMap());
+    assertEquals(1, deferredStart.getDroppedCount());
+    assertNull(integration.getDeferredStart());
+  }
+
+  @Test
+  public void callRecorderRecordsWhatReachesTheSdk() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("callRecorderSize", 2);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .build());
+
+    RecordingComScoreAnalytics recorder = integration.getCallRecorder();
+    assertEquals(3, recorder.getRecordedCount());
+    assertEquals(RecordingComScoreAnalytics.Method.NOTIFY_VIEW_EVENT,
+            recorder.getCalls().get(0).method());
+    assertEquals("Home", recorder.getCalls().get(0).labels().get("name"));
+    assertEquals(RecordingComScoreAnalytics.Method.NOTIFY_HIDDEN_EVENT,
+            recorder.getCalls().get(1).method());
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(Mockito.<String, String>anyMap());
+  }
+
+  @Test
+  public void nestedPropertiesAreFlattenedWhenEnabled() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("flattenDepth", 2);
+    settings.putValue("flattenMaxValueLength", 5);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    Properties properties = new Properties();
+    properties.putValue("address", new ValueMap().putValue("city", "Paris"));
+    properties.putValue("coupon", "SUMMER2020");
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .properties(properties).build());
+
+    LinkedHashMap<String, String> expected = new LinkedHashMap<>();
+    expected.put("address.city", "Paris");
+    expected.put("coupon", "SUMME");
+    expected.put("name", "Order Completed");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(expected);
+    assertEquals(1, integration.getFlattener().getTruncatedCount());
+  }
+
+  @Test
+  public void maxLabelValueLengthAloneDoesNotFlatten() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("maxLabelValueLength", 5);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    assertNull(integration.getFlattener());
+  }
+
+  @Test
+  public void labelBudgetTruncatesValuesOnce() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("maxLabelValueLength", 5);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    Properties properties = new Properties();
+    properties.putValue("coupon", "SUMMER2020");
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .properties(properties).build());
+
+    LinkedHashMap<String, String> expected = new LinkedHashMap<>();
+    expected.put("coupon", "SUMME");
+    expected.put("name", "Order Completed");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(expected);
+    assertEquals(1, integration.getLabelBudget().getTruncatedCount());
+  }
+
+  @Test
+  public void labelBudgetKeepsNameAndDropsOtherLabels() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("maxLabels", 2);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    Properties properties = new Properties();
+    properties.putValue("coupon", "SUMMER");
+    properties.putValue("total", 20);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .properties(properties).build());
+
+    ArgumentCaptor<Map<String, String>> labels = ArgumentCaptor.forClass(Map.class);
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(labels.capture());
+    assertEquals(2, labels.getValue().size());
+    assertEquals("Order Completed", labels.getValue().get("name"));
+    assertEquals(1, integration.getLabelBudget().getDroppedCount());
+  }
+
+  @Test
+  public void sampledOutEventsAreNotForwarded() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("hiddenEventSampleRates",
+            new ValueMap().putValue("Scroll*", 0).putValue("Scroll Ended", 1));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Ended")
+            .build());
+
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(
+            Collections.singletonMap("name", "Scroll Ended"));
+    Mockito.verify(comScoreAnalytics, Mockito.times(1))
+            .notifyHiddenEvent(Mockito.<String, String>anyMap());
+    assertEquals(1, integration.getSampler().getSampledOutCount());
+  }
+
+  @Test
+  public void sampledOutEventsStillSetConsent() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("consentFlag", "consentFlagProp");
+    settings.putValue("hiddenEventSampleRates", new ValueMap().putValue("Scroll Depth", 0));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .properties(new Properties().putValue("consentFlagProp", true))
+            .build());
+
+    Map<String, String> consent = Collections.singletonMap("cs_ucfr", "1");
+    Mockito.verify(comScoreAnalytics).setPersistentLabels(consent);
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(consent);
+    Mockito.verify(comScoreAnalytics, Mockito.times(1))
+            .notifyHiddenEvent(Mockito.<String, String>anyMap());
+    assertEquals(1, integration.getSampler().getSampledOutCount());
+  }
+
+  @Test
+  public void nonFiniteSampleRatesAreIgnored() {
+    ValueMap destinationSettings = new ValueMap();
+    destinationSettings.putValue("hiddenEventSampleRates", new ValueMap()
+            .putValue("Scroll Depth", Double.NaN)
+            .putValue("Scroll Ended", Double.POSITIVE_INFINITY)
+            .putValue("Scroll Started", 0.5));
+
+    integration = new ComScoreIntegration(analytics, destinationSettings, comScoreAnalytics);
+
+    assertEquals(Collections.singletonMap("Scroll Started", 0.5),
+            integration.getSettings().getHiddenEventSampleRates());
+  }
+
+  @Test
+  public void videoEventsAreNeverFiltered() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("allowedEvents", Collections.singletonList("Order*"));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("assetId", 1234)).build());
+
+    Mockito.verify(comScoreAnalytics).createStreamingAnalytics();
+    assertEquals(0, integration.getFilter().getFilteredCount());
+  }
+
+  @Test
+  public void deniedEventsAreNotForwarded() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("deniedEvents", Arrays.asList("Scroll*", "Debug"));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Debug").build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+
+    Mockito.verify(comScoreAnalytics, Mockito.never())
+            .notifyHiddenEvent(Mockito.<String, String>anyMap());
+    Mockito.verify(comScoreAnalytics).notifyViewEvent(Mockito.<String, String>anyMap());
+    assertEquals(2, integration.getFilter().getFilteredCount());
+  }
+
+  @Test
+  public void rejectedConsentIsSentAgain() throws InterruptedException {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Map<String, String> blocking = Collections.singletonMap("name", "Blocking");
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        blocked.countDown();
+        release.await();
+        return null;
+      }
+    }).when(comScoreAnalytics).notifyHiddenEvent(blocking);
+    ValueMap settings = new ValueMap();
+    settings.putValue("consentFlag", "consentFlagProp");
+    settings.putValue("asyncDispatch", true);
+    settings.putValue("asyncQueueSize", 1);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Blocking").build());
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Queued").build());
+    // The queue is full, so the consent label is dropped.
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Clicked")
+            .properties(new Properties().putValue("consentFlagProp", true))
+            .build());
+    release.countDown();
+    Mockito.verify(comScoreAnalytics, Mockito.timeout(5000))
+            .notifyHiddenEvent(Collections.singletonMap("name", "Queued"));
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Clicked")
+            .properties(new Properties().putValue("consentFlagProp", true))
+            .build());
+
+    Mockito.verify(comScoreAnalytics, Mockito.timeout(5000))
+            .setPersistentLabels(Collections.singletonMap("cs_ucfr", "1"));
+    Mockito.verify(comScoreAnalytics, Mockito.timeout(5000))
+            .notifyHiddenEvent(Collections.singletonMap("cs_ucfr", "1"));
+  }
+
+  @Test
+  public void deniedEventsStillUpdateConsent() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("consentFlag", "consentFlagProp");
+    settings.putValue("deniedEvents", Arrays.asList("Scroll*", "Debug"));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .properties(new Properties().putValue("consentFlagProp", true))
+            .build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Debug")
+            .properties(new Properties().putValue("consentFlagProp", false))
+            .build());
+
+    InOrder inOrder = Mockito.inOrder(comScoreAnalytics);
+    inOrder.verify(comScoreAnalytics).setPersistentLabels(Collections.singletonMap("cs_ucfr", "1"));
+    inOrder.verify(comScoreAnalytics).setPersistentLabels(Collections.singletonMap("cs_ucfr", "0"));
+    Mockito.verify(comScoreAnalytics, Mockito.never())
+            .notifyViewEvent(Mockito.<String, String>anyMap());
+    assertEquals(2, integration.getFilter().getFilteredCount());
+  }
+
+  @Test
+  public void rateLimitedEventsAreSummarized() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("hiddenEventRateLimit", 1);
+    settings.putValue("hiddenEventBurst", 2);
+    settings.putValue("rateLimitSummary", true);
+    settings.putValue("rateLimitSummaryInterval", 60);
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+
+    for (int i = 0; i < 5; i++) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+              .build());
+    }
+    Mockito.verify(comScoreAnalytics, Mockito.times(2)).notifyHiddenEvent(
+            Collections.singletonMap("name", "Scroll Depth"));
+
+    clock.advance(60000);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .build());
+
+    Map<String, String> summary = new HashMap<>();
+    summary.put("name", ComScoreIntegration.RATE_LIMIT_SUMMARY_EVENT);
+    summary.put("event", "Scroll Depth");
+    summary.put("dropped", "3");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(summary);
+    Mockito.verify(comScoreAnalytics, Mockito.times(3)).notifyHiddenEvent(
+            Collections.singletonMap("name", "Scroll Depth"));
+    assertEquals(3, integration.getRateLimiter().getDroppedCount());
+  }
+
+  @Test
+  public void aggregatedEventsAreSentAsSummaries() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("aggregatedEvents", Collections.singletonList("Scroll*"));
+    settings.putValue("aggregationInterval", 60);
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock);
+
+    for (int depth = 25; depth <= 100; depth += 25) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+              .properties(new Properties().putValue("depth", depth)).build());
+    }
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .build());
+    Mockito.verify(comScoreAnalytics, Mockito.times(1))
+            .notifyHiddenEvent(Mockito.<String, String>anyMap());
+
+    clock.advance(60000);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .build());
+
+    Map<String, String> summary = new LinkedHashMap<>();
+    summary.put("name", "Scroll Depth");
+    summary.put("count", "4");
+    summary.put("sum.depth", "250");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(summary);
+  }
+
+  @Test
+  public void rateLimitedEventsAreSummarizedOnATimer() throws InterruptedException {
+    ValueMap settings = new ValueMap();
+    settings.putValue("hiddenEventRateLimit", 1);
+    settings.putValue("hiddenEventBurst", 1);
+    settings.putValue("rateLimitSummary", true);
+    settings.putValue("rateLimitSummaryInterval", 1);
+    FakeClock clock = new FakeClock();
+    QueueExecutor integrationThread = new QueueExecutor();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock,
+            integrationThread);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Scroll Depth")
+            .build());
+    clock.advance(1000);
+    integrationThread.runNext();
+
+    Map<String, String> summary = new HashMap<>();
+    summary.put("name", ComScoreIntegration.RATE_LIMIT_SUMMARY_EVENT);
+    summary.put("event", "Scroll Depth");
+    summary.put("dropped", "1");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(summary);
+  }
+
+  @Test
+  public void aggregatesAreSentOnATimer() throws InterruptedException {
+    ValueMap settings = new ValueMap();
+    settings.putValue("aggregatedEvents", Collections.singletonList("Impression"));
+    settings.putValue("aggregationInterval", 1);
+    FakeClock clock = new FakeClock();
+    QueueExecutor integrationThread = new QueueExecutor();
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics, clock,
+            integrationThread);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Impression")
+            .build());
+    clock.advance(1000);
+    integrationThread.runNext();
+
+    Map<String, String> summary = new LinkedHashMap<>();
+    summary.put("name", "Impression");
+    summary.put("count", "1");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(summary);
+  }
+
+  @Test
+  public void aggregatesAreSentWhenTheAppGoesToTheBackground() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("aggregatedEvents", Collections.singletonList("Impression"));
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+    Activity activity = Mockito.mock(Activity.class);
+
+    integration.onActivityStarted(activity);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Impression")
+            .build());
+    Mockito.verify(comScoreAnalytics, Mockito.never())
+            .notifyHiddenEvent(Mockito.<String, String>anyMap());
+
+    integration.onActivityStopped(activity);
+
+    Map<String, String> summary = new LinkedHashMap<>();
+    summary.put("name", "Impression");
+    summary.put("count", "1");
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(summary);
+  }
+
+  @Test
+  public void batchedHiddenEventsAreSentOnFlushInOrder() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("hiddenEventBatchSize", 10);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Product Viewed")
+            .build());
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(
+            Collections.singletonMap("name", "Order Completed"));
+    Mockito.verify(comScoreAnalytics, Mockito.never()).notifyHiddenEvent(
+            Collections.singletonMap("name", "Product Viewed"));
+
+    integration.flush();
+
+    InOrder inOrder = Mockito.inOrder(comScoreAnalytics);
+    inOrder.verify(comScoreAnalytics).notifyHiddenEvent(
+            Collections.singletonMap("name", "Order Completed"));
+    inOrder.verify(comScoreAnalytics).notifyViewEvent(Mockito.<String, String>anyMap());
+    inOrder.verify(comScoreAnalytics).notifyHiddenEvent(
+            Collections.singletonMap("name", "Product Viewed"));
+    assertEquals(0, integration.getBatcher().size());
+  }
+
+  @Test
+  public void labelsReadOnAnotherThreadAreCopied() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("hiddenEventBatchSize", 1);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Order Completed")
+            .properties(new Properties().putValue("total", 20)).build());
+
+    ArgumentCaptor<Map<String, String>> labels = ArgumentCaptor.forClass(Map.class);
+    Mockito.verify(comScoreAnalytics).notifyHiddenEvent(labels.capture());
+    assertFalse(labels.getValue() instanceof StringMapView);
+    assertEquals("20", labels.getValue().get("total"));
+  }
+
+  @Test
+  public void asyncQueueSizeIsAtLeastOne() {
+    ValueMap settings = new ValueMap();
+    settings.putValue("asyncDispatch", true);
+    settings.putValue("asyncQueueSize", 0);
+    integration = new ComScoreIntegration(analytics, settings, comScoreAnalytics);
+
+    assertEquals(1, integration.getSettings().getAsyncQueueSize());
+  }
+
+  @Test
+  public void videoContentPlayingOnlySetsContentMetadataWhenLeavingAnAd() {
+    setupWithVideoPlaybackStarted();
+
+    for (int position = 0; position <= 20; position += 10) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Playing")
+              .properties(new Properties().putValue("assetId", 1234)
+                      .putValue("playbackPosition", position))
+              .build());
+    }
+
+    // Once for Video Playback Started, once for the first heartbeat after the pre-roll.
+    Mockito.verify(streamingAnalytics, Mockito.times(2))
+            .setMetadata(Mockito.any(ContentMetadata.class));
+    assertFalse(nullSessionLabels().containsKey("ns_st_ad"));
+  }
+
+  @Test
+  public void videoContentPlayingHeartbeatsOnlyReportTransitions() {
+    FakeClock clock = new FakeClock();
+    integration = new ComScoreIntegration(analytics, new ValueMap(), comScoreAnalytics, clock);
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Playback Started")
+            .properties(new Properties().putValue("assetId", 1234))
+            .build());
+
+    for (int position = 0; position <= 30; position += 10) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Playing")
+              .properties(new Properties().putValue("assetId", 1234)
+                      .putValue("playbackPosition", position))
+              .build());
+      clock.advance(10 * 1000);
+    }
+
+    Mockito.verify(streamingAnalytics).startFromPosition(0);
+    Mockito.verify(streamingAnalytics).notifyPlay();
+    Mockito.verify(streamingAnalytics, Mockito.never()).startFromPosition(10);
+    assertEquals(6, integration.getVideoSessions().getSavedCalls());
+  }
+
+  @Test
+  public void contentMetadataIsReusedAfterAdBreak() {
+    setupWithVideoPlaybackStarted();
+    Properties content = new Properties().putValue("assetId", 1234).putValue("title", "Pilot");
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Started")
+            .properties(content)
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Ad Started")
+            .properties(new Properties().putValue("assetId", 10).putValue("type", "mid-roll"))
+            .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo").event("Video Content Playing")
+            .properties(content)
+            .build());
+
+    assertEquals(1, integration.getMetadataCache().getHitCount());
+    assertEquals(3, integration.getMetadataCache().getMissCount());
+  }
+
+  private Map<String, String> nullSessionLabels() {
+    return integration.getVideoSessions().get(null).labels;
+  }
+
   private ContentMetadata getContentMetadata(Map<String, String> asset){
     return new ContentMetadata.Builder()
             .customLabels(asset)
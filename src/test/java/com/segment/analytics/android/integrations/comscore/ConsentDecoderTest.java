@@ -0,0 +1,125 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConsentDecoderTest {
+
+  private static final char[] US_PRIVACY_VALUES = {'-', 'Y', 'N'};
+
+  /** Input and expected {@code cs_ucfr} value; {@code null} means no label. */
+  private static final String[][] TABLE = {
+    {"1", "1"},
+    {"true", "1"},
+    {"0", "0"},
+    {"false", "0"},
+    {"", ""},
+    {"null", ""},
+    {"somevalue", ""},
+    {"TRUE", ""},
+    {"True", ""},
+    {"01", ""},
+    {"1.0", ""},
+    {" 1", ""},
+    {"1 ", ""},
+    // Not US Privacy Strings: wrong version, length, case or characters.
+    {"0YNN", ""},
+    {"2NNN", ""},
+    {"1YN", ""},
+    {"1YNNN", ""},
+    {"1ynn", ""},
+    {"1YXN", ""},
+    {"1Y N", ""},
+    {"1YN ", ""},
+    {"YNN", ""},
+    {"1---1", ""},
+  };
+
+  @Test
+  public void decodesTable() {
+    ConsentDecoder decoder = new ConsentDecoder();
+    for (String[] row : TABLE) {
+      assertEquals(row[0], row[1], decoder.decode(row[0]));
+    }
+  }
+
+  @Test
+  public void decodesEveryUsPrivacyString() {
+    ConsentDecoder decoder = new ConsentDecoder();
+    for (String value : usPrivacyStrings()) {
+      String expected;
+      switch (value.charAt(2)) {
+        case 'N':
+          expected = "1";
+          break;
+        case 'Y':
+          expected = "0";
+          break;
+        default:
+          expected = null;
+      }
+      assertEquals(value, expected, decoder.decode(value));
+    }
+  }
+
+  @Test
+  public void usPrivacyStringWithoutOptOutHasNoLabel() {
+    ConsentDecoder decoder = new ConsentDecoder();
+    assertNull(decoder.decode("1Y-Y"));
+    assertNull(decoder.decode("1--N"));
+    assertNull(decoder.decode("1---"));
+  }
+
+  @Test
+  public void decodesTypedValuesLikeTheirStringForm() {
+    ConsentDecoder decoder = new ConsentDecoder();
+    Object[] values = {
+      true, false, 1, 0, 2, -1, 1L, 0L, (short) 1, (byte) 0, 1.0, 0.0, 1f, null, new Object()
+    };
+    for (Object value : values) {
+      assertEquals(
+          String.valueOf(value),
+          ConsentDecoder.decodeUncached(String.valueOf(value)),
+          decoder.decode(value));
+    }
+  }
+
+  @Test
+  public void nullHasNoLabel() {
+    assertNull(new ConsentDecoder().decode((String) null));
+  }
+
+  @Test
+  public void cachedResultsMatchUncachedOnes() {
+    ConsentDecoder decoder = new ConsentDecoder();
+    List<String> values = usPrivacyStrings();
+    for (String[] row : TABLE) {
+      values.add(row[0]);
+    }
+    // Decode every value repeatedly so that slots are both hit and overwritten.
+    for (int round = 0; round < 3; round++) {
+      for (String value : values) {
+        String copy = new String(value);
+        assertEquals(value, ConsentDecoder.decodeUncached(value), decoder.decode(copy));
+      }
+    }
+  }
+
+  /** All 27 version 1 US Privacy Strings, from {@code 1---} to {@code 1NNN}. */
+  private static List<String> usPrivacyStrings() {
+    List<String> values = new ArrayList<>();
+    for (char notice : US_PRIVACY_VALUES) {
+      for (char optOut : US_PRIVACY_VALUES) {
+        for (char lspa : US_PRIVACY_VALUES) {
+          values.add(new String(new char[] {'1', notice, optOut, lspa}));
+        }
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,136 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeferredStartTest {
+
+  private final Logger logger = Logger.with(Analytics.LogLevel.NONE);
+  private final CountDownLatch posted = new CountDownLatch(1);
+  private final Executor integrationThread =
+      new Executor() {
+        @Override
+        public void execute(Runnable task) {
+          task.run();
+          posted.countDown();
+        }
+      };
+  private final Runnable noOp =
+      new Runnable() {
+        @Override
+        public void run() {}
+      };
+
+  private static ScreenPayload screen(String name) {
+    return new ScreenPayload.Builder().anonymousId("foo").name(name).build();
+  }
+
+  @Test
+  public void startsOnAnotherThread() throws InterruptedException {
+    DeferredStart deferredStart = new DeferredStart(4, logger, integrationThread);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread[] startThread = new Thread[1];
+
+    deferredStart.start(
+        new Runnable() {
+          @Override
+          public void run() {
+            startThread[0] = Thread.currentThread();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        },
+        noOp);
+    assertFalse(deferredStart.isStarted());
+    release.countDown();
+
+    assertTrue(deferredStart.awaitStarted(5, TimeUnit.SECONDS));
+    assertTrue(deferredStart.isStarted());
+    assertTrue(startThread[0] != Thread.currentThread());
+  }
+
+  @Test
+  public void failedStartStillCountsAsStarted() throws InterruptedException {
+    DeferredStart deferredStart = new DeferredStart(4, logger, integrationThread);
+
+    deferredStart.start(
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new IllegalStateException("No network");
+          }
+        },
+        noOp);
+
+    assertTrue(deferredStart.awaitStarted(5, TimeUnit.SECONDS));
+    assertTrue(deferredStart.isFailed());
+  }
+
+  @Test
+  public void tellsTheIntegrationThreadOnceStarted() throws InterruptedException {
+    DeferredStart deferredStart = new DeferredStart(4, logger, integrationThread);
+    final boolean[] started = new boolean[1];
+
+    deferredStart.start(
+        noOp,
+        new Runnable() {
+          @Override
+          public void run() {
+            started[0] = true;
+          }
+        });
+
+    assertTrue(posted.await(5, TimeUnit.SECONDS));
+    assertTrue(started[0]);
+    assertFalse(deferredStart.isFailed());
+  }
+
+  @Test
+  public void dropAllCountsTheHeldPayloads() {
+    DeferredStart deferredStart = new DeferredStart(4, logger, integrationThread);
+    deferredStart.offer(screen("Home"));
+    deferredStart.offer(screen("Feed"));
+
+    assertEquals(2, deferredStart.dropAll());
+    assertEquals(0, deferredStart.size());
+    assertEquals(2, deferredStart.getDroppedCount());
+  }
+
+  @Test
+  public void holdsPayloadsInOrderUpToCapacity() {
+    DeferredStart deferredStart = new DeferredStart(2, logger, integrationThread);
+    ScreenPayload first = screen("Home");
+    ScreenPayload second = screen("Feed");
+
+    assertTrue(deferredStart.offer(first));
+    assertTrue(deferredStart.offer(second));
+    assertFalse(deferredStart.offer(screen("Settings")));
+
+    assertEquals(2, deferredStart.size());
+    assertEquals(1, deferredStart.getDroppedCount());
+    assertSame(first, deferredStart.poll());
+    assertSame(second, deferredStart.poll());
+    assertNull(deferredStart.poll());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCapacityBelowOne() {
+    new DeferredStart(0, logger, integrationThread);
+  }
+}
@@ -0,0 +1,112 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventAggregatorTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final Map<String, Object> none = Collections.emptyMap();
+
+  @Test
+  public void countsEventsAndSumsNumericProperties() {
+    EventAggregator aggregator = new EventAggregator(10, 10, 60000, clock);
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("depth", 25);
+    properties.put("page", "home");
+    aggregator.add("Scroll Depth", properties);
+    properties.put("depth", 50.5);
+    aggregator.add("Scroll Depth", properties);
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("name", "Scroll Depth");
+    expected.put(EventAggregator.COUNT_LABEL, "2");
+    expected.put(EventAggregator.SUM_PREFIX + "depth", "75.5");
+    assertEquals(Collections.singletonList(expected), aggregator.drain());
+    assertEquals(2, aggregator.getAggregatedCount());
+  }
+
+  @Test
+  public void drainResetsCountsAndSkipsIdleNames() {
+    EventAggregator aggregator = new EventAggregator(10, 10, 60000, clock);
+    aggregator.add("Scroll Depth", Collections.<String, Object>singletonMap("depth", 1));
+    aggregator.add("Impression", none);
+    aggregator.drain();
+    aggregator.add("Impression", none);
+
+    List<Map<String, String>> summaries = aggregator.drain();
+
+    assertEquals(1, summaries.size());
+    assertEquals("Impression", summaries.get(0).get("name"));
+    assertEquals("1", summaries.get(0).get(EventAggregator.COUNT_LABEL));
+    assertTrue(aggregator.drain().isEmpty());
+  }
+
+  @Test
+  public void drainEvictsIdleNames() {
+    EventAggregator aggregator = new EventAggregator(8, 1, 60000, clock);
+    for (int i = 0; i < 8; i++) {
+      aggregator.add("Event " + i, none);
+    }
+    aggregator.drain();
+    for (int i = 0; i < 8; i += 2) {
+      aggregator.add("Event " + i, none);
+    }
+    aggregator.drain();
+    assertEquals(4, aggregator.size());
+
+    for (int i = 0; i < 8; i += 2) {
+      assertTrue(aggregator.add("Event " + i, none));
+    }
+    assertEquals(4, aggregator.size());
+    for (int i = 8; i < 12; i++) {
+      assertTrue(aggregator.add("Event " + i, none));
+    }
+    assertFalse(aggregator.add("Event 12", none));
+    assertEquals(8, aggregator.drain().size());
+  }
+
+  @Test
+  public void refusesNamesBeyondTheMaximum() {
+    EventAggregator aggregator = new EventAggregator(2, 10, 60000, clock);
+
+    assertTrue(aggregator.add("a", none));
+    assertTrue(aggregator.add("b", none));
+    assertFalse(aggregator.add("c", none));
+    assertTrue(aggregator.add("a", none));
+  }
+
+  @Test
+  public void sumsAtMostMaxFieldsProperties() {
+    EventAggregator aggregator = new EventAggregator(1, 1, 60000, clock);
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("a", 1);
+    properties.put("b", 2);
+    aggregator.add("Scroll", properties);
+
+    Map<String, String> summary = aggregator.drain().get(0);
+
+    assertEquals("1", summary.get(EventAggregator.SUM_PREFIX + "a"));
+    assertFalse(summary.containsKey(EventAggregator.SUM_PREFIX + "b"));
+  }
+
+  @Test
+  public void isDueOnceTheIntervalHasElapsed() {
+    EventAggregator aggregator = new EventAggregator(1, 1, 1000, clock);
+
+    assertFalse(aggregator.isDue());
+    clock.advance(1000);
+    assertTrue(aggregator.isDue());
+    aggregator.drain();
+    assertFalse(aggregator.isDue());
+  }
+}
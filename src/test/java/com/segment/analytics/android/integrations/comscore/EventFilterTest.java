@@ -0,0 +1,82 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventFilterTest {
+
+  private static final List<String> NONE = Collections.emptyList();
+
+  @Test
+  public void exactNames() {
+    EventFilter filter = new EventFilter(NONE, Arrays.asList("Scroll Depth", "Scroll"));
+
+    assertFalse(filter.accept("Scroll Depth"));
+    assertFalse(filter.accept("Scroll"));
+    assertTrue(filter.accept("Scroll Dept"));
+    assertTrue(filter.accept("Scroll Depths"));
+    assertEquals(2, filter.getFilteredCount());
+  }
+
+  @Test
+  public void wildcards() {
+    EventFilter filter =
+        new EventFilter(NONE, Arrays.asList("Video*", "*Viewed", "Product * Clicked", "A**B"));
+
+    assertFalse(filter.accept("Video Playback Started"));
+    assertFalse(filter.accept("Video"));
+    assertFalse(filter.accept("Product Viewed"));
+    assertFalse(filter.accept("Product List Clicked"));
+    assertFalse(filter.accept("Product  Clicked"));
+    assertFalse(filter.accept("AB"));
+    assertTrue(filter.accept("Product Clicked"));
+    assertTrue(filter.accept("Order Completed"));
+    assertTrue(filter.accept("Viewed Product"));
+  }
+
+  @Test
+  public void manyWildcardsDoNotBacktrack() {
+    EventFilter filter = new EventFilter(NONE, Collections.singletonList("*a*a*a*a*a*a*a*a*b"));
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      name.append('a');
+    }
+
+    assertTrue(filter.accept(name.toString()));
+    assertFalse(filter.accept(name.append('b').toString()));
+  }
+
+  @Test
+  public void onlyAllowedEventsAreForwarded() {
+    EventFilter filter = new EventFilter(Arrays.asList("Order*", "Home"), NONE);
+
+    assertTrue(filter.accept("Order Completed"));
+    assertTrue(filter.accept("Home"));
+    assertFalse(filter.accept("Homepage"));
+    assertFalse(filter.accept(null));
+  }
+
+  @Test
+  public void deniedTakesPrecedenceOverAllowed() {
+    EventFilter filter =
+        new EventFilter(Collections.singletonList("Order*"), Arrays.asList("Order Refunded"));
+
+    assertTrue(filter.accept("Order Completed"));
+    assertFalse(filter.accept("Order Refunded"));
+  }
+
+  @Test
+  public void wildcardAloneMatchesEverything() {
+    EventFilter filter = new EventFilter(NONE, Collections.singletonList("*"));
+
+    assertFalse(filter.accept(""));
+    assertFalse(filter.accept("Order Completed"));
+  }
+}
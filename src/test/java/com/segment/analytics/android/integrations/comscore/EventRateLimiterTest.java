@@ -0,0 +1,146 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventRateLimiterTest {
+
+  private final FakeClock clock = new FakeClock();
+
+  @Test
+  public void burstsThenRefillsAtTheRate() {
+    EventRateLimiter limiter = new EventRateLimiter(2, 3, 10, 60000, clock);
+
+    assertTrue(limiter.tryAcquire("Scroll"));
+    assertTrue(limiter.tryAcquire("Scroll"));
+    assertTrue(limiter.tryAcquire("Scroll"));
+    assertFalse(limiter.tryAcquire("Scroll"));
+
+    clock.advance(499);
+    assertFalse(limiter.tryAcquire("Scroll"));
+    clock.advance(1);
+    assertTrue(limiter.tryAcquire("Scroll"));
+    assertFalse(limiter.tryAcquire("Scroll"));
+    assertEquals(3, limiter.getDroppedCount());
+  }
+
+  @Test
+  public void namesAreLimitedSeparately() {
+    EventRateLimiter limiter = new EventRateLimiter(1, 1, 10, 60000, clock);
+
+    assertTrue(limiter.tryAcquire("Scroll"));
+    assertFalse(limiter.tryAcquire("Scroll"));
+    assertTrue(limiter.tryAcquire("Impression"));
+  }
+
+  @Test
+  public void namesBeyondTheMaximumShareTheOverflowBucket() {
+    EventRateLimiter limiter = new EventRateLimiter(1, 1, 1, 60000, clock);
+
+    assertTrue(limiter.tryAcquire("a"));
+    assertTrue(limiter.tryAcquire("b"));
+    assertFalse(limiter.tryAcquire("c"));
+    assertEquals(1, limiter.size());
+    assertEquals(Collections.singletonMap(EventRateLimiter.OVERFLOW_NAME, 1L),
+        limiter.drainDropped());
+  }
+
+  @Test
+  public void drainReportsAndResetsDropsAndEvictsFullBuckets() {
+    EventRateLimiter limiter = new EventRateLimiter(1, 1, 10, 60000, clock);
+    limiter.tryAcquire("Scroll");
+    limiter.tryAcquire("Scroll");
+    limiter.tryAcquire("Scroll");
+    limiter.tryAcquire("Impression");
+
+    Map<String, Long> expected = new HashMap<>();
+    expected.put("Scroll", 2L);
+    assertEquals(expected, limiter.drainDropped());
+    assertEquals(2, limiter.size());
+
+    clock.advance(1000);
+    assertTrue(limiter.drainDropped().isEmpty());
+    assertEquals(0, limiter.size());
+  }
+
+  @Test
+  public void summaryIsDueOncePerInterval() {
+    EventRateLimiter limiter = new EventRateLimiter(1, 1, 10, 1000, clock);
+
+    assertFalse(limiter.isSummaryDue());
+    clock.advance(1000);
+    assertTrue(limiter.isSummaryDue());
+    assertFalse(limiter.isSummaryDue());
+  }
+
+  @Test
+  public void concurrentNewNamesNeverExceedTheMaximum() throws InterruptedException {
+    final EventRateLimiter limiter = new EventRateLimiter(1, 1, 10, 60000, clock);
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      final int thread = i;
+      new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int j = 0; j < 1000; j++) {
+                    limiter.tryAcquire(thread + "-" + j);
+                  }
+                  done.countDown();
+                }
+              })
+          .start();
+    }
+    done.await();
+
+    assertEquals(10, limiter.size());
+  }
+
+  @Test
+  public void evictedNamesFreeTheirSlot() {
+    EventRateLimiter limiter = new EventRateLimiter(1, 1, 1, 60000, clock);
+    limiter.tryAcquire("a");
+    clock.advance(1000);
+    limiter.drainDropped();
+
+    assertTrue(limiter.tryAcquire("b"));
+    assertFalse(limiter.tryAcquire("b"));
+    assertEquals(1, limiter.size());
+    assertTrue(limiter.drainDropped().containsKey("b"));
+  }
+
+  @Test
+  public void concurrentCallersNeverExceedTheBurst() throws InterruptedException {
+    final EventRateLimiter limiter = new EventRateLimiter(1, 100, 10, 60000, clock);
+    final AtomicInteger acquired = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int j = 0; j < 1000; j++) {
+                    if (limiter.tryAcquire("Scroll")) {
+                      acquired.incrementAndGet();
+                    }
+                  }
+                  done.countDown();
+                }
+              })
+          .start();
+    }
+    done.await();
+
+    assertEquals(100, acquired.get());
+    assertEquals(3900, limiter.getDroppedCount());
+  }
+}
@@ -0,0 +1,63 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventSamplerTest {
+
+  @Test
+  public void eventsWithoutRuleAreForwarded() {
+    EventSampler sampler = new EventSampler(Collections.singletonMap("Scroll Depth", 0.0));
+
+    assertTrue(sampler.sample("Order Completed", "user"));
+    assertFalse(sampler.sample("Scroll Depth", "user"));
+    assertEquals(1, sampler.getSampledOutCount());
+  }
+
+  @Test
+  public void exactNamesTakePrecedenceOverLongerPrefixesOverShorterOnes() {
+    Map<String, Double> rates = new LinkedHashMap<>();
+    rates.put("Imp*", 1.0);
+    rates.put("Impression*", 0.0);
+    rates.put("Impression Viewed", 1.0);
+    EventSampler sampler = new EventSampler(rates);
+
+    assertTrue(sampler.sample("Impression Viewed", "user"));
+    assertFalse(sampler.sample("Impression Clicked", "user"));
+    assertTrue(sampler.sample("Important", "user"));
+  }
+
+  @Test
+  public void decisionsAreDeterministicPerUser() {
+    EventSampler sampler = new EventSampler(Collections.singletonMap("Scroll*", 0.5));
+
+    for (int i = 0; i < 100; i++) {
+      String user = "user-" + i;
+      boolean first = sampler.sample("Scroll Depth", user);
+      assertEquals(first, sampler.sample("Scroll Depth", user));
+      assertEquals(first, sampler.sample("Scroll Started", user));
+    }
+  }
+
+  @Test
+  public void sampledShareFollowsTheRate() {
+    EventSampler sampler = new EventSampler(Collections.singletonMap("Scroll Depth", 0.1));
+
+    int forwarded = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (sampler.sample("Scroll Depth", "anonymous-" + i)) {
+        forwarded++;
+      }
+    }
+
+    assertTrue("forwarded " + forwarded, forwarded > 800 && forwarded < 1200);
+    assertEquals(10000 - forwarded, sampler.getSampledOutCount());
+  }
+}
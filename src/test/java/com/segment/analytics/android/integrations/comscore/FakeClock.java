@@ -0,0 +1,16 @@
+package com.segment.analytics.android.integrations.comscore;
+
+/** A {@link Clock} that only moves when told to. */
+final class FakeClock implements Clock {
+
+  private long millis;
+
+  @Override
+  public long millis() {
+    return millis;
+  }
+
+  void advance(long millis) {
+    this.millis += millis;
+  }
+}
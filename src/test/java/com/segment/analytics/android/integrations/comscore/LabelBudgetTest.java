@@ -0,0 +1,83 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LabelBudgetTest {
+
+  private static Map<String, String> labels(String... keysAndValues) {
+    Map<String, String> labels = new LinkedHashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      labels.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return labels;
+  }
+
+  @Test
+  public void labelsWithinBudgetAreNotCopied() {
+    LabelBudget budget = new LabelBudget(3, 10, 10, 100);
+    Map<String, String> labels = labels("name", "Order Completed", "coupon", "SUMMER");
+
+    assertSame(labels, budget.apply(labels));
+    assertEquals(0, budget.getTrimmedCount());
+  }
+
+  @Test
+  public void protectedLabels() {
+    assertTrue(LabelBudget.isProtected("ns_st_ci"));
+    assertTrue(LabelBudget.isProtected("c3"));
+    assertTrue(LabelBudget.isProtected("cs_ucfr"));
+    assertTrue(LabelBudget.isProtected("name"));
+    assertTrue(LabelBudget.isProtected("category"));
+    assertFalse(LabelBudget.isProtected("c5"));
+    assertFalse(LabelBudget.isProtected(null));
+  }
+
+  @Test
+  public void keepsProtectedLabelsFirst() {
+    LabelBudget budget = new LabelBudget(4, 0, 0, 0);
+    Map<String, String> labels =
+        labels("a", "1", "b", "2", "c3", "x", "ns_st_ci", "1234", "name", "Play");
+
+    assertEquals(
+        labels("a", "1", "c3", "x", "ns_st_ci", "1234", "name", "Play"), budget.apply(labels));
+    assertEquals(1, budget.getTrimmedCount());
+    assertEquals(1, budget.getDroppedCount());
+  }
+
+  @Test
+  public void dropsLongKeysAndTruncatesLongValues() {
+    LabelBudget budget = new LabelBudget(0, 4, 3, 0);
+    Map<String, String> labels =
+        labels("name", "Order Completed", "long_key", "1", "sku", "45790-32", "c", null);
+
+    assertEquals(labels("name", "Order Completed", "sku", "457", "c", null), budget.apply(labels));
+    assertEquals(1, budget.getDroppedCount());
+    assertEquals(1, budget.getTruncatedCount());
+  }
+
+  @Test
+  public void dropsLabelsBeyondTheByteBudget() {
+    LabelBudget budget = new LabelBudget(0, 0, 0, 12);
+    Map<String, String> labels = labels("name", "Play", "aaaa", "1234", "b", "1");
+
+    assertEquals(labels("name", "Play", "b", "1"), budget.apply(labels));
+    assertEquals(1, budget.getDroppedCount());
+  }
+
+  @Test
+  public void protectedLabelsAloneAreNeverTrimmed() {
+    LabelBudget budget = new LabelBudget(1, 0, 0, 4);
+    Map<String, String> labels = labels("name", "Order Completed", "category", "Checkout");
+
+    assertSame(labels, budget.apply(labels));
+    assertEquals(0, budget.getTrimmedCount());
+  }
+}
@@ -0,0 +1,143 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LabelFlattenerTest {
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  @Test
+  public void plainValuesNeedNoFlattening() {
+    LabelFlattener flattener = new LabelFlattener(3, 50, 10);
+    Map<String, Object> source = new LinkedHashMap<>();
+    source.put("name", "Kylo");
+    source.put("age", 30);
+    assertTrue(flattener.isPlain(source));
+
+    source.put("address", Collections.singletonMap("city", "Paris"));
+    assertFalse(flattener.isPlain(source));
+  }
+
+  @Test
+  public void flattensNestedValuesUnderDottedKeys() {
+    LabelFlattener flattener = new LabelFlattener(3, 50, 0);
+    Map<String, Object> product = new LinkedHashMap<>();
+    product.put("sku", "45790-32");
+    product.put("price", 19.99);
+    Map<String, Object> source = new LinkedHashMap<>();
+    source.put("name", "Order Completed");
+    source.put("products", Collections.singletonList(product));
+    source.put("tags", new String[] {"a", "b"});
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("name", "Order Completed");
+    expected.put("products.0.sku", "45790-32");
+    expected.put("products.0.price", "19.99");
+    expected.put("tags.0", "a");
+    expected.put("tags.1", "b");
+    assertEquals(expected, flattener.flatten(source));
+    assertEquals(0, flattener.getDroppedCount());
+  }
+
+  @Test
+  public void dropsValuesDeeperThanMaxDepth() {
+    LabelFlattener flattener = new LabelFlattener(2, 50, 0);
+    Map<String, Object> address = new LinkedHashMap<>();
+    address.put("city", "Paris");
+    address.put("geo", Collections.singletonMap("lat", 48.8));
+    Map<String, Object> source = Collections.<String, Object>singletonMap("address", address);
+
+    assertEquals(Collections.singletonMap("address.city", "Paris"), flattener.flatten(source));
+    assertEquals(1, flattener.getDroppedCount());
+  }
+
+  @Test
+  public void capsNestedLabels() {
+    LabelFlattener flattener = new LabelFlattener(2, 2, 0);
+    Map<String, Object> source = new LinkedHashMap<>();
+    source.put("name", "Kylo");
+    source.put("tags", Arrays.asList("a", "b", "c"));
+
+    Map<String, String> labels = flattener.flatten(source);
+
+    assertEquals(3, labels.size());
+    assertEquals("Kylo", labels.get("name"));
+    assertFalse(labels.containsKey("tags.2"));
+    assertEquals(1, flattener.getDroppedCount());
+  }
+
+  @Test
+  public void zeroDepthConvertsNestedValuesAsBefore() {
+    LabelFlattener flattener = new LabelFlattener(0, 50, 0);
+    Map<String, Object> source =
+        Collections.<String, Object>singletonMap("tags", Arrays.asList("a", "b"));
+
+    assertEquals(Collections.singletonMap("tags", "[a, b]"), flattener.flatten(source));
+    assertEquals(0, flattener.getLastSavedBytes());
+  }
+
+  @Test
+  public void truncatesLongValues() {
+    LabelFlattener flattener = new LabelFlattener(0, 50, 4);
+    Map<String, Object> source = new LinkedHashMap<>();
+    source.put("name", "Kylo Ren");
+    source.put("id", 1234567);
+
+    Map<String, String> labels = flattener.flatten(source);
+
+    assertEquals("Kylo", labels.get("name"));
+    assertEquals("1234", labels.get("id"));
+    assertEquals(2, flattener.getTruncatedCount());
+    assertEquals(7, flattener.getLastSavedBytes());
+  }
+
+  @Test
+  public void dropsBinaryValues() {
+    LabelFlattener flattener = new LabelFlattener(2, 50, 0);
+    Map<String, Object> source = new LinkedHashMap<>();
+    source.put("name", "Kylo");
+    source.put("bytes", new byte[] {1, 2, 3});
+    source.put("control", "a\u0000b");
+    source.put("image", "data:image/png;base64,iVBORw0KGgo=");
+    source.put("blob", repeat('A', LabelFlattener.MIN_BASE64_LENGTH));
+
+    assertEquals(Collections.singletonMap("name", "Kylo"), flattener.flatten(source));
+    assertEquals(4, flattener.getDroppedCount());
+    assertTrue(flattener.getLastSavedBytes() > LabelFlattener.MIN_BASE64_LENGTH);
+  }
+
+  @Test
+  public void looksBinary() {
+    assertFalse(LabelFlattener.looksBinary("Order Completed\n\tline two"));
+    assertFalse(LabelFlattener.looksBinary(repeat('A', LabelFlattener.MIN_BASE64_LENGTH - 1)));
+    assertFalse(
+        LabelFlattener.looksBinary(repeat('A', LabelFlattener.MIN_BASE64_LENGTH) + " words"));
+    assertTrue(LabelFlattener.looksBinary("\uFFFD"));
+    assertTrue(LabelFlattener.looksBinary("\u0007"));
+  }
+
+  @Test
+  public void savedBytesAccumulate() {
+    LabelFlattener flattener = new LabelFlattener(0, 50, 2);
+    Map<String, Object> source = Collections.<String, Object>singletonMap("k", "\u00e9\u00e9\u00e9");
+
+    flattener.flatten(source);
+    flattener.flatten(source);
+
+    assertEquals(2, flattener.getLastSavedBytes());
+    assertEquals(4, flattener.getSavedBytes());
+  }
+}
@@ -0,0 +1,75 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.AdvertisementMetadata;
+import com.comscore.streaming.ContentMetadata;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MetadataCacheTest {
+
+  private static Map<String, String> labels(String assetKey, String assetId, String title) {
+    Map<String, String> labels = new HashMap<>();
+    labels.put(assetKey, assetId);
+    labels.put("ns_st_ep", title);
+    return labels;
+  }
+
+  @Test
+  public void reusesMetadataForEqualLabels() {
+    MetadataCache cache = new MetadataCache(4);
+
+    ContentMetadata first = cache.content(labels("ns_st_ci", "1", "Pilot"));
+    ContentMetadata second = cache.content(labels("ns_st_ci", "1", "Pilot"));
+
+    assertSame(first, second);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void differentLabelsOrTypesAreDifferentEntries() {
+    MetadataCache cache = new MetadataCache(4);
+
+    ContentMetadata content = cache.content(labels("ns_st_ci", "1", "Pilot"));
+    assertNotSame(content, cache.content(labels("ns_st_ci", "1", "Finale")));
+    AdvertisementMetadata ad = cache.advertisement(labels("ns_st_ami", "1", "Pilot"));
+    assertSame(ad, cache.advertisement(labels("ns_st_ami", "1", "Pilot")));
+
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
+  @Test
+  public void changingLabelsAfterLookupDoesNotAffectTheCache() {
+    MetadataCache cache = new MetadataCache(4);
+    Map<String, String> labels = labels("ns_st_ci", "1", "Pilot");
+
+    ContentMetadata first = cache.content(labels);
+    labels.put("ns_st_ep", "Finale");
+
+    assertSame(first, cache.content(labels("ns_st_ci", "1", "Pilot")));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntry() {
+    MetadataCache cache = new MetadataCache(2);
+
+    ContentMetadata a = cache.content(labels("ns_st_ci", "a", "A"));
+    cache.content(labels("ns_st_ci", "b", "B"));
+    cache.content(labels("ns_st_ci", "a", "A"));
+    cache.content(labels("ns_st_ci", "c", "C"));
+
+    assertEquals(2, cache.size());
+    assertSame(a, cache.content(labels("ns_st_ci", "a", "A")));
+    cache.content(labels("ns_st_ci", "b", "B"));
+    assertEquals(4, cache.getMissCount());
+  }
+}
@@ -0,0 +1,128 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class PersistentLabelStoreTest {
+
+  @Mock ComScoreAnalytics comScoreAnalytics;
+  private PersistentLabelStore store;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    store = new PersistentLabelStore(comScoreAnalytics, "cs_ucfr");
+  }
+
+  private static Map<String, String> labels(String... keysAndValues) {
+    Map<String, String> labels = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      labels.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return labels;
+  }
+
+  @Test
+  public void sendsOnlyChangedLabels() {
+    assertTrue(store.replace(labels("userId", "foo", "name", "Kylo")));
+    assertTrue(store.replace(labels("userId", "foo", "name", "Ben")));
+
+    verify(comScoreAnalytics).setPersistentLabels(labels("userId", "foo", "name", "Kylo"));
+    verify(comScoreAnalytics).setPersistentLabels(labels("name", "Ben"));
+    assertEquals("Ben", store.get("name"));
+  }
+
+  @Test
+  public void identicalLabelsAreANoOp() {
+    store.replace(labels("userId", "foo", "anonymousId", null));
+
+    assertFalse(store.replace(labels("userId", "foo", "anonymousId", null)));
+
+    verify(comScoreAnalytics).setPersistentLabels(Mockito.<String, String>anyMap());
+    assertEquals(1, store.getNoOpCount());
+  }
+
+  @Test
+  public void invalidatedLabelsAreSentAgain() {
+    store.replace(labels("userId", "foo", "name", "Kylo"));
+    store.invalidate(Collections.singleton("name"));
+
+    assertTrue(store.replace(labels("userId", "foo", "name", "Kylo")));
+
+    verify(comScoreAnalytics).setPersistentLabels(labels("name", "Kylo"));
+    assertEquals(0, store.getNoOpCount());
+  }
+
+  @Test
+  public void invalidatedRemovalsAreSentAgain() {
+    store.put(labels("campaign", "spring"));
+    store.remove("campaign");
+    store.invalidate(Collections.singleton("campaign"));
+
+    store.remove("campaign");
+
+    verify(comScoreAnalytics, Mockito.times(2)).removePersistentLabel("campaign");
+    assertEquals(2, store.getRemovedCount());
+  }
+
+  @Test
+  public void labelsMissingFromAReplacementAreRemoved() {
+    store.replace(labels("userId", "foo", "plan", "premium"));
+
+    assertTrue(store.replace(labels("userId", "foo")));
+
+    verify(comScoreAnalytics).removePersistentLabel("plan");
+    assertEquals(1, store.getRemovedCount());
+    assertEquals(0, store.getNoOpCount());
+  }
+
+  @Test
+  public void keptAndPutLabelsAreNotRemovedByAReplacement() {
+    store.replace(labels("userId", "foo", "cs_ucfr", "1"));
+    store.put(labels("c12", "abc"));
+
+    store.replace(labels("userId", "foo"));
+
+    verify(comScoreAnalytics, never()).removePersistentLabel(Mockito.anyString());
+    assertEquals("1", store.get("cs_ucfr"));
+    assertEquals("abc", store.get("c12"));
+  }
+
+  @Test
+  public void putSendsOnlyChangedLabels() {
+    assertTrue(store.put(labels("cs_ucfr", "1")));
+    assertFalse(store.put(labels("cs_ucfr", "1")));
+    assertTrue(store.put(labels("cs_ucfr", "0")));
+
+    verify(comScoreAnalytics).setPersistentLabels(labels("cs_ucfr", "1"));
+    verify(comScoreAnalytics).setPersistentLabels(labels("cs_ucfr", "0"));
+    assertEquals(1, store.getNoOpCount());
+  }
+
+  @Test
+  public void removeOnlyCallsTheSdkForAppliedLabels() {
+    store.put(labels("c12", "abc"));
+
+    store.remove("c12");
+    store.remove("c12");
+    store.remove("unknown");
+
+    verify(comScoreAnalytics).setPersistentLabels(Collections.singletonMap("c12", "abc"));
+    verify(comScoreAnalytics).removePersistentLabel("c12");
+    verifyNoMoreInteractions(comScoreAnalytics);
+  }
+}
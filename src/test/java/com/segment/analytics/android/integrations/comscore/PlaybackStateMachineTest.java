@@ -0,0 +1,121 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.ContentMetadata;
+import com.comscore.streaming.StreamingAnalytics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackStateMachineTest {
+
+  @Mock StreamingAnalytics streamingAnalytics;
+  private FakeClock clock;
+  private PlaybackStateMachine playback;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    clock = new FakeClock();
+    playback = new PlaybackStateMachine(streamingAnalytics, clock);
+  }
+
+  @Test
+  public void heartbeatsWhilePlayingAreSuppressed() {
+    assertTrue(playback.play(0, false));
+    for (int position = 10; position <= 60; position += 10) {
+      clock.advance(10000);
+      assertFalse(playback.play(position, false));
+    }
+
+    Mockito.verify(streamingAnalytics).startFromPosition(0);
+    Mockito.verify(streamingAnalytics).notifyPlay();
+    Mockito.verifyNoMoreInteractions(streamingAnalytics);
+    assertEquals(12, playback.getSavedCalls());
+  }
+
+  @Test
+  public void jumpsWithinTheToleranceAreSuppressed() {
+    playback.play(0, false);
+    clock.advance(10000);
+    assertFalse(playback.play(12, false));
+
+    playback = new PlaybackStateMachine(streamingAnalytics, 0, clock);
+    playback.play(0, false);
+    clock.advance(10000);
+    assertTrue(playback.play(12, false));
+    Mockito.verify(streamingAnalytics).startFromPosition(12);
+  }
+
+  @Test
+  public void positionJumpWhilePlayingIsForwarded() {
+    playback.play(0, false);
+    clock.advance(10000);
+    assertTrue(playback.play(40, false));
+    clock.advance(10000);
+    assertTrue(playback.play(5, false));
+
+    InOrder inOrder = Mockito.inOrder(streamingAnalytics);
+    inOrder.verify(streamingAnalytics).startFromPosition(0);
+    inOrder.verify(streamingAnalytics).notifyPlay();
+    inOrder.verify(streamingAnalytics).startFromPosition(40);
+    inOrder.verify(streamingAnalytics).notifyPlay();
+    inOrder.verify(streamingAnalytics).startFromPosition(5);
+    inOrder.verify(streamingAnalytics).notifyPlay();
+  }
+
+  @Test
+  public void repeatedTransitionsAreSuppressed() {
+    playback.play(0, false);
+    assertTrue(playback.pause());
+    assertFalse(playback.pause());
+    assertTrue(playback.seekStart());
+    assertFalse(playback.seekStart());
+    assertTrue(playback.play(30, false));
+    assertTrue(playback.bufferStart(30));
+    assertFalse(playback.bufferStart(30));
+    assertTrue(playback.bufferStop(31));
+    assertFalse(playback.bufferStop(31));
+    assertEquals(PlaybackStateMachine.State.PLAYING, playback.getState());
+    assertTrue(playback.end());
+    assertFalse(playback.end());
+
+    Mockito.verify(streamingAnalytics).notifyPause();
+    Mockito.verify(streamingAnalytics).notifySeekStart();
+    Mockito.verify(streamingAnalytics).notifyBufferStart();
+    Mockito.verify(streamingAnalytics).notifyBufferStop();
+    Mockito.verify(streamingAnalytics).notifyEnd();
+    assertEquals(7, playback.getSavedCalls());
+  }
+
+  @Test
+  public void adAndContentPlaybackAreDifferentStates() {
+    playback.play(0, true);
+    assertTrue(playback.play(0, false));
+    assertEquals(PlaybackStateMachine.State.PLAYING, playback.getState());
+  }
+
+  @Test
+  public void newMetadataForwardsNextPlay() {
+    playback.play(0, false);
+    playback.setMetadata(new ContentMetadata.Builder().build());
+
+    assertEquals(PlaybackStateMachine.State.IDLE, playback.getState());
+    assertTrue(playback.play(0, false));
+  }
+
+  @Test
+  public void everyCallIsForwardedWhileIdle() {
+    assertTrue(playback.bufferStop(10));
+    assertTrue(playback.bufferStop(10));
+    assertEquals(PlaybackStateMachine.State.IDLE, playback.getState());
+    Mockito.verify(streamingAnalytics, Mockito.times(2)).notifyBufferStop();
+  }
+}
@@ -0,0 +1,167 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.Properties;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PropertyProjectorTest {
+
+  @Test
+  public void camelCaseTakesPrecedence() {
+    Properties properties =
+        new Properties()
+            .putValue("position", 10)
+            .putValue("playbackPosition", 20)
+            .putValue("ad_type", "mid-roll")
+            .putValue("adType", "pre-roll")
+            .putValue("asset_id", 2)
+            .putValue("assetId", 1)
+            .putValue("total_length", 30)
+            .putValue("totalLength", 40)
+            .putValue("full_screen", false)
+            .putValue("fullScreen", true);
+
+    VideoProperties video =
+        PropertyProjector.project(properties, Collections.<String, Object>emptyMap(), LabelPlan.AD);
+
+    assertEquals(20, video.position);
+    assertEquals("pre-roll", video.adType);
+    assertEquals("1", video.assetId);
+    assertTrue(video.hasLength);
+    assertEquals(40000, video.length);
+    assertTrue(video.fullScreen);
+  }
+
+  @Test
+  public void snakeCaseFallbacks() {
+    Properties properties =
+        new Properties()
+            .putValue("position", "10")
+            .putValue("adType", " ")
+            .putValue("type", "post-roll")
+            .putValue("assetId", "")
+            .putValue("asset_id", 2)
+            .putValue("totalLength", 0)
+            .putValue("total_length", "30")
+            .putValue("full_screen", "true")
+            .putValue("bitrate", 50);
+
+    VideoProperties video =
+        PropertyProjector.project(properties, Collections.<String, Object>emptyMap(), LabelPlan.AD);
+
+    assertEquals(10, video.position);
+    assertEquals("post-roll", video.adType);
+    assertEquals("post-roll", video.type);
+    assertEquals("2", video.assetId);
+    assertEquals(30000, video.length);
+    assertTrue(video.fullScreen);
+    assertEquals(50000, video.bitrate);
+  }
+
+  @Test
+  public void defaults() {
+    VideoProperties video =
+        PropertyProjector.project(
+            new Properties(), Collections.<String, Object>emptyMap(), LabelPlan.CONTENT);
+
+    assertEquals(0, video.position);
+    assertNull(video.adType);
+    assertEquals("0", video.assetId);
+    assertNull(video.contentId);
+    assertFalse(video.hasLength);
+    assertFalse(video.fullScreen);
+    assertEquals("*null", video.c3);
+    assertEquals("*null", video.c4);
+    assertEquals("*null", video.c6);
+    assertTrue(video.labels.isEmpty());
+  }
+
+  @Test
+  public void optionsTakePrecedenceForClassificationLabels() {
+    Map<String, Object> options = new LinkedHashMap<>();
+    options.put("c3", "option");
+    options.put("c6", 6);
+    Properties properties = new Properties().putValue("c3", "property").putValue("c4", "four");
+
+    VideoProperties video = PropertyProjector.project(properties, options, LabelPlan.PLAYBACK);
+
+    assertEquals("option", video.c3);
+    assertEquals("four", video.c4);
+    assertEquals("6", video.c6);
+  }
+
+  @Test
+  public void mapsPlanLabels() {
+    Properties properties =
+        new Properties()
+            .putValue("video_player", "youtube")
+            .putValue("sound", 80)
+            .putValue("unmapped", "value");
+
+    VideoProperties video =
+        PropertyProjector.project(
+            properties, Collections.<String, Object>emptyMap(), LabelPlan.PLAYBACK);
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("ns_st_mp", "youtube");
+    expected.put("ns_st_vo", "80");
+    assertEquals(expected, video.labels);
+  }
+
+  @Test
+  public void walksPropertiesOnceWithoutLookups() {
+    CountingProperties properties = new CountingProperties();
+    properties
+        .putValue("assetId", 1)
+        .putValue("type", "pre-roll")
+        .putValue("totalLength", 120)
+        .putValue("playbackPosition", 10)
+        .putValue("title", "Helmet Ad");
+    properties.lookups = 0;
+
+    PropertyProjector.project(properties, Collections.<String, Object>emptyMap(), LabelPlan.AD);
+
+    assertEquals(0, properties.lookups);
+    assertEquals(1, properties.iterations);
+
+    // The helpers the projector replaced looked most aliases up one by one.
+    PropertyProjectorBenchmark.Legacy.mapAd(
+        properties, Collections.<String, Object>emptyMap());
+    assertEquals(10, properties.lookups);
+    assertEquals(2, properties.iterations);
+  }
+
+  /** Counts keyed lookups and full iterations performed on the properties. */
+  private static class CountingProperties extends Properties {
+    int lookups;
+    int iterations;
+
+    @Override
+    public Object get(Object key) {
+      lookups++;
+      return super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      lookups++;
+      return super.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      iterations++;
+      return super.entrySet();
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/** An {@link Executor} that only runs its tasks when told to, on the thread telling it. */
+final class QueueExecutor implements Executor {
+
+  private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+  }
+
+  /** Waits for the next task and runs it. */
+  void runNext() throws InterruptedException {
+    Runnable task = tasks.poll(5, TimeUnit.SECONDS);
+    assertNotNull(task);
+    task.run();
+  }
+}
@@ -0,0 +1,166 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.StreamingAnalytics;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RecordingComScoreAnalyticsTest {
+
+  private static Map<String, String> labels(String... keysAndValues) {
+    Map<String, String> labels = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      labels.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return labels;
+  }
+
+  @Test
+  public void recordsCallsInOrder() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(4);
+
+    recorder.setPersistentLabels(labels("cs_ucfr", "1"));
+    recorder.notifyHiddenEvent(labels("name", "Order Completed", "total", "10"));
+    recorder.createStreamingAnalytics();
+
+    List<RecordingComScoreAnalytics.Call> calls = recorder.getCalls();
+    assertEquals(3, calls.size());
+    assertEquals(RecordingComScoreAnalytics.Method.SET_PERSISTENT_LABELS, calls.get(0).method());
+    assertEquals(labels("cs_ucfr", "1"), calls.get(0).labels());
+    assertEquals(RecordingComScoreAnalytics.Method.NOTIFY_HIDDEN_EVENT, calls.get(1).method());
+    assertEquals(labels("name", "Order Completed", "total", "10"), calls.get(1).labels());
+    assertEquals(
+        RecordingComScoreAnalytics.Method.CREATE_STREAMING_ANALYTICS, calls.get(2).method());
+    assertEquals(Collections.emptyMap(), calls.get(2).labels());
+    assertTrue(calls.get(0).nanoTime() <= calls.get(2).nanoTime());
+  }
+
+  @Test
+  public void keepsTheLatestCallsWhenFull() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(3);
+
+    for (int i = 0; i < 5; i++) {
+      recorder.notifyViewEvent(labels("name", "Screen " + i));
+    }
+
+    List<RecordingComScoreAnalytics.Call> calls = recorder.getCalls();
+    assertEquals(3, calls.size());
+    assertEquals("Screen 2", calls.get(0).labels().get("name"));
+    assertEquals("Screen 4", calls.get(2).labels().get("name"));
+    assertEquals(5, recorder.getRecordedCount());
+  }
+
+  @Test
+  public void countsCallsPerMethodBeyondCapacity() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(1);
+
+    recorder.notifyViewEvent(labels("name", "Home"));
+    recorder.notifyHiddenEvent(labels("name", "Clicked"));
+    recorder.notifyHiddenEvent(labels("name", "Clicked"));
+
+    assertEquals(1, recorder.getCallCount(RecordingComScoreAnalytics.Method.NOTIFY_VIEW_EVENT));
+    assertEquals(2, recorder.getCallCount(RecordingComScoreAnalytics.Method.NOTIFY_HIDDEN_EVENT));
+    recorder.clear();
+    assertEquals(0, recorder.getCallCount(RecordingComScoreAnalytics.Method.NOTIFY_HIDDEN_EVENT));
+  }
+
+  @Test
+  public void reusedSlotsDoNotKeepLabelsOfEarlierCalls() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(1);
+
+    recorder.notifyHiddenEvent(labels("a", "1", "b", "2", "c", "3"));
+    recorder.notifyHiddenEvent(labels("d", "4"));
+
+    assertEquals(labels("d", "4"), recorder.getCalls().get(0).labels());
+  }
+
+  @Test
+  public void recordsAtMostMaxLabelsPerCall() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(1);
+    Map<String, String> labels = new HashMap<>();
+    for (int i = 0; i <= RecordingComScoreAnalytics.MAX_LABELS; i++) {
+      labels.put("label" + i, "value");
+    }
+
+    recorder.notifyHiddenEvent(labels);
+
+    assertEquals(
+        RecordingComScoreAnalytics.MAX_LABELS, recorder.getCalls().get(0).labels().size());
+  }
+
+  @Test
+  public void recordOnlyCreatesNoStreamingAnalytics() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(1);
+
+    assertNull(recorder.createStreamingAnalytics());
+    assertEquals(1, recorder.getRecordedCount());
+  }
+
+  @Test
+  public void labelsAreSnapshots() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(2);
+    Map<String, String> labels = labels("name", "Home");
+
+    recorder.notifyViewEvent(labels);
+    labels.put("name", "Settings");
+
+    assertEquals("Home", recorder.getCalls().get(0).labels().get("name"));
+  }
+
+  @Test
+  public void forwardsToDelegate() {
+    ComScoreAnalytics delegate = mock(ComScoreAnalytics.class);
+    StreamingAnalytics streamingAnalytics = mock(StreamingAnalytics.class);
+    when(delegate.createStreamingAnalytics()).thenReturn(streamingAnalytics);
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(delegate, 2);
+    Map<String, String> labels = labels("name", "Home");
+
+    recorder.notifyViewEvent(labels);
+    assertSame(streamingAnalytics, recorder.createStreamingAnalytics());
+
+    verify(delegate).notifyViewEvent(labels);
+    assertEquals(2, recorder.getCalls().size());
+  }
+
+  @Test
+  public void dumpsOneLinePerCall() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(2);
+    recorder.notifyViewEvent(labels("name", "Home"));
+    recorder.setPersistentLabels(labels("cs_ucfr", "0"));
+
+    String[] lines = recorder.dump().split(System.lineSeparator());
+
+    assertEquals(2, lines.length);
+    assertTrue(lines[0], lines[0].matches("\\+0\\.000ms NOTIFY_VIEW_EVENT \\{name=Home\\}"));
+    assertTrue(
+        lines[1], lines[1].matches("\\+\\d+\\.\\d{3}ms SET_PERSISTENT_LABELS \\{cs_ucfr=0\\}"));
+  }
+
+  @Test
+  public void clearForgetsCalls() {
+    RecordingComScoreAnalytics recorder = new RecordingComScoreAnalytics(2);
+    recorder.notifyViewEvent(labels("name", "Home"));
+
+    recorder.clear();
+
+    assertTrue(recorder.getCalls().isEmpty());
+    assertEquals("", recorder.dump());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCapacityBelowOne() {
+    new RecordingComScoreAnalytics(0);
+  }
+}
@@ -0,0 +1,73 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.ValueMap;
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayHarnessTest {
+
+  private static final String EVENTS =
+      "{\"type\":\"identify\",\"userId\":\"u1\",\"traits\":{\"name\":\"Kylo\"},"
+          + "\"timestamp\":\"2021-05-01T10:00:00.000Z\"}\n"
+          + "{\"type\":\"track\",\"event\":\"Video Playback Started\","
+          + "\"properties\":{\"asset_id\":1},\"timestamp\":\"2021-05-01T10:00:01.000Z\"}\n"
+          + "{\"type\":\"track\",\"event\":\"Video Playback Paused\","
+          + "\"properties\":{},\"timestamp\":\"2021-05-01T10:00:05.000Z\"}\n"
+          + "{\"type\":\"track\",\"event\":\"Video Playback Paused\","
+          + "\"properties\":{},\"timestamp\":\"2021-05-01T10:00:06.000Z\"}\n"
+          + "{\"type\":\"screen\",\"name\":\"Home\",\"anonymousId\":\"a1\"}\n"
+          + "{\"type\":\"track\",\"event\":\"Clicked\",\"properties\":{\"button\":\"play\"},"
+          + "\"integrations\":{\"comScore\":{\"c3\":\"x\"}}}\n"
+          + "\n"
+          + "{\"type\":\"alias\",\"previousId\":\"a1\"}\n"
+          + "not json\n";
+
+  @Test
+  public void replaysPayloadsAndCountsSdkCalls() throws Exception {
+    ReplayHarness harness = new ReplayHarness(new ValueMap(), false, 1);
+
+    ReplayHarness.Report report = harness.replay(new BufferedReader(new StringReader(EVENTS)));
+
+    assertEquals(6, report.events);
+    assertEquals(2, report.skipped);
+    assertEquals(1L, (long) report.sdkCalls.get("setPersistentLabels"));
+    assertEquals(1L, (long) report.sdkCalls.get("notifyViewEvent"));
+    assertEquals(1L, (long) report.sdkCalls.get("notifyHiddenEvent"));
+    assertEquals(1L, (long) report.sdkCalls.get("createStreamingAnalytics"));
+    // The second pause is suppressed by the playback state machine.
+    assertEquals(1L, (long) report.sdkCalls.get("streamingAnalytics.notifyPause"));
+    assertTrue(report.latency(50) <= report.latency(100));
+    assertTrue(report.format().contains("sdk calls/event"));
+  }
+
+  @Test
+  public void parsesOptionsAndTimestamps() {
+    BasePayload payload =
+        ReplayHarness.parse(
+            "{\"type\":\"track\",\"event\":\"Clicked\",\"userId\":\"u1\","
+                + "\"integrations\":{\"comScore\":{\"c3\":\"x\"}},"
+                + "\"timestamp\":\"2021-05-01T10:00:00.000Z\"}");
+
+    TrackPayload track = (TrackPayload) payload;
+    assertEquals("Clicked", track.event());
+    assertEquals("u1", track.userId());
+    assertEquals("x", track.integrations().getValueMap("comScore").getString("c3"));
+    assertEquals(1619863200000L, track.timestamp().getTime());
+  }
+
+  @Test
+  public void skipsPayloadsTheBuildersReject() {
+    assertNull(ReplayHarness.parse("{\"type\":\"screen\"}"));
+    assertNull(ReplayHarness.parse("{\"type\":\"track\"}"));
+    assertNull(ReplayHarness.parse("[1, 2]"));
+  }
+}
@@ -0,0 +1,68 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.PartnerConfiguration;
+import com.comscore.PublisherConfiguration;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SdkBootstrapTest {
+
+  private final SdkBootstrap bootstrap = new SdkBootstrap();
+  private final SdkBootstrap.Sdk sdk = mock(SdkBootstrap.Sdk.class);
+  private final PartnerConfiguration partner = mock(PartnerConfiguration.class);
+  private final PublisherConfiguration publisher = mock(PublisherConfiguration.class);
+
+  @Test
+  public void firstIntegrationAddsClientsAndStarts() {
+    assertFalse(bootstrap.isStarted());
+
+    bootstrap.register(sdk, partner, "24186693", publisher, "1234");
+
+    InOrder inOrder = Mockito.inOrder(sdk);
+    inOrder.verify(sdk).addClient(partner);
+    inOrder.verify(sdk).addClient(publisher);
+    inOrder.verify(sdk).start();
+    assertTrue(bootstrap.isStarted());
+  }
+
+  @Test
+  public void laterIntegrationsWithTheSameIdsDoNothing() {
+    bootstrap.register(sdk, partner, "24186693", publisher, "1234");
+    SdkBootstrap.Sdk other = mock(SdkBootstrap.Sdk.class);
+
+    assertFalse(bootstrap.register(other, partner, "24186693", publisher, "1234"));
+
+    Mockito.verifyNoInteractions(other);
+    assertEquals(3, bootstrap.getSkippedCount());
+  }
+
+  @Test
+  public void anotherPublisherIsAddedWithoutRestarting() {
+    bootstrap.register(sdk, partner, "24186693", publisher, "1234");
+    PublisherConfiguration tenant = mock(PublisherConfiguration.class);
+
+    bootstrap.register(sdk, partner, "24186693", tenant, "5678");
+
+    verify(sdk).addClient(partner);
+    verify(sdk).addClient(tenant);
+    verify(sdk, times(1)).start();
+  }
+
+  @Test
+  public void publishersWithoutIdAreAlwaysAdded() {
+    bootstrap.register(sdk, partner, "24186693", publisher, null);
+    bootstrap.register(sdk, partner, "24186693", publisher, null);
+
+    verify(sdk, times(2)).addClient(publisher);
+    verify(sdk, times(1)).start();
+  }
+}
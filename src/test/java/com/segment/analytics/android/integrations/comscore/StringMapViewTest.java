@@ -0,0 +1,120 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.segment.analytics.Properties;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StringMapViewTest {
+
+  private static Properties mixedProperties() {
+    return new Properties()
+        .putValue("string", "value")
+        .putValue("int", 1)
+        .putValue("double", 20.5)
+        .putValue("boolean", true)
+        .putValue("null", null)
+        .putValue("list", Arrays.asList(1, 2))
+        .putValue("nested", new Properties().putValue("key", "value"));
+  }
+
+  @Test
+  public void matchesToStringMap() {
+    Properties properties = mixedProperties();
+
+    StringMapView view = new StringMapView(properties);
+
+    assertEquals(properties.toStringMap(), view);
+    assertEquals(view, properties.toStringMap());
+    assertEquals(properties.toStringMap().hashCode(), view.hashCode());
+    assertEquals("null", view.get("null"));
+    assertNull(view.get("missing"));
+    assertFalse(view.containsKey("missing"));
+  }
+
+  @Test
+  public void cachesConversions() {
+    StringMapView view = new StringMapView(mixedProperties());
+
+    String converted = view.get("double");
+    assertSame(converted, view.get("double"));
+    for (Map.Entry<String, String> entry : view.entrySet()) {
+      if (entry.getKey().equals("double")) {
+        assertSame(converted, entry.getValue());
+      }
+    }
+  }
+
+  @Test
+  public void overlayShadowsSource() {
+    Properties properties = new Properties().putValue("name", "original").putValue("count", 3);
+    StringMapView view = new StringMapView(properties);
+
+    assertEquals("original", view.put("name", "event"));
+    assertNull(view.put("category", "screen"));
+    assertEquals("screen", view.put("category", "other"));
+    view.put("empty", null);
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("name", "event");
+    expected.put("count", "3");
+    expected.put("category", "other");
+    expected.put("empty", null);
+    assertEquals(expected, view);
+    assertEquals(4, view.size());
+    assertTrue(view.containsKey("empty"));
+
+    // The source is left untouched.
+    assertEquals("original", properties.getString("name"));
+    assertFalse(properties.containsKey("category"));
+  }
+
+  @Test
+  public void iteratesSourceThenOverlay() {
+    StringMapView view = new StringMapView(new Properties().putValue("a", 1));
+    view.put("b", "2");
+    view.put("a", "overridden");
+
+    Map<String, String> copy = new LinkedHashMap<>(view);
+
+    assertEquals(Arrays.asList("a", "b"), Arrays.asList(copy.keySet().toArray()));
+    assertEquals("overridden", copy.get("a"));
+  }
+
+  @Test
+  public void entriesCanBeKept() {
+    StringMapView view = new StringMapView(new Properties().putValue("a", 1).putValue("b", 2));
+    view.put("c", "3");
+
+    List<Map.Entry<String, String>> entries = new ArrayList<>(view.entrySet());
+
+    assertEquals("a", entries.get(0).getKey());
+    assertEquals("1", entries.get(0).getValue());
+    assertEquals("c", entries.get(2).getKey());
+  }
+
+  @Test
+  public void convertsValuesUnderANullKey() {
+    Map<String, Object> source = new HashMap<>();
+    source.put(null, 1);
+
+    assertEquals("1", new StringMapView(source).get(null));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void removeIsNotSupported() {
+    new StringMapView(new Properties().putValue("a", 1)).remove("a");
+  }
+}
@@ -0,0 +1,110 @@
+package com.segment.analytics.android.integrations.comscore;
+
+import com.comscore.streaming.StreamingAnalytics;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VideoSessionRegistryTest {
+
+  @Test
+  public void evictsLeastRecentlyUsedSession() {
+    VideoSessionRegistry registry = new VideoSessionRegistry(2, 0, new FakeClock());
+    StreamingAnalytics a = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics b = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics c = Mockito.mock(StreamingAnalytics.class);
+    Map<String, String> labelsA = new HashMap<>();
+
+    registry.start("a", a, labelsA);
+    registry.start("b", b, new HashMap<String, String>());
+    labelsA.put("ns_st_ci", "1");
+    registry.get("a"); // "b" is now the least recently used session.
+    registry.start("c", c, new HashMap<String, String>());
+
+    assertNull(registry.get("b"));
+    assertSame(a, registry.get("a").streamingAnalytics);
+    Mockito.verify(b).notifyEnd();
+    Mockito.verify(a, Mockito.never()).notifyEnd();
+    assertEquals(2, registry.size());
+    assertEquals(1, registry.getEvictedCount());
+    assertEquals("1", labelsA.get("ns_st_ci"));
+  }
+
+  @Test
+  public void restartingSessionEndsTheReplacedOne() {
+    VideoSessionRegistry registry = new VideoSessionRegistry(2, 0, new FakeClock());
+    StreamingAnalytics first = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics second = Mockito.mock(StreamingAnalytics.class);
+    Map<String, String> firstLabels = new HashMap<>();
+
+    registry.start(null, first, firstLabels);
+    firstLabels.put("ns_st_ad", "pre-roll");
+    registry.start(null, second, new HashMap<String, String>());
+
+    assertSame(second, registry.get(null).streamingAnalytics);
+    assertTrue(firstLabels.isEmpty());
+    assertEquals(1, registry.size());
+    assertEquals(0, registry.getEvictedCount());
+    Mockito.verify(first).notifyEnd();
+    Mockito.verify(second, Mockito.never()).notifyEnd();
+  }
+
+  @Test
+  public void reapsSessionsIdleForLongerThanTheTimeout() {
+    FakeClock clock = new FakeClock();
+    VideoSessionRegistry registry = new VideoSessionRegistry(4, 1000, clock);
+    StreamingAnalytics idle = Mockito.mock(StreamingAnalytics.class);
+    StreamingAnalytics active = Mockito.mock(StreamingAnalytics.class);
+    Map<String, String> idleLabels = new HashMap<>();
+
+    registry.start("idle", idle, idleLabels);
+    registry.start("active", active, new HashMap<String, String>());
+    idleLabels.put("ns_st_ci", "1");
+    clock.advance(600);
+    registry.get("active");
+    clock.advance(600);
+    registry.reapIdle();
+
+    Mockito.verify(idle).notifyEnd();
+    Mockito.verify(active, Mockito.never()).notifyEnd();
+    assertNull(registry.get("idle"));
+    assertTrue(idleLabels.isEmpty());
+    assertEquals(1, registry.getReapedCount());
+
+    clock.advance(400);
+    registry.reapIdle(); // Exactly at the timeout: still kept.
+    assertEquals(1, registry.size());
+    clock.advance(1);
+    registry.reapIdle();
+    assertEquals(0, registry.size());
+    assertEquals(2, registry.getReapedCount());
+    assertEquals(0, registry.getEvictedCount());
+  }
+
+  @Test
+  public void zeroTimeoutNeverReaps() {
+    FakeClock clock = new FakeClock();
+    VideoSessionRegistry registry = new VideoSessionRegistry(4, 0, clock);
+    StreamingAnalytics streamingAnalytics = Mockito.mock(StreamingAnalytics.class);
+
+    registry.start("a", streamingAnalytics, new HashMap<String, String>());
+    clock.advance(Long.MAX_VALUE / 2);
+    registry.reapIdle();
+
+    assertEquals(1, registry.size());
+    Mockito.verifyNoMoreInteractions(streamingAnalytics);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsZeroCapacity() {
+    new VideoSessionRegistry(0, 0, new FakeClock());
+  }
+}